@@ -5,6 +5,7 @@ import java.awt.event.ActionListener;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.io.File;
+import java.io.IOException;
 
 import javax.swing.DefaultListModel;
 import javax.swing.JButton;
@@ -16,6 +17,13 @@ import javax.swing.JScrollPane;
 import javax.swing.JTextField;
 import javax.swing.JCheckBox;
 
+import org.batchexecutor.batch.BatchEngine;
+import org.batchexecutor.batch.BatchJournal;
+import org.batchexecutor.batch.LibraryIndex;
+import org.batchexecutor.batch.BatchMain;
+import org.batchexecutor.util.Config;
+import org.batchexecutor.util.Metrics;
+
 /**
  * 
  */
@@ -25,7 +33,7 @@ import javax.swing.JCheckBox;
  *
  */
 public class BatchExecutor {
-	final static  JFrame m_frm = new JFrame("Batch Executor");
+	static  JFrame m_frm;
 	private static  JTextField _txt_playerLocation;
 	private static  JTextField _txt_delayTime;
 	public static JLabel _lrcCount = new JLabel("0");
@@ -35,9 +43,14 @@ public class BatchExecutor {
 	private static JCheckBox chckbxGetSongLyrics = new JCheckBox("Get song Lyrics");
 
 	/**
-	 * @param args
+	 * @param args songs and folders to run headless, see {@link BatchMain}
 	 */
-	public static void main(String[] args) {
+	public static void main(String[] args) throws Exception {
+		if(args.length > 0){
+			BatchMain.main(args);
+			return;
+		}
+		m_frm = new JFrame("Batch Executor");
 		m_frm.getContentPane().setLayout(null);
 		
 		_txt_playerLocation = new JTextField();
@@ -128,7 +141,20 @@ public class BatchExecutor {
 		m_frm.getContentPane().add(btnAddSingleSongs);
 		
 		JButton btnDownloadLyrics = new JButton("Start");
-		DownloadTask task = new DownloadTask(_lrcCount, _model_songList, _list_songList,_txt_playerLocation, chckbxGetSongLyrics);
+		BatchEngine engine = new BatchEngine(Config.getConfig().getBatchThreadCount());
+		Metrics.getDefault().register();
+		BatchJournal journal = new BatchJournal(BatchJournal.getDefaultDir());
+		try {
+			journal.open(false);//only carries a batch that was stopped on, the index remembers the rest
+			engine.setJournal(journal);
+			LibraryIndex index = new LibraryIndex(LibraryIndex.getDefaultFile());
+			index.load();
+			engine.setIndex(index);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		final DownloadTask task = new DownloadTask(_lrcCount, _model_songList, _list_songList,_txt_playerLocation, chckbxGetSongLyrics,
+				engine);
 		int _delaytime = Integer.parseInt(_txt_delayTime.getText());
 		DownloadListener dlistener = new DownloadListener(btnDownloadLyrics, task, _delaytime);
 		btnDownloadLyrics.addActionListener(dlistener);
@@ -146,6 +172,7 @@ public class BatchExecutor {
 		btnDelSongs.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent arg0) {
 				for(Object obj : _list_songList.getSelectedValues()){
+					task.remove(obj);
 					_model_songList.removeElement(obj);
 				}
 				_list_songList.updateUI();
@@ -1,13 +1,11 @@
 package org.batchexecutor;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.util.Timer;
 
 import javax.swing.JButton;
 
 
 public class DownloadListener implements ActionListener {
-	Timer timer = null;
 	JButton _btnDownloadLyrics = null;
 	DownloadTask _task = null;
 	int _delaytime = 0;
@@ -16,9 +14,7 @@ public class DownloadListener implements ActionListener {
 		_btnDownloadLyrics = btnDownloadLyrics;
 		_delaytime = delaytime;
 		_task = task;
-		timer = new Timer();
-		timer.schedule(_task, 0, _delaytime);
-		_task.setEnable(false);
+		_task.setDelay(_delaytime);
 	}
 	
 	public void actionPerformed(ActionEvent arg0) {
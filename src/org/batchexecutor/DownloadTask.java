@@ -1,16 +1,21 @@
 package org.batchexecutor;
 import java.io.File;
-import java.util.TimerTask;
+import java.io.IOException;
 
 import javax.swing.DefaultListModel;
 import javax.swing.JCheckBox;
 import javax.swing.JLabel;
 import javax.swing.JList;
 import javax.swing.JTextField;
+import javax.swing.SwingUtilities;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
 
-import org.batchexecutor.lyric.Lyric;
-import org.batchexecutor.playlist.PlayListItem;
-import org.batchexecutor.util.Util;
+import org.batchexecutor.batch.BatchEngine;
+import org.batchexecutor.batch.BatchEvent;
+import org.batchexecutor.batch.BatchListener;
+import org.batchexecutor.batch.LibraryWatcher;
+import org.batchexecutor.util.Config;
 
 
 /**
@@ -18,10 +23,12 @@ import org.batchexecutor.util.Util;
  */
 
 /**
+ * Swing front of the {@link BatchEngine}: feeds the songs added to the
+ * list into the engine and mirrors its progress events back into the UI.
  * @author SnowWolf725
  *
  */
-public class DownloadTask extends TimerTask {
+public class DownloadTask implements BatchListener, ListDataListener {
 	
 	JLabel _lrcCount;
 	DefaultListModel _model_songList;
@@ -29,6 +36,8 @@ public class DownloadTask extends TimerTask {
 	JTextField _txt_playerLocation;
 	boolean isEnable;
 	JCheckBox _chckbxGetSongLyrics;
+	BatchEngine _engine;
+	LibraryWatcher _watcher;
 	
 	public boolean isEnable() {
 		return isEnable;
@@ -36,95 +45,108 @@ public class DownloadTask extends TimerTask {
 
 	public void setEnable(boolean isEnable) {
 		this.isEnable = isEnable;
+		if(isEnable){
+			_engine.setFetchLyrics(_chckbxGetSongLyrics.isSelected());
+			_engine.setPlayerLocation(_txt_playerLocation.getText());
+			_engine.setPlayerSlots(Config.getConfig().getPlayerSlots());
+			_engine.setPlayerMaxTime(Config.getConfig().getPlayerMaxTime());
+			_engine.setPlayerDonePattern(Config.getConfig().getPlayerDonePattern());
+			_engine.start();
+			startWatching();
+		} else {
+			stopWatching();
+			_engine.stop();
+		}
+	}
+
+	/**
+	 * Watches the folders set in the config while the batch runs, so
+	 * songs copied there are processed without adding them by hand.
+	 */
+	private void startWatching() {
+		Config config = Config.getConfig();
+		if(config.getWatchDirs().isEmpty())
+			return;
+		try {
+			_watcher = new LibraryWatcher(_engine, config.getWatchDebounce());
+			for(File dir : config.getWatchDirs())
+				_watcher.watch(dir);
+			_watcher.start();
+		} catch (IOException e) {
+			e.printStackTrace();
+			stopWatching();
+		}
+	}
+
+	private void stopWatching() {
+		if(_watcher != null){
+			_watcher.close();
+			_watcher = null;
+		}
+	}
+
+	public void setDelay(long delay) {
+		_engine.setDelay(delay);
+	}
+
+	/**
+	 * Takes a song or folder the user deleted from the list off the queue.
+	 * @param path the list entry
+	 */
+	public void remove(Object path) {
+		_engine.remove(new File(path.toString()));
 	}
 
 	DownloadTask(JLabel lrcCount,
 			DefaultListModel model_songList,
 			JList list_songList,
 			JTextField txt_playerLocation,
-			JCheckBox chckbxGetSongLyrics){
+			JCheckBox chckbxGetSongLyrics,
+			BatchEngine engine){
 		_lrcCount = lrcCount;
 		_model_songList = model_songList;
 		_list_songList = list_songList;
 		_txt_playerLocation = txt_playerLocation;
 		_chckbxGetSongLyrics = chckbxGetSongLyrics;
-		isEnable = true;
+		_engine = engine;
+		isEnable = false;
+		for(int i = 0; i < _model_songList.getSize(); i++)
+			_engine.add(new File(_model_songList.getElementAt(i).toString()));
+		_model_songList.addListDataListener(this);
+		_engine.addBatchListener(this);
 	}
 
-	/* (non-Javadoc)
-	 * @see java.util.TimerTask#run()
-	 */
-	@Override
-	public void run() {
-		if(isEnable == false)
+	public void intervalAdded(ListDataEvent e) {
+		for(int i = e.getIndex0(); i <= e.getIndex1(); i++)
+			_engine.add(new File(_model_songList.getElementAt(i).toString()));
+	}
+
+	public void intervalRemoved(ListDataEvent e) {
+	}
+
+	public void contentsChanged(ListDataEvent e) {
+	}
+
+	public void itemStarted(final BatchEvent e) {
+		System.out.println("[process]"+e.getFile().getPath());
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				_model_songList.removeElement(e.getFile().getPath());
+			}
+		});
+	}
+
+	public void itemFinished(final BatchEvent e) {
+		if(e.getStatus() != BatchEvent.Status.LYRIC_SAVED)
 			return;
-		boolean isProcessOneFile = false;
-		while(_model_songList.getSize()>0 && isProcessOneFile == false){
-			try {
-					String cmd = _txt_playerLocation.getText() + " \"" ;
-					File file = new File(_model_songList.getElementAt(0).toString());
-					System.out.println("[process]"+file.getPath()+","+_model_songList.getElementAt(0).toString());
-					if(file.getPath().equals(_model_songList.getElementAt(0).toString()) == false){
-						_model_songList.remove(0);
-						continue;
-					}
-					_model_songList.remove(0);
-					if(file.exists() == false)
-						continue;
-					if(file.isFile() && Utils.getExtension(file) != null &&
-							Utils.getExtension(file).equals("mp3")){
-						cmd += file.getPath() + "\"";
-						String _str_lrcpath = file.getPath();
-						_str_lrcpath = _str_lrcpath.substring(0, _str_lrcpath.length() - 3);
-						_str_lrcpath += "lrc";
-						File _lrcfile = new File(_str_lrcpath);
-						if(_lrcfile.exists())
-							continue;
-						
-						try {
-							
-							if(_chckbxGetSongLyrics.isSelected()) {
-								PlayListItem item = new PlayListItem(Util.getSongName(file), file.getPath(), -1, true);
-								Lyric lrc = new Lyric(item);
-								
-								_lrcfile = new File(_str_lrcpath);
-								if(_lrcfile.exists()){
-									int fileCount = Integer.parseInt(_lrcCount.getText()) + 1;
-									_lrcCount.setText(fileCount + "");
-								}
-								
-								Thread.sleep(10000);
-							} else {
-								Thread.sleep(5000);
-								Runtime r = Runtime.getRuntime();
-								Process p = r.exec(cmd);
-								Thread.sleep(20000);
-								p.getErrorStream();
-								p.destroy();
-							}
-							isProcessOneFile = true;
-						//} catch (IOException e) {
-							// TODO Auto-generated catch block
-						//	e.printStackTrace();
-						} catch(ArrayIndexOutOfBoundsException e){
-							e.printStackTrace();
-						}
-					}
-					else if(file.isDirectory()){
-						for(File subfile:file.listFiles()){
-							if(!subfile.equals(file))
-							{
-								System.out.println("[add]"+subfile.getPath());
-								_model_songList.insertElementAt(subfile.getPath(), 0);
-							}
-						}
-						continue;
-					}
-					_list_songList.updateUI();
-				} catch (Exception e) {
-					e.printStackTrace();
-				}
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				_lrcCount.setText(e.getLyricCount() + "");
 			}
+		});
+	}
+
+	public void batchIdle(BatchEvent e) {
 	}
 
 }
@@ -69,9 +69,9 @@ public final class MP3AudioHeader implements AudioHeader
     private long    numberOfFramesEstimate;
     private long    bitrate;
     private String  encoder ="";
+    private boolean variableBitRate;
+    private boolean exactLength;
 
-    private static final SimpleDateFormat timeInFormat    = new SimpleDateFormat("ss");
-    private static final SimpleDateFormat timeOutFormat   = new SimpleDateFormat("mm:ss");
     private static final char             isVbrIdentifier = '~';
     private static final int              CONVERT_TO_KILOBITS = 1000;
     private static final String           TYPE_MP3 = "mp3";
@@ -130,6 +130,36 @@ public final class MP3AudioHeader implements AudioHeader
          }
     }
 
+    /**
+     * Search for the first MP3Header using a channel that is already open, so that the file
+     * does not have to be opened again
+     *
+     * Only positional reads are used, the channel is left open and its position is not changed.
+     *
+     * @param fc channel of the file
+     * @param startByte where to start searching
+     * @param bb buffer to read into, from {@link #allocateBuffer()}, can be reused for other files
+     * @param fileName only used in messages
+     * @throws IOException
+     * @throws InvalidAudioFrameException
+     */
+    MP3AudioHeader(final FileChannel fc,long startByte,ByteBuffer bb,String fileName)throws IOException,InvalidAudioFrameException
+    {
+         if(seek(fc, startByte, bb, fileName)==false)
+         {
+             throw new InvalidAudioFrameException("No audio header found within"+fileName);
+         }
+    }
+
+    /**
+     *
+     * @return a buffer large enough for searching for the audio header
+     */
+    static ByteBuffer allocateBuffer()
+    {
+        return ByteBuffer.allocateDirect(FILE_BUFFER_SIZE);
+    }
+
     /**
      * Returns true if the first MP3 frame can be found for the MP3 file
      *
@@ -139,27 +169,38 @@ public final class MP3AudioHeader implements AudioHeader
      * @param startByte if there is an ID3v2tag we dont want to start reading from the start of the tag
      * @return true if the first MP3 frame can be found
      * @throws IOException on any I/O error
-     * @noinspection NestedTryStatement
      */
     public boolean seek(final File seekFile, long startByte)
         throws IOException
+    {
+        final FileInputStream fis = new FileInputStream(seekFile);
+        try
+        {
+            return seek(fis.getChannel(), startByte, allocateBuffer(), seekFile.getName());
+        }
+        finally
+        {
+            fis.close();
+        }
+    }
+
+    /**
+     * Returns true if the first MP3 frame can be found in the channel, the channel is not closed
+     * and its position is not changed
+     *
+     * @noinspection NestedTryStatement
+     */
+    private boolean seek(final FileChannel fc, long startByte, ByteBuffer bb, String fileName)
+        throws IOException
     {
         //This is substantially faster than updating the filechannels position
         long filePointerCount;
 
-        final FileInputStream     fis = new FileInputStream(seekFile);
-        final FileChannel fc = fis.getChannel();
-
-        //Read into Byte Buffer in Chunks
-        ByteBuffer  bb = ByteBuffer.allocateDirect(FILE_BUFFER_SIZE);
-
-        //Move FileChannel to the starting position (skipping over tag if any)
-        fc.position(startByte);
-
         //Update filePointerCount
         filePointerCount=startByte;
 
         //Read from here into the byte buffer , doesnt move location of filepointer
+        bb.clear();
         fc.read(bb,startByte);
         bb.flip();
 
@@ -171,8 +212,7 @@ public final class MP3AudioHeader implements AudioHeader
                 if(bb.remaining()<=MIN_BUFFER_REMAINING_REQUIRED)
                 {
                     bb.clear();
-                    fc.position(filePointerCount);
-                    fc.read(bb,fc.position());
+                    fc.read(bb,filePointerCount);
                     bb.flip();
                     if(bb.limit()<=MIN_BUFFER_REMAINING_REQUIRED)
                     {
@@ -180,6 +220,16 @@ public final class MP3AudioHeader implements AudioHeader
                         return false;
                     }
                 }
+                //Skip straight to the next possible sync byte, but not past the point where the buffer
+                //has to be refilled
+                int currentPosition = bb.position();
+                int syncPosition = MPEGFrameHeader.findSyncByte(bb,currentPosition,bb.limit()-MIN_BUFFER_REMAINING_REQUIRED);
+                if(syncPosition!=currentPosition)
+                {
+                    bb.position(syncPosition);
+                    filePointerCount+=syncPosition-currentPosition;
+                    continue;
+                }
                 //MP3File.logger.finest("fc:"+fc.position() + "bb"+bb.position());
                 if(MPEGFrameHeader.isMPEGFrame(bb))
                 {
@@ -201,7 +251,7 @@ public final class MP3AudioHeader implements AudioHeader
                             try
                             {
                                 //Parses Xing frame without modifying position of main buffer
-                                mp3XingFrame = XingFrame.parseXingFrame();
+                                mp3XingFrame = XingFrame.parseXingFrame(bb,mp3FrameHeader);
                             }
                             catch (InvalidAudioFrameException ex)
                             {
@@ -220,7 +270,7 @@ public final class MP3AudioHeader implements AudioHeader
                         // has been encoded with as Unicode LE because these have a BOM of 0xFF 0xFE
                         else
                         {
-                            syncFound=isNextFrameValid(seekFile,filePointerCount,bb,fc);
+                            syncFound=isNextFrameValid(fileName,filePointerCount,bb,fc);
                             if(syncFound==true)
                             {
                                 break;
@@ -250,25 +300,13 @@ public final class MP3AudioHeader implements AudioHeader
             syncFound = false;
             throw iox;
         }
-        finally
-        {
-            if (fc != null)
-            {
-                fc.close();
-            }
-
-            if (fis != null)
-            {
-                fis.close();
-            } 
-        }
 
         //Return to start of audio header
         if(MP3AudioHeader.logger.isLoggable(Level.FINEST))
         {
             MP3AudioHeader.logger.finer("Return found matching mp3 header starting at" + filePointerCount);
         }
-        setFileSize(seekFile.length());
+        setFileSize(fc.size());
         setMp3StartByte(filePointerCount);
         setTimePerFrame();
         setNumberOfFrames();
@@ -282,12 +320,12 @@ public final class MP3AudioHeader implements AudioHeader
      *
      * @return  true if frame is valid
      */
-    private boolean isNextFrameValid(File seekFile,long filePointerCount,ByteBuffer  bb,FileChannel fc)
+    private boolean isNextFrameValid(String fileName,long filePointerCount,ByteBuffer  bb,FileChannel fc)
     throws IOException
     {
         if(MP3AudioHeader.logger.isLoggable(Level.FINEST))
         {
-             MP3AudioHeader.logger.finer("Checking next frame"+seekFile.getName()+ ":fpc:"
+             MP3AudioHeader.logger.finer("Checking next frame"+fileName+ ":fpc:"
                  +filePointerCount+"skipping to:"+ (filePointerCount + mp3FrameHeader.getFrameLength()));
         }
         boolean result=false;
@@ -308,8 +346,7 @@ public final class MP3AudioHeader implements AudioHeader
         {
             MP3AudioHeader.logger.finer("Buffer too small, need to reload, buffer size:"+bb.remaining());
             bb.clear();
-            fc.position(filePointerCount);
-            fc.read(bb,fc.position());
+            fc.read(bb,filePointerCount);
             bb.flip();
             //So now original buffer has been replaced, so set current position to start of buffer
             currentPosition = 0;
@@ -325,13 +362,13 @@ public final class MP3AudioHeader implements AudioHeader
         bb.position(bb.position() + mp3FrameHeader.getFrameLength());
         if(MPEGFrameHeader.isMPEGFrame(bb))
         {
-            try
+            //Only whether it is valid matters, so decode without an exception for the invalid case
+            if(new MPEGFrameHeader().decode(bb))
             {
-                MPEGFrameHeader.parseMPEGHeader(bb);
                 MP3AudioHeader.logger.finer("Check next frame confirms is an audio header ");
                 result=true;
             }
-            catch (InvalidAudioFrameException ex)
+            else
             {
                 MP3AudioHeader.logger.finer("Check next frame has identified this is not an audio header");
                 result=false;
@@ -342,6 +379,66 @@ public final class MP3AudioHeader implements AudioHeader
         return result;
     }
 
+    /**
+     * Count every frame of the file to get the exact number of frames, track length and bitrate
+     *
+     * Without a Xing frame count the number of frames is estimated from the length of the first frame, which can be
+     * far out for variable bit rate files. This reads the whole of the audio, large files in chunks walked in parallel,
+     * so it is only done when asked for. Nothing is done if there is a Xing frame count.
+     *
+     * @param file the file this header was read from
+     * @throws IOException
+     */
+    public void scanFrames(final File file) throws IOException
+    {
+        final FileInputStream fis = new FileInputStream(file);
+        try
+        {
+            scanFrames(fis.getChannel());
+        }
+        finally
+        {
+            fis.close();
+        }
+    }
+
+    /**
+     * Count every frame using a channel that is already open, the channel is not closed and its position is
+     * not changed
+     *
+     * @see #scanFrames(File)
+     */
+    void scanFrames(final FileChannel fc) throws IOException
+    {
+        if(mp3XingFrame!=null&&mp3XingFrame.isFrameCountEnabled())
+        {
+            return;
+        }
+        MP3FrameScanner scanner = new MP3FrameScanner(fc, startByte, mp3FrameHeader, mp3XingFrame!=null);
+        scanner.scan();
+        if(scanner.getFrameCount()<=0)
+        {
+            return;
+        }
+        numberOfFrames = scanner.getFrameCount();
+        variableBitRate = scanner.isVariableBitRate();
+        exactLength = true;
+        setTrackLength();
+        if(isVariableBitRate())
+        {
+            bitrate = (long)((scanner.getAudioSize() * CONVERTS_BYTE_TO_BITS)/ (timePerFrame * numberOfFrames * CONVERT_TO_KILOBITS ));
+        }
+    }
+
+    /**
+     *
+     * @return true if the number of frames and track length come from counting every frame
+     */
+    public boolean isExactLength()
+    {
+        return exactLength;
+    }
+
     /**
      * Set the location of where the Audio file begins in the file
      *
@@ -409,7 +506,7 @@ public final class MP3AudioHeader implements AudioHeader
      */
     private void setTimePerFrame()
     {
-        timePerFrame = mp3FrameHeader.getNoOfSamples() / mp3FrameHeader.getSamplingRate().doubleValue();
+        timePerFrame = mp3FrameHeader.getNoOfSamples() / (double) mp3FrameHeader.getSamplingRate();
 
         //Because when calculating framelenggth we alter the calculation slightly for MPEGVersion2
         //we seem to have to make a correspondinf modification to get the correct time
@@ -464,11 +561,15 @@ public final class MP3AudioHeader implements AudioHeader
 
     /**
      * Return the length in user friendly format
+     *
+     * SimpleDateFormat is not thread safe so new ones are used for every call
      */
     public String getTrackLengthAsString()
     {
         try
         {
+            final SimpleDateFormat timeInFormat  = new SimpleDateFormat("ss");
+            final SimpleDateFormat timeOutFormat = new SimpleDateFormat("mm:ss");
             final long lengthInSecs = (long)getTrackLength();
             final Date timeIn = timeInFormat.parse(String.valueOf(lengthInSecs));
             return timeOutFormat.format(timeIn);
@@ -539,7 +640,7 @@ public final class MP3AudioHeader implements AudioHeader
      */
     public String getBitRate()
     {
-        if(mp3XingFrame!=null&&mp3XingFrame.isVbr()==true)
+        if(isVariableBitRate())
         {
             return  isVbrIdentifier + String.valueOf(bitrate);
         }
@@ -616,11 +717,16 @@ public final class MP3AudioHeader implements AudioHeader
 
     /**
      *
-     * @return if the bitrate is variable, Xing header takes precedence if we have one
+     * @return if the bitrate is variable, Xing header takes precedence if we have one unless
+     * counting every frame found frames of another bitrate
      */
     public boolean isVariableBitRate()
     {
-         if(mp3XingFrame!=null)
+         if(variableBitRate)
+         {
+             return true;
+         }
+         else if(mp3XingFrame!=null)
          {
              return mp3XingFrame.isVbr();
          }
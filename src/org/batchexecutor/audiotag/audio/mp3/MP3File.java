@@ -107,6 +107,14 @@ public class MP3File extends AudioFile {
     public static final int LOAD_APEV2TAG = 16;
     public static final int LOAD_ALL = LOAD_IDV1TAG | LOAD_IDV2TAG | LOAD_LYRICS3 | LOAD_APEV2TAG;
 
+    /**
+     * Count every frame for the exact track length when there is no Xing frame count,
+     * not part of LOAD_ALL because the whole file has to be read
+     *
+     * @see MP3AudioHeader#scanFrames(File)
+     */
+    public static final int LOAD_EXACT_LENGTH = 32;
+
     /**
      * Creates a new MP3File datatype and parse the tag from the given file
      * Object, files must be writable to use this constructor.
@@ -153,32 +161,22 @@ public class MP3File extends AudioFile {
      * TODO:shouldnt we be handing TagExceptions:when will they be thrown
      *
      * @param file
+     * @param fc channel of the file, only positional reads are used
      * @param loadOptions
      * @throws IOException
      * @throws TagException
      */
-    private void readV2Tag(File file, int loadOptions) throws IOException, TagException {
+    private void readV2Tag(File file, FileChannel fc, int loadOptions) throws IOException, TagException {
         //We know where the Actual Audio starts so load all the file from start to that point into
         //a buffer then we can read the IDv2 information without needing any more file I/O
         int startByte = (int) ((MP3AudioHeader) audioHeader).getMp3StartByte();
         if (startByte >= AbstractID3v2Tag.TAG_HEADER_LENGTH) {
             log.finer("Attempting to read id3v2tags");
-            FileInputStream fis = null;
-            FileChannel fc = null;
-            ByteBuffer bb = null;
-            try {
-                fis = new FileInputStream(file);
-                fc = fis.getChannel();
-                //Read into Byte Buffer
-                bb = ByteBuffer.allocate(startByte);
-                fc.read(bb);
-            } finally {
-                if (fc != null) {
-                    fc.close();
-                }
-
-                if (fis != null) {
-                    fis.close();
+            //Read into Byte Buffer
+            ByteBuffer bb = ByteBuffer.allocate(startByte);
+            while (bb.hasRemaining()) {
+                if (fc.read(bb, bb.position()) < 0) {
+                    break;
                 }
             }
 
@@ -260,11 +258,13 @@ public class MP3File extends AudioFile {
      *
      * @param startByte
      * @param currentHeader
+     * @param fc channel of the file
+     * @param bb buffer for searching the audio header
      * @return
      * @throws IOException
      * @throws InvalidAudioFrameException
      */
-    private MP3AudioHeader checkAudioStart(long startByte, MP3AudioHeader currentHeader) throws IOException, InvalidAudioFrameException {
+    private MP3AudioHeader checkAudioStart(long startByte, MP3AudioHeader currentHeader, FileChannel fc, ByteBuffer bb) throws IOException, InvalidAudioFrameException {
         MP3AudioHeader newAudioHeader;
 
         log.warning(file.getPath() + "ID3Tag ends at:" + startByte + ":but mp3audio doesnt start until:" + currentHeader.getMp3StartByte());
@@ -272,7 +272,7 @@ public class MP3File extends AudioFile {
         //because we cant agree on start location we reread the audioheader from the start of the file, at least
         //this way we cant overwrite the audio although we might overwrtite part of the tag if we write this file
         //back later
-        newAudioHeader = new MP3AudioHeader(file, 0);
+        newAudioHeader = new MP3AudioHeader(fc, 0, bb, file.getName());
         if (currentHeader.getMp3StartByte() == newAudioHeader.getMp3StartByte()) {
             //Although the tag size appears to be incorrect at least we have found the same location for the start
             //of audio whether we start searching from start of file or at the end of the alleged of file
@@ -288,6 +288,9 @@ public class MP3File extends AudioFile {
     /**
      * Creates a new MP3File datatype and parse the tag from the given file
      * Object, files can be onpened read only if required.
+     * <p/>
+     * The file is opened only once, the tag size, the audio header and all the tags
+     * are read from that one file with positional reads.
      *
      * @param file        MP3 file
      * @param loadOptions decide what tags to load
@@ -302,23 +305,29 @@ public class MP3File extends AudioFile {
 
             //Check File accessibility
             newFile = checkFilePermissions(file, readOnly);
+            FileChannel fc = newFile.getChannel();
+            ByteBuffer bb = MP3AudioHeader.allocateBuffer();
 
             //Read ID3v2 tag size (if tag exists) to allow audioheader parsing to skip over tag
-            long startByte = AbstractID3v2Tag.getV2TagSizeIfExists(file);
+            long startByte = AbstractID3v2Tag.getV2TagSizeIfExists(fc);
 
             //If exception reading Mpeg then we should give up no point continuing
-            audioHeader = new MP3AudioHeader(file, startByte);
+            audioHeader = new MP3AudioHeader(fc, startByte, bb, file.getName());
 
             if (startByte != ((MP3AudioHeader) audioHeader).getMp3StartByte()) {
-                audioHeader = checkAudioStart(startByte, (MP3AudioHeader) audioHeader);
+                audioHeader = checkAudioStart(startByte, (MP3AudioHeader) audioHeader, fc, bb);
+            }
+
+            if ((loadOptions & LOAD_EXACT_LENGTH) != 0) {
+                ((MP3AudioHeader) audioHeader).scanFrames(fc);
             }
 
             //Read v1 tags (if any)
             readV1Tag(file, newFile, loadOptions);
 
             //Read v2 tags (if any)
-            readV2Tag(file, loadOptions);
-            readAPEv2Tag(file, loadOptions);
+            readV2Tag(file, fc, loadOptions);
+            readAPEv2Tag(file, newFile, loadOptions);
             //If we have a v2 tag use that, if we dont but have v1 tag use that
             //otherwise use nothing
             //TODO:if have both should we merge
@@ -338,11 +347,11 @@ public class MP3File extends AudioFile {
         }
     }
 
-    private void readAPEv2Tag(File file, int loadOptions) throws IOException {
+    private void readAPEv2Tag(File file, RandomAccessFile newFile, int loadOptions) throws IOException {
         if ((loadOptions & LOAD_APEV2TAG) != 0) {
             try {
                 log.log(Level.FINE, "尝试读取APEv2Tag");
-                apev2Tag = new APEv2Tag(file);
+                apev2Tag = new APEv2Tag(file, newFile);
             } catch (UnsupportedAudioFileException ex) {
                 log.log(Level.INFO, "没有读到APEV2标签");
             }
@@ -355,19 +364,21 @@ public class MP3File extends AudioFile {
      * @return the location within the file that the audio starts
      */
     public long getMP3StartByte(File file) throws InvalidAudioFrameException, IOException {
+        FileInputStream fis = new FileInputStream(file);
         try {
+            FileChannel fc = fis.getChannel();
+            ByteBuffer bb = MP3AudioHeader.allocateBuffer();
+
             //Read ID3v2 tag size (if tag exists) to allow audioheader parsing to skip over tag
-            long startByte = AbstractID3v2Tag.getV2TagSizeIfExists(file);
+            long startByte = AbstractID3v2Tag.getV2TagSizeIfExists(fc);
 
-            MP3AudioHeader audioHeader = new MP3AudioHeader(file, startByte);
+            MP3AudioHeader audioHeader = new MP3AudioHeader(fc, startByte, bb, file.getName());
             if (startByte != audioHeader.getMp3StartByte()) {
-                audioHeader = checkAudioStart(startByte, audioHeader);
+                audioHeader = checkAudioStart(startByte, audioHeader, fc, bb);
             }
             return audioHeader.getMp3StartByte();
-        } catch (InvalidAudioFrameException iafe) {
-            throw iafe;
-        } catch (IOException ioe) {
-            throw ioe;
+        } finally {
+            fis.close();
         }
     }
 
@@ -0,0 +1,444 @@
+package org.batchexecutor.audiotag.audio.mp3;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Counts the audio frames of an MP3 file by walking every frame header, this gives the exact track length of
+ * variable bit rate files that have no Xing frame count to go by
+ *
+ * <p>A frame is only counted if it has the version, layer and sampling rate of the first frame and is followed
+ * either by another such frame or by the end of the audio, trailing ID3v1, APEv2 and Lyrics3v2 tags are not audio.
+ * Anything else is taken for a false sync and the search carries on from the next 0xFF byte. Whether a frame is
+ * counted therefore only depends on the bytes at its position, so a walk started anywhere in the file follows the
+ * same frames as the walk from the first frame once the two meet.
+ *
+ * <p>That is what allows large files to be split into chunks that are walked in parallel on a fork/join pool.
+ * Each chunk starts walking at its own first byte, which resynchronises on the first frame found there. The chunks
+ * are then joined in order: the walk of a chunk is kept if it found no frame before the position the walk of the
+ * previous chunk carried on at, because then every position in between was already tried and rejected. Otherwise it
+ * synchronised on something the previous frame covers, which needs a false sync that survived the check of the frame
+ * after it, and the chunk is walked again from the right position. Either way the count is the same as that of a
+ * single walk over the whole file.
+ */
+final class MP3FrameScanner
+{
+    /**
+     * Files up to two chunks are walked in the calling thread
+     */
+    private static final int CHUNK_SIZE = 1 << 20;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Enough to hold any frame and the header of the frame after it, the longest frame is MPEG-1 Layer II
+     * at 384kbps and 32kHz, 1728 bytes
+     */
+    private static final int MAX_LOOKAHEAD = 4096;
+
+    private static final int ID3V1_SIZE = 128;
+    private static final int APE_FOOTER_SIZE = 32;
+    private static final int APE_HAS_HEADER = 0x80000000;
+    private static final int LYRICS3V2_FOOTER_SIZE = 15;
+
+    /**
+     * Offset of the VBRI header from the start of its frame, always the same unlike the Xing header
+     */
+    private static final int VBRI_OFFSET = MPEGFrameHeader.HEADER_SIZE + 32;
+
+    private static ForkJoinPool pool;
+
+    private final FileChannel fc;
+    private final long startByte;
+    private final long audioEnd;
+    private final int version;
+    private final int layer;
+    private final int samplingRate;
+    private final int bitRate;
+    private final int firstFrameLength;
+    private final boolean skipFirstFrame;
+
+    private long frameCount;
+    private long audioSize;
+    private boolean variableBitRate;
+
+    /**
+     * @param fc channel of the file, only positional reads are used so it can be shared
+     * @param startByte where the first frame starts
+     * @param firstFrame header of the first frame, every frame counted must match it
+     * @param infoFrame whether the first frame holds a Xing or Info header rather than audio, a VBRI header is
+     * recognised here
+     * @throws IOException
+     */
+    MP3FrameScanner(FileChannel fc, long startByte, MPEGFrameHeader firstFrame, boolean infoFrame) throws IOException
+    {
+        this.fc = fc;
+        this.startByte = startByte;
+        this.audioEnd = findAudioEnd(fc, startByte);
+        this.version = firstFrame.getVersion();
+        this.layer = firstFrame.getLayer();
+        this.samplingRate = firstFrame.getSamplingRate();
+        this.bitRate = firstFrame.getBitRate();
+        this.firstFrameLength = firstFrame.getFrameLength();
+        this.skipFirstFrame = infoFrame || isVbriFrame(fc, startByte, audioEnd);
+    }
+
+    /**
+     * Walk the frames of the whole file
+     *
+     * @throws IOException
+     */
+    void scan() throws IOException
+    {
+        List<Chunk> chunks = new ArrayList<Chunk>();
+        for (long start = startByte; start < audioEnd; start += CHUNK_SIZE)
+        {
+            chunks.add(new Chunk(start, Math.min(start + CHUNK_SIZE, audioEnd)));
+        }
+        if (chunks.size() <= 2)
+        {
+            for (Chunk chunk : chunks)
+            {
+                chunk.compute();
+            }
+        }
+        else
+        {
+            getPool().invoke(new Scan(chunks));
+        }
+
+        long position = startByte;
+        for (Chunk chunk : chunks)
+        {
+            if (chunk.error != null)
+            {
+                throw chunk.error;
+            }
+            if (position >= chunk.limit)
+            {
+                continue;
+            }
+            if (chunk.first >= 0 && chunk.first < position)
+            {
+                chunk = new Chunk(position, chunk.limit);
+                chunk.compute();
+                if (chunk.error != null)
+                {
+                    throw chunk.error;
+                }
+            }
+            frameCount += chunk.frames;
+            audioSize += chunk.bytes;
+            variableBitRate |= chunk.variable;
+            position = chunk.next;
+        }
+
+        if (skipFirstFrame && !chunks.isEmpty() && chunks.get(0).first == startByte)
+        {
+            frameCount--;
+            audioSize -= firstFrameLength;
+        }
+    }
+
+    /**
+     * @return number of audio frames, not counting a Xing, Info or VBRI frame
+     */
+    long getFrameCount()
+    {
+        return frameCount;
+    }
+
+    /**
+     * @return bytes of all the audio frames counted
+     */
+    long getAudioSize()
+    {
+        return audioSize;
+    }
+
+    /**
+     * @return whether any frame counted has a different bitrate to the first frame
+     */
+    boolean isVariableBitRate()
+    {
+        return variableBitRate;
+    }
+
+    private static synchronized ForkJoinPool getPool()
+    {
+        if (pool == null)
+        {
+            pool = new ForkJoinPool();
+        }
+        return pool;
+    }
+
+    /**
+     * Walks all the chunks, each in its own task
+     */
+    private static final class Scan extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+        private final List<Chunk> chunks;
+
+        Scan(List<Chunk> chunks)
+        {
+            this.chunks = chunks;
+        }
+
+        protected void compute()
+        {
+            ForkJoinTask.invokeAll(chunks);
+        }
+    }
+
+    /**
+     * The walk over one chunk, it counts the frames that start within the chunk and stops at the first position
+     * at or after its end
+     */
+    private final class Chunk extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+        private final long start;
+        private final long limit;
+
+        private ByteBuffer bb;
+        private MPEGFrameHeader header;
+        private long bufferStart;
+        private long bufferEnd;
+
+        /**
+         * Position of the first frame counted, -1 if none starts within the chunk
+         */
+        private long first = -1;
+
+        /**
+         * Position the walk carries on at in the next chunk
+         */
+        private long next;
+        private long frames;
+        private long bytes;
+        private boolean variable;
+        private IOException error;
+
+        Chunk(long start, long limit)
+        {
+            this.start = start;
+            this.limit = limit;
+        }
+
+        protected void compute()
+        {
+            //only allocated for the walk, all the chunks of a file are created up front
+            bb = ByteBuffer.allocate(BUFFER_SIZE);
+            header = new MPEGFrameHeader();
+            try
+            {
+                walk();
+            }
+            catch (IOException ex)
+            {
+                error = ex;
+            }
+            finally
+            {
+                bb = null;
+                header = null;
+            }
+        }
+
+        private void walk() throws IOException
+        {
+            long position = start;
+            while (position < limit)
+            {
+                if (position + MAX_LOOKAHEAD > bufferEnd && bufferEnd < audioEnd)
+                {
+                    fill(position);
+                    if (bufferEnd <= position)
+                    {
+                        //the file is shorter than it was
+                        break;
+                    }
+                }
+                int index = (int) (position - bufferStart);
+                int frameLength = getFrameLength(index);
+                if (frameLength > 0)
+                {
+                    if (first < 0)
+                    {
+                        first = position;
+                    }
+                    frames++;
+                    bytes += frameLength;
+                    position += frameLength;
+                }
+                else
+                {
+                    int to = (int) (Math.min(limit, bufferEnd) - bufferStart);
+                    position = bufferStart + MPEGFrameHeader.findSyncByte(bb, index + 1, to);
+                }
+            }
+            next = position;
+        }
+
+        /**
+         * @return length of the frame at this index of the buffer if it is to be counted, otherwise 0
+         */
+        private int getFrameLength(int index)
+        {
+            if (!isMatchingFrame(index))
+            {
+                return 0;
+            }
+            int frameLength = header.getFrameLength();
+            boolean otherBitRate = header.getBitRate() != bitRate;
+            long nextFrame = bufferStart + index + frameLength;
+            if (nextFrame + MPEGFrameHeader.HEADER_SIZE <= audioEnd && !isMatchingFrame(index + frameLength))
+            {
+                return 0;
+            }
+            variable |= otherBitRate;
+            return frameLength;
+        }
+
+        /**
+         * Decode the header at this index of the buffer into {@link #header}
+         *
+         * @return whether there is a valid header matching the first frame
+         */
+        private boolean isMatchingFrame(int index)
+        {
+            if (bufferStart + index + MPEGFrameHeader.HEADER_SIZE > bufferEnd)
+            {
+                return false;
+            }
+            bb.position(index);
+            return MPEGFrameHeader.isMPEGFrame(bb)
+                && header.decode(bb)
+                && header.getVersion() == version
+                && header.getLayer() == layer
+                && header.getSamplingRate() == samplingRate;
+        }
+
+        /**
+         * Read the file from this position into the buffer, up to the end of the audio
+         */
+        private void fill(long position) throws IOException
+        {
+            bb.clear();
+            bb.limit((int) Math.min(BUFFER_SIZE, audioEnd - position));
+            read(fc, bb, position);
+            bb.flip();
+            bufferStart = position;
+            bufferEnd = position + bb.limit();
+        }
+    }
+
+    /**
+     * Read into the buffer until it is full or the end of the file is reached
+     */
+    private static void read(FileChannel fc, ByteBuffer bb, long position) throws IOException
+    {
+        while (bb.hasRemaining())
+        {
+            int n = fc.read(bb, position);
+            if (n < 0)
+            {
+                break;
+            }
+            position += n;
+        }
+    }
+
+    /**
+     * @return the end of the audio, before any ID3v1, APEv2 and Lyrics3v2 tags at the end of the file
+     */
+    private static long findAudioEnd(FileChannel fc, long startByte) throws IOException
+    {
+        long end = fc.size();
+        ByteBuffer bb = ByteBuffer.allocate(APE_FOOTER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        if (end - startByte >= ID3V1_SIZE && startsWith(fc, bb, end - ID3V1_SIZE, "TAG"))
+        {
+            end -= ID3V1_SIZE;
+        }
+        //the APEv2 tag and the Lyrics3v2 tag can be in either order
+        for (int i = 0; i < 2; i++)
+        {
+            long tagStart = end;
+            if (end - startByte >= APE_FOOTER_SIZE && startsWith(fc, bb, end - APE_FOOTER_SIZE, "APETAGEX"))
+            {
+                //little endian size of the items and footer, then the item count and flags
+                long size = bb.getInt(12) & 0xFFFFFFFFL;
+                if ((bb.getInt(20) & APE_HAS_HEADER) != 0)
+                {
+                    size += APE_FOOTER_SIZE;
+                }
+                tagStart = end - size;
+            }
+            else if (end - startByte >= LYRICS3V2_FOOTER_SIZE && startsWith(fc, bb, end - 9, "LYRICS200"))
+            {
+                //six digit size of the tag before the size and the end marker
+                bb.clear();
+                bb.limit(6);
+                read(fc, bb, end - LYRICS3V2_FOOTER_SIZE);
+                long size = 0;
+                for (int j = 0; j < 6; j++)
+                {
+                    int digit = bb.get(j) - '0';
+                    if (digit < 0 || digit > 9)
+                    {
+                        size = -1;
+                        break;
+                    }
+                    size = size * 10 + digit;
+                }
+                if (size >= 0)
+                {
+                    tagStart = end - LYRICS3V2_FOOTER_SIZE - size;
+                }
+            }
+            if (tagStart == end || tagStart <= startByte)
+            {
+                break;
+            }
+            end = tagStart;
+        }
+        return end;
+    }
+
+    /**
+     * Fill the buffer from this position
+     *
+     * @return whether it starts with the text
+     */
+    private static boolean startsWith(FileChannel fc, ByteBuffer bb, long position, String text) throws IOException
+    {
+        bb.clear();
+        read(fc, bb, position);
+        if (bb.position() < text.length())
+        {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++)
+        {
+            if (bb.get(i) != text.charAt(i))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isVbriFrame(FileChannel fc, long startByte, long audioEnd) throws IOException
+    {
+        return audioEnd - startByte >= VBRI_OFFSET + 4 && startsWith(fc, ByteBuffer.allocate(4), startByte + VBRI_OFFSET, "VBRI");
+    }
+}
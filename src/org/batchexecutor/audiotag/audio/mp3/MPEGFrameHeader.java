@@ -9,9 +9,9 @@
 package org.batchexecutor.audiotag.audio.mp3;
 
 
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.ByteOrder;
 
 import org.batchexecutor.audiotag.FileConstants;
 import org.batchexecutor.audiotag.audio.exceptions.InvalidAudioFrameException;
@@ -28,10 +28,6 @@ public class MPEGFrameHeader
      * Constants for MP3 Frame header, each frame has a basic header of
      * 4 bytes
      */
-    private static final int BYTE_1 = 0;
-    private static final int BYTE_2 = 1;
-    private static final int BYTE_3 = 2;
-    private static final int BYTE_4 = 3;
     public static final int HEADER_SIZE = 4;
 
      /**
@@ -42,39 +38,31 @@ public class MPEGFrameHeader
     public static final int SYNC_BYTE1 = 0xFF;
     public static final int SYNC_BYTE2 = 0xE0;
 
-    private static int position     = 0;
-    private static final byte[] header = new byte[HEADER_SIZE];
 
 
     /**
      * Constants for MPEG Version
      */
-    public static final Map mpegVersionMap = new HashMap();
     public final static int VERSION_2_5 = 0;
     public final static int VERSION_2 = 2;
     public final static int VERSION_1 = 3;
 
-    static
-    {
-        mpegVersionMap.put(VERSION_2_5, "MPEG-2.5");
-        mpegVersionMap.put(VERSION_2  , "MPEG-2");
-        mpegVersionMap.put(VERSION_1  , "MPEG-1");
-    }
+    /**
+     * Version names indexed by the version bits, null for the reserved value
+     */
+    private static final String[] versionNames = {"MPEG-2.5", null, "MPEG-2", "MPEG-1"};
 
     /**
      * Constants for MPEG Layer
      */
-    public static final Map mpegLayerMap = new HashMap();
     public final static int LAYER_I   = 3;
     public final static int LAYER_II  = 2;
     public final static int LAYER_III = 1;
 
-    static
-    {
-        mpegLayerMap.put(LAYER_I, "Layer 1");
-        mpegLayerMap.put(LAYER_II, "Layer 2");
-        mpegLayerMap.put(LAYER_III, "Layer 3");
-    }
+    /**
+     * Layer names indexed by the layer bits, null for the reserved value
+     */
+    private static final String[] layerNames = {null, "Layer 3", "Layer 2", "Layer 1"};
 
     /**
      * Slot Size is dependent on Layer
@@ -84,218 +72,80 @@ public class MPEGFrameHeader
     public final static int LAYER_III_SLOT_SIZE = 1;
 
     /**
-     * Bit Rates, the setBitrate varies for different Version and Layer
+     * Bit Rates in kbps, the setBitrate varies for different Version and Layer
+     *
+     * Indexed by the bitrate bits of the third byte or'ed with the ID and layer bits of the second byte,
+     * 0 marks free format, the bad bitrate index and MPEG-2.5 with its ID bit clear sharing the MPEG-2 rows
      */
-    private static final Map bitrateMap = new HashMap();
+    private static final int[] bitrates = new int[256];
 
     static
     {
         // MPEG-1, Layer I (E)
-        bitrateMap.put(0x1E, 32);
-        bitrateMap.put(0x2E, 64);
-        bitrateMap.put(0x3E, 96);
-        bitrateMap.put(0x4E, 128);
-        bitrateMap.put(0x5E, 160);
-        bitrateMap.put(0x6E, 192);
-        bitrateMap.put(0x7E, 224);
-        bitrateMap.put(0x8E, 256);
-        bitrateMap.put(0x9E, 288);
-        bitrateMap.put(0xAE, 320);
-        bitrateMap.put(0xBE, 352);
-        bitrateMap.put(0xCE, 384);
-        bitrateMap.put(0xDE, 416);
-        bitrateMap.put(0xEE, 448);
+        putBitrates(0x0E, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448);
         // MPEG-1, Layer II (C)
-        bitrateMap.put(0x1C, 32);
-        bitrateMap.put(0x2C, 48);
-        bitrateMap.put(0x3C, 56);
-        bitrateMap.put(0x4C, 64);
-        bitrateMap.put(0x5C, 80);
-        bitrateMap.put(0x6C, 96);
-        bitrateMap.put(0x7C, 112);
-        bitrateMap.put(0x8C, 128);
-        bitrateMap.put(0x9C, 160);
-        bitrateMap.put(0xAC, 192);
-        bitrateMap.put(0xBC, 224);
-        bitrateMap.put(0xCC, 256);
-        bitrateMap.put(0xDC, 320);
-        bitrateMap.put(0xEC, 384);
+        putBitrates(0x0C, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384);
         // MPEG-1, Layer III (A)
-        bitrateMap.put(0x1A, 32);
-        bitrateMap.put(0x2A, 40);
-        bitrateMap.put(0x3A, 48);
-        bitrateMap.put(0x4A, 56);
-        bitrateMap.put(0x5A, 64);
-        bitrateMap.put(0x6A, 80);
-        bitrateMap.put(0x7A, 96);
-        bitrateMap.put(0x8A, 112);
-        bitrateMap.put(0x9A, 128);
-        bitrateMap.put(0xAA, 160);
-        bitrateMap.put(0xBA, 192);
-        bitrateMap.put(0xCA, 224);
-        bitrateMap.put(0xDA, 256);
-        bitrateMap.put(0xEA, 320);
+        putBitrates(0x0A, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320);
         // MPEG-2, Layer I (6)
-        bitrateMap.put(0x16, 32);
-        bitrateMap.put(0x26, 48);
-        bitrateMap.put(0x36, 56);
-        bitrateMap.put(0x46, 64);
-        bitrateMap.put(0x56, 80);
-        bitrateMap.put(0x66, 96);
-        bitrateMap.put(0x76, 112);
-        bitrateMap.put(0x86, 128);
-        bitrateMap.put(0x96, 144);
-        bitrateMap.put(0xA6, 160);
-        bitrateMap.put(0xB6, 176);
-        bitrateMap.put(0xC6, 192);
-        bitrateMap.put(0xD6, 224);
-        bitrateMap.put(0xE6, 256);
+        putBitrates(0x06, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256);
         // MPEG-2, Layer II (4)
-        bitrateMap.put(0x14, 8);
-        bitrateMap.put(0x24, 16);
-        bitrateMap.put(0x34, 24);
-        bitrateMap.put(0x44, 32);
-        bitrateMap.put(0x54, 40);
-        bitrateMap.put(0x64, 48);
-        bitrateMap.put(0x74, 56);
-        bitrateMap.put(0x84, 64);
-        bitrateMap.put(0x94, 80);
-        bitrateMap.put(0xA4, 96);
-        bitrateMap.put(0xB4, 112);
-        bitrateMap.put(0xC4, 128);
-        bitrateMap.put(0xD4, 144);
-        bitrateMap.put(0xE4, 160);
+        putBitrates(0x04, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160);
         // MPEG-2, Layer III (2)
-        bitrateMap.put(0x12, 8);
-        bitrateMap.put(0x22, 16);
-        bitrateMap.put(0x32, 24);
-        bitrateMap.put(0x42, 32);
-        bitrateMap.put(0x52, 40);
-        bitrateMap.put(0x62, 48);
-        bitrateMap.put(0x72, 56);
-        bitrateMap.put(0x82, 64);
-        bitrateMap.put(0x92, 80);
-        bitrateMap.put(0xA2, 96);
-        bitrateMap.put(0xB2, 112);
-        bitrateMap.put(0xC2, 128);
-        bitrateMap.put(0xD2, 144);
-        bitrateMap.put(0xE2, 160);
+        putBitrates(0x02, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160);
+    }
+
+    private static void putBitrates(int idAndLayer, int... kbps)
+    {
+        for (int i = 0; i < kbps.length; i++)
+        {
+            bitrates[(i + 1) << 4 | idAndLayer] = kbps[i];
+        }
     }
 
     /**
      * Constants for Channel mode
      */
-    protected static final Map modeMap = new HashMap();
     public final static int MODE_STEREO = 0;
     public final static int MODE_JOINT_STEREO = 1;
     public final static int MODE_DUAL_CHANNEL = 2;
     public final static int MODE_MONO = 3;
 
-    static
-    {
-        modeMap.put(MODE_STEREO, "Stereo");
-        modeMap.put(MODE_JOINT_STEREO, "Joint Stereo");
-        modeMap.put(MODE_DUAL_CHANNEL, "Dual");
-        modeMap.put(MODE_MONO, "Mono");
-    }
+    private static final String[] modeNames = {"Stereo", "Joint Stereo", "Dual", "Mono"};
 
     /**
      * Constants for Emphasis
      */
-    private static final Map emphasisMap = new HashMap();
     public final static int EMPHASIS_NONE = 0;
     public final static int EMPHASIS_5015MS = 1;
     public final static int EMPHASIS_RESERVED = 2;
     public final static int EMPHASIS_CCITT = 3;
 
-    static
-    {
-        emphasisMap.put(EMPHASIS_NONE, "None");
-        emphasisMap.put(EMPHASIS_5015MS, "5015MS");
-        emphasisMap.put(EMPHASIS_RESERVED, "Reserved");
-        emphasisMap.put(EMPHASIS_CCITT, "CCITT");
-    }
-
-
-    private static final Map modeExtensionMap = new HashMap();
-    private final static int MODE_EXTENSION_NONE = 0;
-    private final static int MODE_EXTENSION_ONE = 1;
-    private final static int MODE_EXTENSION_TWO = 2;
-    private final static int MODE_EXTENSION_THREE = 3;
-
-    private static final Map modeExtensionLayerIIIMap = new HashMap();
-    private final static int MODE_EXTENSION_OFF_OFF = 0;
-    private final static int MODE_EXTENSION_ON_OFF = 1;
-    private final static int MODE_EXTENSION_OFF_ON = 2;
-    private final static int MODE_EXTENSION_ON_ON = 3;
-
-    static
-    {
-        modeExtensionMap.put(MODE_EXTENSION_NONE, "4-31");
-        modeExtensionMap.put(MODE_EXTENSION_ONE, "8-31");
-        modeExtensionMap.put(MODE_EXTENSION_TWO, "12-31");
-        modeExtensionMap.put(MODE_EXTENSION_THREE, "16-31");
-
-        modeExtensionLayerIIIMap.put(MODE_EXTENSION_OFF_OFF, "off-off");
-        modeExtensionLayerIIIMap.put(MODE_EXTENSION_ON_OFF, "on-off");
-        modeExtensionLayerIIIMap.put(MODE_EXTENSION_OFF_ON, "off-on");
-        modeExtensionLayerIIIMap.put(MODE_EXTENSION_ON_ON, "on-on");
-    }
+    private static final String[] emphasisNames = {"None", "5015MS", "Reserved", "CCITT"};
 
     /**
-     * Sampling Rate in Hz
+     * Mode extension names, the bands of intensity stereo for Layers I and II, intensity and
+     * m/s stereo on or off for Layer III
      */
-    private static final Map samplingRateMap = new HashMap();
-    private static final Map samplingV1Map = new HashMap();
-    private static final Map samplingV2Map = new HashMap();
-    private static final Map samplingV25Map = new HashMap();
+    private static final String[] modeExtensionNames = {"4-31", "8-31", "12-31", "16-31"};
+    private static final String[] modeExtensionLayerIIINames = {"off-off", "on-off", "off-on", "on-on"};
 
-    static
-    {
-        samplingV1Map.put(0, 44100);
-        samplingV1Map.put(1, 48000);
-        samplingV1Map.put(2, 32000);
-
-        samplingV2Map.put(0, 22050);
-        samplingV2Map.put(1, 24000);
-        samplingV2Map.put(2, 16000);
-
-        samplingV25Map.put(0, 11025);
-        samplingV25Map.put(1, 12000);
-        samplingV25Map.put(2, 8000);
-
-        samplingRateMap.put(VERSION_1, samplingV1Map);
-        samplingRateMap.put(VERSION_2, samplingV2Map);
-        samplingRateMap.put(VERSION_2_5, samplingV25Map);
-    }
-
-    /* Samples Per Frame */
-    private static final Map samplesPerFrameMap = new HashMap();
-    private static final Map samplesPerFrameV1Map = new HashMap();
-    private static final Map samplesPerFrameV2Map = new HashMap();
-    private static final Map samplesPerFrameV25Map = new HashMap();
-    static
+    /**
+     * Sampling Rate in Hz, indexed by the version bits shifted left by two or'ed with the frequency bits,
+     * 0 for the reserved version and frequency
+     */
+    private static final int[] samplingRates =
     {
-        samplesPerFrameV1Map.put(LAYER_I   , 384);
-        samplesPerFrameV1Map.put(LAYER_II  , 1152);
-        samplesPerFrameV1Map.put(LAYER_III , 1152);
-
-        samplesPerFrameV2Map.put(LAYER_I   , 384);
-        samplesPerFrameV2Map.put(LAYER_II  , 1152);
-        samplesPerFrameV2Map.put(LAYER_III , 1152);
-
-        samplesPerFrameV25Map.put(LAYER_I  , 384);
-        samplesPerFrameV25Map.put(LAYER_II , 1152);
-        samplesPerFrameV25Map.put(LAYER_III, 1152);
-
-        samplesPerFrameMap.put(VERSION_1  , samplesPerFrameV1Map);
-        samplesPerFrameMap.put(VERSION_2  , samplesPerFrameV2Map);
-        samplesPerFrameMap.put(VERSION_2_5, samplesPerFrameV25Map);
-
-    }
-
-
+        11025, 12000, 8000, 0,  // MPEG-2.5
+        0, 0, 0, 0,
+        22050, 24000, 16000, 0, // MPEG-2
+        44100, 48000, 32000, 0  // MPEG-1
+    };
 
+    /**
+     * Samples Per Frame indexed by the layer bits, the same for every version
+     */
+    private static final int[] samplesPerFrame = {0, 1152, 1152, 384};
 
     private static final int SCALE_BY_THOUSAND = 1000;
     private static final int LAYER_I_FRAME_SIZE_COEFFICIENT   = 12;
@@ -369,7 +219,10 @@ public class MPEGFrameHeader
     private static final int MASK_MP3_EMPHASIS = FileConstants.BIT1 | FileConstants.BIT0;
 
 
-    private byte[] mpegBytes;
+    /**
+     * The four header bytes, first byte highest
+     */
+    private int mpegBytes;
 
     /**
      * The version of this MPEG frame (see the constants)
@@ -387,7 +240,7 @@ public class MPEGFrameHeader
     /**
      * Bitrate of this frame
      */
-    private Integer bitRate;
+    private int bitRate;
 
     /**
      * Channel Mode of this Frame (see constants)
@@ -441,7 +294,7 @@ public class MPEGFrameHeader
      */
     private boolean isPrivate;
 
-    private Integer samplingRate;
+    private int samplingRate;
 
 
     /**
@@ -460,161 +313,66 @@ public class MPEGFrameHeader
     }
 
     /**
-     * Gets the copyrighted attribute of the MPEGFrame object
+     * Decode the header bytes into this object, every field is set unless the header is invalid
+     *
+     * Nothing is allocated, an invalid header is reported by the return value rather than an exception
+     *
+     * @param header the four header bytes, first byte highest
+     * @return null if the header is valid, otherwise what is wrong with it
      */
-    private void setCopyrighted()
+    private String decode(int header)
     {
-        isCopyrighted = (mpegBytes[BYTE_4] & MASK_MP3_COPY) != 0;
-    }
-
+        mpegBytes = header;
+        int byte2 = (header >>> 16) & 0xFF;
+        int byte3 = (header >>> 8) & 0xFF;
+        int byte4 = header & 0xFF;
 
-    /**
-     * Set the version of this frame as an int value (see constants)
-     */
-    private void setVersion() throws InvalidAudioFrameException
-    {
-        //MPEG Version
-        version = (byte) ((mpegBytes[BYTE_2] & MASK_MP3_VERSION) >> 3);
-        versionAsString = (String)mpegVersionMap.get(version);
-        if ( versionAsString == null)
+        version = (byte2 & MASK_MP3_VERSION) >>> 3;
+        versionAsString = versionNames[version];
+        if (versionAsString == null)
         {
-            throw new InvalidAudioFrameException("Invalid mpeg version");
+            return "Invalid mpeg version";
         }
-    }
-
-    /**
-     * Sets the original attribute of the MPEGFrame object
-     */
-    private void setOriginal()
-    {
-        isOriginal = (mpegBytes[BYTE_4] & MASK_MP3_HOME) != 0;
-    }
-
-    /**
-     * Sets the protected attribute of the MPEGFrame object
-     */
-    private void setProtected()
-    {
-        isProtected = (mpegBytes[BYTE_2] & MASK_MP3_PROTECTION) == 0x00;
-    }
-
-    /**
-     * Sets the private attribute of the MPEGFrame object
-     */
-    private void setPrivate()
-    {
-        isPrivate = (mpegBytes[BYTE_3] & MASK_MP3_PRIVACY) != 0;
-    }
-
-    /**
-     * Get the setBitrate of this frame
-     */
-    private void setBitrate() throws InvalidAudioFrameException
-    {
-        /* BitRate, get by checking header setBitrate bits and MPEG Version and Layer */
-        int bitRateIndex = mpegBytes[BYTE_3] & MASK_MP3_BITRATE |
-            mpegBytes[BYTE_2] & MASK_MP3_ID | mpegBytes[BYTE_2] & MASK_MP3_LAYER;
 
-        bitRate = (Integer) bitrateMap.get(bitRateIndex);
-        if (bitRate == null)
+        layer = (byte2 & MASK_MP3_LAYER) >>> 1;
+        layerAsString = layerNames[layer];
+        if (layerAsString == null)
         {
-            throw new InvalidAudioFrameException("Invalid bitrate");
+            return "Invalid Layer";
         }
-    }
 
+        isProtected = (byte2 & MASK_MP3_PROTECTION) == 0x00;
 
-
-    /**
-     * Set the Mpeg channel mode of this frame as a constant (see constants)
-     */
-    private void setChannelMode() throws InvalidAudioFrameException
-    {
-        channelMode = (mpegBytes[BYTE_4] & MASK_MP3_MODE) >>> 6;
-        channelModeAsString = (String)modeMap.get(channelMode);
-        if ( channelModeAsString == null)
+        /* BitRate, get by checking header setBitrate bits and MPEG Version and Layer */
+        bitRate = bitrates[byte3 & MASK_MP3_BITRATE | byte2 & MASK_MP3_ID | byte2 & MASK_MP3_LAYER];
+        if (bitRate == 0)
         {
-            throw new InvalidAudioFrameException("Invalid channel mode");
+            return "Invalid bitrate";
         }
-    }
 
-    /**
-     * Get the setEmphasis mode of this frame in a string representation
-     */
-    private void setEmphasis() throws InvalidAudioFrameException
-    {
-        emphasis = mpegBytes[BYTE_4] & MASK_MP3_EMPHASIS;
-        emphasisAsString = (String) emphasisMap.get(emphasis);
-        if (getEmphasisAsString() == null)
+        samplingRate = samplingRates[version << 2 | (byte3 & MASK_MP3_FREQUENCY) >>> 2];
+        if (samplingRate == 0)
         {
-            throw new InvalidAudioFrameException("Invalid emphasis");
+            return "Invalid sampling rate";
         }
-    }
 
+        isPadding = (byte3 & MASK_MP3_PADDING) != 0;
+        isPrivate = (byte3 & MASK_MP3_PRIVACY) != 0;
 
-    /**
-     * Set whether this frame uses padding bytes
-     */
-    private void setPadding()
-    {
-        isPadding = (mpegBytes[BYTE_3] & MASK_MP3_PADDING) != 0;
-    }
-
-
-    /**
-     * Get the layer version of this frame as a constant int value (see constants)
-     */
-    private void setLayer() throws InvalidAudioFrameException
-    {
-        layer = (mpegBytes[BYTE_2] & MASK_MP3_LAYER) >>> 1;
-        layerAsString = (String)mpegLayerMap.get(layer);
-        if ( layerAsString== null)
-        {
-            throw new InvalidAudioFrameException("Invalid Layer");
-        }
-    }
+        channelMode = (byte4 & MASK_MP3_MODE) >>> 6;
+        channelModeAsString = modeNames[channelMode];
 
+        int modeExtensionIndex = (byte4 & MASK_MP3_MODE_EXTENSION) >>> 4;
+        modeExtension = layer == LAYER_III
+            ? modeExtensionLayerIIINames[modeExtensionIndex]
+            : modeExtensionNames[modeExtensionIndex];
 
-    /**
-     * Sets the string representation of the mode extension of this frame
-     */
-    private void setModeExtension() throws InvalidAudioFrameException
-    {
-        int index = (mpegBytes[BYTE_4] & MASK_MP3_MODE_EXTENSION) >> 4;
-        if (layer == LAYER_III)
-        {
-            modeExtension = (String) modeExtensionLayerIIIMap.get(index);
-            if (getModeExtension() == null)
-            {
-                throw new InvalidAudioFrameException("Invalid Mode Extension");
-            }
-        }
-        else
-        {
-            modeExtension = (String) modeExtensionMap.get(index);
-            if (getModeExtension() == null)
-            {
-                throw new InvalidAudioFrameException("Invalid Mode Extension");
-            }
-        }
-    }
+        isCopyrighted = (byte4 & MASK_MP3_COPY) != 0;
+        isOriginal = (byte4 & MASK_MP3_HOME) != 0;
 
-    /**
-     * set the sampling rate in Hz of this frame
-     */
-    private void setSamplingRate() throws InvalidAudioFrameException
-    {
-        //Frequency
-        int index = (mpegBytes[BYTE_3] & MASK_MP3_FREQUENCY) >>> 2;
-        HashMap samplingRateMapForVersion = (HashMap) samplingRateMap.get(version);
-        if (samplingRateMapForVersion == null)
-        {
-            throw new InvalidAudioFrameException("Invalid version");
-        }
-        samplingRate = (Integer) (samplingRateMapForVersion.get(new Integer(index)));
-        if (samplingRate == null)
-        {
-            throw new InvalidAudioFrameException("Invalid sampling rate");
-        }
+        emphasis = byte4 & MASK_MP3_EMPHASIS;
+        emphasisAsString = emphasisNames[emphasis];
+        return null;
     }
 
     /**
@@ -680,12 +438,12 @@ public class MPEGFrameHeader
         }
     }
 
-    public Integer getBitRate()
+    public int getBitRate()
     {
         return bitRate;
     }
 
-    public Integer getSamplingRate()
+    public int getSamplingRate()
     {
         return samplingRate;
     }
@@ -747,8 +505,7 @@ public class MPEGFrameHeader
     */
     public int getNoOfSamples()
     {
-        Integer noOfSamples = (Integer) ((HashMap)  samplesPerFrameMap.get(version)).get(new Integer(layer));
-        return noOfSamples;
+        return samplesPerFrame[layer];
     }
 
 
@@ -799,40 +556,20 @@ public class MPEGFrameHeader
 
 
     /**
-     * Hide Constructor
+     * Create an empty frame header to be filled in by {@link #decode(ByteBuffer)}, so that one object can
+     * be reused for every frame of a file
      */
-    private MPEGFrameHeader() throws InvalidAudioFrameException
+    public MPEGFrameHeader()
     {
 
     }
 
-    /**
-     * Try and create a new MPEG frame with the given byte array and decodes its contents
-     * If decoding header causes a problem it is not a valid header
-     *
-     * @param b the array of bytes representing this mpeg frame
-     * @throws InvalidAudioFrameException if does not match expected format
-     */
-    private MPEGFrameHeader(byte[] b) throws InvalidAudioFrameException
-    {
-        mpegBytes = b;
-        setVersion();
-        setLayer();
-        setProtected();
-        setBitrate();
-        setSamplingRate();
-        setPadding();
-        setPrivate();
-        setChannelMode();
-        setModeExtension();
-        setCopyrighted();
-        setOriginal();
-        setEmphasis();
-    }
-
     /**
      * Parse the MPEGFrameHeader of an MP3File, file pointer returns at end of the frame header
      *
+     * A new frame header is returned each time, no state is shared between calls so several threads can
+     * parse at the same time
+     *
      * @param bb the byte buffer containing the header
      * @return
      * @throws InvalidAudioFrameException if there is no header at this point
@@ -840,14 +577,46 @@ public class MPEGFrameHeader
     public static MPEGFrameHeader parseMPEGHeader(ByteBuffer bb)
         throws InvalidAudioFrameException
     {
-        int position =  bb.position();
-        bb.get(header,0,HEADER_SIZE);
-        bb.position(position);
-        MPEGFrameHeader frameHeader = new MPEGFrameHeader(header);
-
+        MPEGFrameHeader frameHeader = new MPEGFrameHeader();
+        String error = frameHeader.decode(readHeader(bb));
+        if (error != null)
+        {
+            throw new InvalidAudioFrameException(error);
+        }
         return frameHeader;
     }
 
+    /**
+     * Decode the frame header at the position of the buffer into this object, reusing it
+     *
+     * Like {@link #parseMPEGHeader} the sync bits are not checked, use {@link #isMPEGFrame} for that first,
+     * and the position of the buffer is not changed. Nothing is allocated, so a scan of every frame of
+     * a file costs no garbage and no exceptions for the invalid headers it runs into.
+     *
+     * @param bb the byte buffer containing the header
+     * @return true if it is a valid header, if not the contents of this object are undefined
+     */
+    public boolean decode(ByteBuffer bb)
+    {
+        return decode(readHeader(bb)) == null;
+    }
+
+    /**
+     * @return the four header bytes at the position of the buffer, first byte highest whatever the byte order
+     */
+    private static int readHeader(ByteBuffer bb)
+    {
+        int position = bb.position();
+        if (bb.limit() - position < HEADER_SIZE)
+        {
+            throw new BufferUnderflowException();
+        }
+        return (bb.get(position) & 0xFF) << 24
+            | (bb.get(position + 1) & 0xFF) << 16
+            | (bb.get(position + 2) & 0xFF) << 8
+            | (bb.get(position + 3) & 0xFF);
+    }
+
     /**
      * Gets the MPEGFrame attribute of the MPEGFrame object
      *
@@ -855,7 +624,7 @@ public class MPEGFrameHeader
      */
     public static boolean isMPEGFrame(ByteBuffer  bb)
     {
-        position = bb.position();
+        int position = bb.position();
         return    (
                    ((bb.get(position) & SYNC_BYTE1) == SYNC_BYTE1)
                     &&
@@ -864,6 +633,43 @@ public class MPEGFrameHeader
 
     }
 
+    /**
+     * Find the next byte that could be the start of an MPEG frame, that is the next 0xFF
+     *
+     * <p>The buffer is read a long at a time: inverting the bytes turns 0xFF into the only zero byte,
+     * and zero bytes are picked out of the long with a few arithmetic operations, without
+     * testing each byte. Only the position found still has to be checked with {@link #isMPEGFrame}.
+     * The position of the buffer is not changed.
+     *
+     * @param bb the buffer to search
+     * @param from index to start searching at
+     * @param to index to stop searching at (exclusive)
+     * @return index of the first 0xFF byte in the range, or <code>to</code> if there is none
+     */
+    public static int findSyncByte(ByteBuffer bb, int from, int to)
+    {
+        boolean bigEndian = bb.order() == ByteOrder.BIG_ENDIAN;
+        int i = from;
+        for (; i + 8 <= to; i += 8)
+        {
+            long inverted = ~bb.getLong(i);
+            //high bit of each byte set only where the inverted byte is zero, no carries between bytes
+            long zeros = ~(((inverted & 0x7F7F7F7F7F7F7F7FL) + 0x7F7F7F7F7F7F7F7FL) | inverted | 0x7F7F7F7F7F7F7F7FL);
+            if (zeros != 0)
+            {
+                return i + ((bigEndian ? Long.numberOfLeadingZeros(zeros) : Long.numberOfTrailingZeros(zeros)) >>> 3);
+            }
+        }
+        for (; i < to; i++)
+        {
+            if ((bb.get(i) & SYNC_BYTE1) == SYNC_BYTE1)
+            {
+                return i;
+            }
+        }
+        return to;
+    }
+
     /**
      *
      * @return a string represntation
@@ -883,10 +689,10 @@ public class MPEGFrameHeader
             " isOriginal:"+ isCopyrighted    +
             " isVariableBitRate" + this.isVariableBitRate() +
             " header as binary:" +
-            AbstractTagDisplayFormatter.displayAsBinary(mpegBytes[BYTE_1]) +
-            AbstractTagDisplayFormatter.displayAsBinary(mpegBytes[BYTE_2]) +
-            AbstractTagDisplayFormatter.displayAsBinary(mpegBytes[BYTE_3]) +
-            AbstractTagDisplayFormatter.displayAsBinary(mpegBytes[BYTE_4]);
+            AbstractTagDisplayFormatter.displayAsBinary((byte) (mpegBytes >>> 24)) +
+            AbstractTagDisplayFormatter.displayAsBinary((byte) (mpegBytes >>> 16)) +
+            AbstractTagDisplayFormatter.displayAsBinary((byte) (mpegBytes >>> 8)) +
+            AbstractTagDisplayFormatter.displayAsBinary((byte) mpegBytes);
     }
 }
 
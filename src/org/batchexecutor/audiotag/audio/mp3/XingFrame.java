@@ -57,9 +57,6 @@ public class XingFrame
     private static final byte[] XING_CBR_ID =  {'I','n','f','o'};
 
 
-    private static ByteBuffer header;
-    private static XingFrame  xingFrame = null;
-
     private boolean vbr = false;
     private boolean isFrameCountEnabled = false;
     private int frameCount = -1;
@@ -68,13 +65,13 @@ public class XingFrame
     private LameFrame lameFrame;
 
     /** Read the Xing Properties from the buffer */
-    private XingFrame()
+    private XingFrame(ByteBuffer header)
     {
         //Go to start of Buffer
         header.rewind();
 
         //Set Vbr
-        setVbr();
+        setVbr(header);
 
         //Read Flags, only the fourth byte of interest to us
         byte flagBuffer[] = new byte[XING_FLAG_BUFFER_SIZE];
@@ -83,13 +80,13 @@ public class XingFrame
         //Read FrameCount if flag set
         if ((flagBuffer[BYTE_4] & (byte) (1)) != 0)
         {
-            setFrameCount();
+            setFrameCount(header);
         }
 
         //Read Size if flag set
         if ((flagBuffer[BYTE_4] & (byte) (1 << 1)) != 0)
         {
-            setAudioSize();
+            setAudioSize(header);
         }
 
         //TODO TOC
@@ -109,7 +106,7 @@ public class XingFrame
     }
     
     /** Set whether or not VBR, (Xing can also be used for CBR though this is less useful) */
-    private void setVbr()
+    private void setVbr(ByteBuffer header)
     {
         //Is it VBR or CBR
         byte [] identifier = new byte[XING_IDENTIFIER_BUFFER_SIZE];
@@ -124,7 +121,7 @@ public class XingFrame
     /**
      * Set count of frames
      */
-    private void setFrameCount()
+    private void setFrameCount(ByteBuffer header)
     {
         byte frameCountBuffer[] = new byte[XING_FRAMECOUNT_BUFFER_SIZE];
         header.get(frameCountBuffer);
@@ -156,7 +153,7 @@ public class XingFrame
     /**
      * Set size of AudioData
      */
-    private void setAudioSize()
+    private void setAudioSize(ByteBuffer header)
     {
         byte frameSizeBuffer[] = new byte[XING_AUDIOSIZE_BUFFER_SIZE];
         header.get(frameSizeBuffer);
@@ -189,13 +186,16 @@ public class XingFrame
      * Parse the XingFrame of an MP3File, cannot be called until we have validated that
      * this is a XingFrame
      *
+     * The position of the buffer is not changed
+     *
+     * @param bb buffer positioned at the start of the MPEG frame containing the Xing frame
+     * @param mpegFrameHeader header of that MPEG frame
      * @return
      * @throws InvalidAudioFrameException
      */
-    public static XingFrame parseXingFrame()throws InvalidAudioFrameException
+    public static XingFrame parseXingFrame(ByteBuffer bb,MPEGFrameHeader mpegFrameHeader)throws InvalidAudioFrameException
     {
-        xingFrame = new XingFrame();
-        return xingFrame;
+        return new XingFrame(getXingHeader(bb,mpegFrameHeader));
     }
 
     /**
@@ -205,19 +205,38 @@ public class XingFrame
      */
     public static boolean isXingFrame(ByteBuffer bb,MPEGFrameHeader mpegFrameHeader)
     {
-        //We store this so can return here after scanning through buffer
-        int startPosition = bb.position();
+        ByteBuffer header = getXingHeader(bb,mpegFrameHeader);
+
+        //Check Identifier
+        byte [] identifier = new byte[XING_IDENTIFIER_BUFFER_SIZE];
+        header.get(identifier);
+        if ((!Arrays.equals(identifier,XING_VBR_ID))&&(!Arrays.equals(identifier,XING_CBR_ID)))
+        {
+            return false;
+        }
+        MP3File.log.finest("Found Xing Frame");
+        return true;
+    }
 
-        //Get to Start of where Xing Frame Should be ( we dont know if it is one at this point)
+    /**
+     * Where the Xing Frame should start ( we dont know if it is one at this point), as a new view
+     * of the buffer so the position of the buffer itself is not changed
+     *
+     * @return buffer starting at the Xing frame
+     */
+    private static ByteBuffer getXingHeader(ByteBuffer bb,MPEGFrameHeader mpegFrameHeader)
+    {
+        int startPosition = bb.position();
+        ByteBuffer header = bb.duplicate();
         if(mpegFrameHeader.getVersion()==MPEGFrameHeader.VERSION_1)
         {
             if(mpegFrameHeader.getChannelMode()==MPEGFrameHeader.MODE_MONO)
             {
-                bb.position(startPosition + MPEG_VERSION_1_MODE_MONO_OFFSET );
+                header.position(startPosition + MPEG_VERSION_1_MODE_MONO_OFFSET );
             }
             else
             {
-                bb.position(startPosition + MPEG_VERSION_1_MODE_STEREO_OFFSET);
+                header.position(startPosition + MPEG_VERSION_1_MODE_STEREO_OFFSET);
             }
         }
         //MPEGVersion 2 and 2.5
@@ -225,29 +244,14 @@ public class XingFrame
         {
             if(mpegFrameHeader.getChannelMode()==MPEGFrameHeader.MODE_MONO)
             {
-                bb.position(startPosition + MPEG_VERSION_2_MODE_MONO_OFFSET );
+                header.position(startPosition + MPEG_VERSION_2_MODE_MONO_OFFSET );
             }
             else
             {
-                bb.position(startPosition + MPEG_VERSION_2_MODE_STEREO_OFFSET);
+                header.position(startPosition + MPEG_VERSION_2_MODE_STEREO_OFFSET);
             }
         }
-
-        //Create header from here
-        header = bb.slice();
-
-        // Return Buffer to start Point
-        bb.position(startPosition);
-
-        //Check Identifier
-        byte [] identifier = new byte[XING_IDENTIFIER_BUFFER_SIZE];
-        header.get(identifier);
-        if ((!Arrays.equals(identifier,XING_VBR_ID))&&(!Arrays.equals(identifier,XING_CBR_ID)))
-        {
-            return false;
-        }
-        MP3File.log.finest("Found Xing Frame");
-        return true;
+        return header.slice();
     }
 
     /** Is this XingFrame detailing a varaible bit rate MPEG
@@ -50,22 +50,42 @@ public class APEv2Tag implements Tag {
         load();
     }
 
+    /**
+     * 从已经打开的文件里读标签,不用再打开一次,读完了也不关
+     * @param file 文件
+     * @param raf 这个文件打开的流
+     */
+    public APEv2Tag(File file, RandomAccessFile raf) throws IOException, UnsupportedAudioFileException {
+        this.input = file;
+        map = new HashMap<String, String>();
+        load(raf);
+    }
+
     public APEv2Tag() {
         map = new HashMap<String, String>();
     }
 
     protected void load() throws IOException, UnsupportedAudioFileException {
         RandomAccessFile raf = new RandomAccessFile(input, "r");
+        try {
+            load(raf);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private void load(RandomAccessFile raf) throws IOException, UnsupportedAudioFileException {
+        long length = raf.length();
         //先查看最后32个字节
         try {
-            raf.seek((int) (input.length() - 32));
+            raf.seek((int) (length - 32));
             byte[] buffer = new byte[32];
             raf.read(buffer);
             head = new TagHead(buffer);
             if (head.isValid()) {
                 log.log(Level.INFO, "读取:最后32个字节有标签!");
                 int size = head.getTagSize();
-                raf.seek((int) (input.length() - size));
+                raf.seek((int) (length - size));
                 buffer = new byte[size - 32];
                 int read = 0;
                 while (read < buffer.length) {
@@ -78,13 +98,13 @@ public class APEv2Tag implements Tag {
                 }
 
             } else {//再查看128前面的32个字节
-                raf.seek((int) (input.length() - 32 - 128));
+                raf.seek((int) (length - 32 - 128));
                 raf.read(buffer);
                 head = new TagHead(buffer);
                 if (head.isValid()) {
                     log.log(Level.INFO, "读取:ID3v1前面的字节有标签!");
                     int size = head.getTagSize();
-                    raf.seek((int) (input.length() - size - 128));
+                    raf.seek((int) (length - size - 128));
                     buffer = new byte[size - 32];
                     int read = 0;
                     while (read < buffer.length) {
@@ -102,7 +122,6 @@ public class APEv2Tag implements Tag {
             }
         } finally {
             try {
-                raf.close();
                 readTag();
             } catch (Exception exe) {
                 throw new UnsupportedAudioFileException("读取:找不到APEv2格式的标签!");
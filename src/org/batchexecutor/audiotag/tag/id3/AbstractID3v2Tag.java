@@ -786,35 +786,33 @@ public abstract class AbstractID3v2Tag extends AbstractID3Tag implements Tag
      */
     public static long getV2TagSizeIfExists(File file) throws IOException
     {
-        FileInputStream fis = null;
-        FileChannel fc = null;
-        ByteBuffer bb = null;
+        FileInputStream fis = new FileInputStream(file);
         try
         {
-            //Files
-            fis = new FileInputStream(file);
-            fc = fis.getChannel();
-
-            //Read possible Tag header  Byte Buffer
-            bb = ByteBuffer.allocate(TAG_HEADER_LENGTH);
-            fc.read(bb);
-            bb.flip();
-            if (bb.limit() < (TAG_HEADER_LENGTH))
-            {
-                return 0;
-            }
+            return getV2TagSizeIfExists(fis.getChannel());
         }
         finally
         {
-            if (fc != null)
-            {
-                fc.close();
-            }
+            fis.close();
+        }
+    }
 
-            if (fis != null)
-            {
-                fis.close();
-            }
+    /**
+     * Same as {@link #getV2TagSizeIfExists(File)} but reads from a channel that is already open,
+     * the header is read with a positional read so the channel is left where it was.
+     *
+     * @param fc channel of the file
+     * @return the end of the tag in the file or zero if no tag exists.
+     */
+    public static long getV2TagSizeIfExists(FileChannel fc) throws IOException
+    {
+        //Read possible Tag header  Byte Buffer
+        ByteBuffer bb = ByteBuffer.allocate(TAG_HEADER_LENGTH);
+        fc.read(bb, 0);
+        bb.flip();
+        if (bb.limit() < (TAG_HEADER_LENGTH))
+        {
+            return 0;
         }
 
         //ID3 identifier
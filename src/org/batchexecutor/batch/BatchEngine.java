@@ -0,0 +1,688 @@
+package org.batchexecutor.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import org.batchexecutor.lyric.Lyric;
+import org.batchexecutor.lyric.LyricFetchExecutor;
+import org.batchexecutor.lyric.LyricWriter;
+import org.batchexecutor.playlist.PlayListItem;
+import org.batchexecutor.util.FileUtil;
+import org.batchexecutor.util.Metrics;
+import org.batchexecutor.util.Util;
+
+/**
+ * Headless batch engine. Keeps its own bounded, thread-safe work queue
+ * and drains it with a pool of worker threads, either fetching the lyric
+ * of every song or launching the external player on it through a
+ * {@link PlayerLauncher}. Directories are
+ * walked by a {@link LibraryScanner} that feeds the queue as it goes. Lyric lookups
+ * are handed to the {@link LyricFetchExecutor}, so the workers only do
+ * the file checks and a batch stays bound by the network rather than by
+ * the size of the pool. Nothing in here touches Swing, the GUI only
+ * observes {@link BatchEvent}s. With a {@link BatchJournal} attached,
+ * finished items are recorded and skipped when a batch stopped before
+ * its end is run again;
+ * with a {@link LibraryIndex}, songs unchanged since an earlier run are
+ * dropped during the walk already. Progress is counted in {@link Metrics}.
+ * @author SnowWolf725
+ */
+public class BatchEngine {
+
+    private static final Logger log = Logger.getLogger(BatchEngine.class.getName());
+    private static final long POLL_TIMEOUT = 500L;//ms a worker waits on an empty queue before checking its state
+    private static final int DEFAULT_MAX_IN_FLIGHT = 1024;
+    private static final int QUEUE_CAPACITY = 8192;
+    private static final int SCAN_CHUNK = 256;
+    private final BlockingDeque<File> queue = new LinkedBlockingDeque<File>(QUEUE_CAPACITY);
+    private final BlockingDeque<File> roots = new LinkedBlockingDeque<File>();//added from outside, waiting for room in the queue
+    private final List<BatchListener> listeners = new CopyOnWriteArrayList<BatchListener>();
+    private final AtomicInteger pending = new AtomicInteger();//queued plus in-progress items
+    private final AtomicLong processedCount = new AtomicLong();
+    private final AtomicLong lyricCount = new AtomicLong();
+    private final Object idleLock = new Object();
+    private final InFlight inFlight = new InFlight(DEFAULT_MAX_IN_FLIGHT);//bounds the lyric lookups handed off but not finished yet
+    private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+    private int threadCount;
+    private long delay;
+    private boolean fetchLyrics = true;
+    private String playerLocation;
+    private int playerSlots = 1;
+    private long playerMaxTime = 20000L;
+    private Pattern playerDonePattern;
+    private volatile PlayerLauncher launcher;
+    private ExecutorService workers;
+    private LibraryScanner scanner;
+    private BatchJournal journal;
+    private LibraryIndex index;
+    private volatile int generation;
+    private volatile boolean running;
+
+    /**
+     * @param threadCount number of worker threads
+     */
+    public BatchEngine(int threadCount) {
+        setThreadCount(threadCount);
+        Metrics metrics = Metrics.getDefault();
+        metrics.addGauge("batch.queue", new Metrics.Gauge() {
+
+            public long getValue() {
+                return getQueueSize();
+            }
+        });
+        metrics.addGauge("batch.pending", new Metrics.Gauge() {
+
+            public long getValue() {
+                return pending.get();
+            }
+        });
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * Takes effect on the next {@link #start()}.
+     * @param threadCount number of worker threads
+     */
+    public void setThreadCount(int threadCount) {
+        this.threadCount = Math.max(1, threadCount);
+    }
+
+    public synchronized int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * Can be changed while lookups are running, the permits they hold
+     * go back to the same semaphore. A smaller limit holds new lookups
+     * back until enough of the running ones are finished.
+     * @param maxInFlight number of lyric lookups allowed to run at once
+     */
+    public synchronized void setMaxInFlight(int maxInFlight) {
+        maxInFlight = Math.max(1, maxInFlight);
+        int diff = maxInFlight - this.maxInFlight;
+        if (diff > 0) {
+            inFlight.release(diff);
+        } else if (diff < 0) {
+            inFlight.reducePermits(-diff);
+        }
+        this.maxInFlight = maxInFlight;
+    }
+
+    public long getDelay() {
+        return delay;
+    }
+
+    /**
+     * @param delay ms each worker pauses after an item
+     */
+    public void setDelay(long delay) {
+        this.delay = Math.max(0, delay);
+    }
+
+    public boolean isFetchLyrics() {
+        return fetchLyrics;
+    }
+
+    /**
+     * @param fetchLyrics true to fetch lyrics, false to launch the player
+     */
+    public void setFetchLyrics(boolean fetchLyrics) {
+        this.fetchLyrics = fetchLyrics;
+    }
+
+    public String getPlayerLocation() {
+        return playerLocation;
+    }
+
+    public void setPlayerLocation(String playerLocation) {
+        this.playerLocation = playerLocation;
+    }
+
+    public int getPlayerSlots() {
+        return playerSlots;
+    }
+
+    /**
+     * Takes effect on the next {@link #start()}.
+     * @param playerSlots number of player instances run at once
+     */
+    public void setPlayerSlots(int playerSlots) {
+        this.playerSlots = Math.max(1, playerSlots);
+    }
+
+    public long getPlayerMaxTime() {
+        return playerMaxTime;
+    }
+
+    /**
+     * Takes effect on the next {@link #start()}.
+     * @param playerMaxTime ms a player instance may run on one song
+     */
+    public void setPlayerMaxTime(long playerMaxTime) {
+        this.playerMaxTime = Math.max(1, playerMaxTime);
+    }
+
+    public Pattern getPlayerDonePattern() {
+        return playerDonePattern;
+    }
+
+    /**
+     * Takes effect on the next {@link #start()}.
+     * @param playerDonePattern player output line telling that the song
+     * is done, null to wait for the player to exit or time out
+     */
+    public void setPlayerDonePattern(Pattern playerDonePattern) {
+        this.playerDonePattern = playerDonePattern;
+    }
+
+    public BatchJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * @param journal an opened journal recording the progress, may be null
+     */
+    public void setJournal(BatchJournal journal) {
+        this.journal = journal;
+    }
+
+    public LibraryIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * @param index a loaded library index, may be null to visit every song
+     */
+    public void setIndex(LibraryIndex index) {
+        this.index = index;
+    }
+
+    public void addBatchListener(BatchListener l) {
+        listeners.add(l);
+    }
+
+    public void removeBatchListener(BatchListener l) {
+        listeners.remove(l);
+    }
+
+    /**
+     * Queues a song file or a directory of songs. Never blocks, so it
+     * can be called on the event dispatch thread: only what the walks
+     * of directories find is bounded, the items added here wait in a
+     * queue of their own until there is room.
+     * @param file file or directory
+     */
+    public void add(File file) {
+        pending.incrementAndGet();
+        roots.addLast(file);
+        transfer();
+    }
+
+    /**
+     * Moves the added items into the work queue while it has room.
+     */
+    private void transfer() {
+        synchronized (roots) {
+            File file;
+            while ((file = roots.peekFirst()) != null && queue.offerLast(file)) {
+                roots.pollFirst();
+            }
+        }
+    }
+
+    /**
+     * Takes a not yet started item off the queue.
+     * @param file the item
+     * @return whether it was still queued
+     */
+    public boolean remove(File file) {
+        boolean removed;
+        synchronized (roots) {//not while it moves over
+            removed = roots.remove(file) || queue.remove(file);
+        }
+        if (removed) {
+            done();
+            return true;
+        }
+        return false;
+    }
+
+    public int getQueueSize() {
+        return queue.size() + roots.size();
+    }
+
+    public long getProcessedCount() {
+        return processedCount.get();
+    }
+
+    public long getLyricCount() {
+        return lyricCount.get();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Starts the workers, does nothing if they are already running.
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        final int gen = ++generation;
+        int count = threadCount;
+        if (!fetchLyrics) {
+            launcher = new PlayerLauncher(playerLocation, playerSlots, playerMaxTime);
+            launcher.setCompletionPattern(playerDonePattern);
+            count = Math.max(count, playerSlots);//a worker waits on each player instance
+        }
+        workers = Executors.newFixedThreadPool(count, new ThreadFactory() {
+
+            private int count;
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "batch-worker-" + (++count));
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        for (int i = 0; i < count; i++) {
+            workers.execute(new Worker(gen));
+        }
+    }
+
+    /**
+     * Stops the workers once they are done with their current item.
+     * The queue is kept, so a later {@link #start()} carries on.
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        workers.shutdown();
+        workers = null;
+        if (launcher != null) {
+            launcher.shutdown();
+            launcher = null;
+        }
+        checkpoint(false);
+    }
+
+    /**
+     * Blocks until the queue is drained and no item is in progress.
+     * @throws InterruptedException
+     */
+    public void awaitIdle() throws InterruptedException {
+        synchronized (idleLock) {
+            while (pending.get() > 0) {
+                idleLock.wait();
+            }
+        }
+    }
+
+    /**
+     * Whether a file is one the batch handles.
+     * @param file the file
+     * @return true for songs
+     */
+    public static boolean isCandidate(File file) {
+        return file.isFile() && FileUtil.isMusicFile(file);
+    }
+
+    /**
+     * The lyric file saved next to a song.
+     * @param song the song
+     * @return its lrc file
+     */
+    public static File getLyricFile(File song) {
+        String path = song.getPath();
+        return new File(path.substring(0, path.lastIndexOf('.') + 1) + "lrc");
+    }
+
+    /**
+     * @return false when the item has been handed to the lyric executor
+     * and will be finished from there
+     */
+    private boolean process(File file) throws Exception {
+        if (journal != null && journal.isDone(file)) {
+            fire(file, BatchEvent.Status.SKIPPED, null);
+            return true;
+        }
+        if (!file.exists()) {
+            fire(file, BatchEvent.Status.SKIPPED, null);
+            return true;
+        }
+        if (file.isDirectory()) {
+            scan(file);
+            return false;
+        }
+        if (!isCandidate(file)) {
+            fire(file, BatchEvent.Status.SKIPPED, null);
+            return true;
+        }
+        if (index != null && index.isUnchanged(file)) {
+            skipDone(file);
+            return true;
+        }
+        File lrc = getLyricFile(file);
+        if (lrc.exists()) {
+            if (index != null) {
+                index.update(file, LibraryIndex.HAS_LYRIC, 0);
+            }
+            skipDone(file);
+            return true;
+        }
+        if (fetchLyrics) {
+            inFlight.acquire();
+            try {
+                LyricFetchExecutor.getDefault().submit(new LyricJob(file, lrc));
+            } catch (RuntimeException ex) {
+                inFlight.release();
+                throw ex;
+            }
+            return false;
+        } else {
+            PlayerLauncher l = launcher;
+            if (l == null) {
+                throw new IllegalStateException("player mode needs a player");
+            }
+            PlayerLauncher.Outcome outcome = l.play(file);
+            log.log(Level.FINE, file + ": " + outcome);
+            processedCount.incrementAndGet();
+            if (index != null) {
+                index.update(file, lrc.exists() ? LibraryIndex.HAS_LYRIC : LibraryIndex.NO_LYRIC, 0);
+            }
+            if (journal != null) {
+                journal.done(file);
+            }
+            fire(file, BatchEvent.Status.PROCESSED, null);
+        }
+        return true;
+    }
+
+    private void skipDone(File file) {
+        if (journal != null) {
+            journal.done(file);
+        }
+        fire(file, BatchEvent.Status.SKIPPED, null);
+    }
+
+    /**
+     * Walks a directory in the background, the songs found are queued
+     * as they come and the directory itself is done once the walk is.
+     * The directory is walked every time, even if the journal has seen
+     * a walk of it finish, so songs copied into it since are found; the
+     * journal and the index only keep finished songs out of the queue.
+     */
+    private void scan(File dir) {
+        LibraryScanner.Sink sink = new LibraryScanner.Sink() {
+
+            public void accept(List<File> chunk) throws InterruptedException {
+                for (File f : chunk) {
+                    if (journal != null) {
+                        if (journal.isDone(f)) {
+                            continue;
+                        }
+                        journal.pending(f);
+                    }
+                    pending.incrementAndGet();
+                    try {
+                        queue.putLast(f);
+                    } catch (InterruptedException ex) {
+                        done();
+                        throw ex;
+                    }
+                }
+            }
+        };
+        LibraryScanner.Callback callback = new LibraryScanner.Callback() {
+
+            public void scanned(File root, long found) {
+                fire(root, BatchEvent.Status.EXPANDED, null);
+                done();
+            }
+        };
+        if (index != null) {
+            final LibraryIndex idx = index;
+            getScanner().scan(dir, new LibraryScanner.Filter() {
+
+                public boolean accept(Path file, BasicFileAttributes attrs) {
+                    return !idx.isUnchanged(file, attrs.size(), attrs.lastModifiedTime().toMillis());
+                }
+            }, sink, callback);
+        } else {
+            getScanner().scan(dir, sink, callback);
+        }
+    }
+
+    private synchronized LibraryScanner getScanner() {
+        if (scanner == null) {
+            scanner = new LibraryScanner(Math.min(4, Runtime.getRuntime().availableProcessors()), SCAN_CHUNK);
+        }
+        return scanner;
+    }
+
+    /**
+     * @param finished true when the batch has run to the end, the journal
+     * is then cleared instead of kept for a restart
+     */
+    private void checkpoint(boolean finished) {
+        if (journal != null) {
+            try {
+                if (finished) {
+                    journal.clear();
+                } else {
+                    journal.checkpoint();
+                }
+            } catch (IOException ex) {
+                log.log(Level.SEVERE, "journal checkpoint failed", ex);
+            }
+        }
+        if (index != null) {
+            try {
+                index.save();
+            } catch (IOException ex) {
+                log.log(Level.SEVERE, "cannot save the library index", ex);
+            }
+        }
+    }
+
+    private void done() {
+        if (pending.decrementAndGet() == 0) {
+            checkpoint(true);
+            synchronized (idleLock) {
+                idleLock.notifyAll();
+            }
+            BatchEvent e = new BatchEvent(this, null, BatchEvent.Status.PROCESSED, null);
+            for (BatchListener l : listeners) {
+                l.batchIdle(e);
+            }
+        }
+    }
+
+    private void fire(File file, BatchEvent.Status status, Throwable error) {
+        if (status != BatchEvent.Status.STARTED && status != BatchEvent.Status.EXPANDED) {
+            Metrics.getDefault().itemDone();
+        }
+        if (listeners.isEmpty()) {
+            return;
+        }
+        BatchEvent e = new BatchEvent(this, file, status, error);
+        for (BatchListener l : listeners) {
+            if (status == BatchEvent.Status.STARTED) {
+                l.itemStarted(e);
+            } else {
+                l.itemFinished(e);
+            }
+        }
+    }
+
+    /**
+     * Looks up the lyric of one song on the lyric executor. A downloaded
+     * lyric is written by the {@link LyricWriter}, the item is finished
+     * from its callback once the file is on disk.
+     */
+    private class LyricJob implements Callable<Object>, LyricWriter.Callback {
+
+        private final File file;
+        private final File lrc;
+        private PlayListItem item;
+
+        LyricJob(File file, File lrc) {
+            this.file = file;
+            this.lrc = lrc;
+        }
+
+        public Object call() {
+            boolean skipped = false;
+            boolean queued = false;
+            try {
+                item = new PlayListItem(Util.getSongName(file), file.getPath(), -1, true);
+                if (index != null && index.isRecentMiss(file)
+                        && index.getDigest(file) == LibraryIndex.digest(item)) {
+                    //changed, but recently looked up with the same tags and found nothing
+                    index.touch(file);
+                    skipDone(file);
+                    skipped = true;
+                } else {
+                    queued = new Lyric(item, this).isSaveQueued();
+                }
+            } catch (Exception ex) {
+                failed(lrc, ex);
+                return null;
+            }
+            if (skipped) {
+                finish();
+            } else if (!queued) {
+                saved(lrc);//nothing downloaded, or found locally
+            }
+            return null;
+        }
+
+        public void saved(File target) {
+            try {
+                processedCount.incrementAndGet();
+                if (journal != null) {
+                    journal.done(file);
+                }
+                if (index != null) {
+                    index.update(file, lrc.exists() ? LibraryIndex.HAS_LYRIC : LibraryIndex.NO_LYRIC,
+                            LibraryIndex.digest(item));
+                }
+                if (lrc.exists()) {
+                    lyricCount.incrementAndGet();
+                    Metrics.getDefault().hit("lyric");
+                    fire(file, BatchEvent.Status.LYRIC_SAVED, null);
+                } else {
+                    Metrics.getDefault().miss("lyric");
+                    fire(file, BatchEvent.Status.PROCESSED, null);
+                }
+            } finally {
+                finish();
+            }
+        }
+
+        public void failed(File target, Exception error) {
+            try {
+                log.log(Level.SEVERE, "lyric lookup failed: " + file, error);
+                if (journal != null) {
+                    journal.failed(file);
+                }
+                fire(file, BatchEvent.Status.FAILED, error);
+            } finally {
+                finish();
+            }
+        }
+
+        private void finish() {
+            inFlight.release();
+            done();
+        }
+    }
+
+    /**
+     * A semaphore whose number of permits can be lowered.
+     */
+    private static class InFlight extends Semaphore {
+
+        private static final long serialVersionUID = 1L;
+
+        InFlight(int permits) {
+            super(permits);
+        }
+
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+
+    private class Worker implements Runnable {
+
+        private final int gen;
+
+        Worker(int gen) {
+            this.gen = gen;
+        }
+
+        public void run() {
+            while (running && gen == generation) {
+                transfer();
+                File file;
+                try {
+                    file = queue.pollFirst(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                if (file == null) {
+                    continue;
+                }
+                boolean finished = true;
+                try {
+                    fire(file, BatchEvent.Status.STARTED, null);
+                    finished = process(file);
+                } catch (Exception ex) {
+                    log.log(Level.SEVERE, "batch item failed: " + file, ex);
+                    if (journal != null) {
+                        journal.failed(file);
+                    }
+                    fire(file, BatchEvent.Status.FAILED, ex);
+                } finally {
+                    if (finished) {
+                        done();
+                    }
+                }
+                if (delay > 0) {
+                    try {
+                        Thread.sleep(delay);
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.batchexecutor.batch;
+
+import java.io.File;
+import java.util.EventObject;
+
+/**
+ * A progress event fired by the {@link BatchEngine}.
+ * @author SnowWolf725
+ */
+public class BatchEvent extends EventObject {
+
+    private static final long serialVersionUID = 20100101L;
+
+    /**
+     * What happened to the item.
+     */
+    public static enum Status {
+
+        /** the item is being processed */
+        STARTED,
+        /** a lyric file has been saved for the item */
+        LYRIC_SAVED,
+        /** the item has been handled but nothing was saved */
+        PROCESSED,
+        /** the item was not a candidate, or already had a lyric */
+        SKIPPED,
+        /** a directory has been expanded into the queue */
+        EXPANDED,
+        /** processing threw */
+        FAILED
+    }
+    private final File file;
+    private final Status status;
+    private final Throwable error;
+    private final int queueSize;
+    private final long processedCount;
+    private final long lyricCount;
+
+    public BatchEvent(BatchEngine source, File file, Status status, Throwable error) {
+        super(source);
+        this.file = file;
+        this.status = status;
+        this.error = error;
+        this.queueSize = source.getQueueSize();
+        this.processedCount = source.getProcessedCount();
+        this.lyricCount = source.getLyricCount();
+    }
+
+    public BatchEngine getEngine() {
+        return (BatchEngine) getSource();
+    }
+
+    /**
+     * @return the item, null for {@link BatchListener#batchIdle}
+     */
+    public File getFile() {
+        return file;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return the failure cause when the status is {@link Status#FAILED}
+     */
+    public Throwable getError() {
+        return error;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public long getProcessedCount() {
+        return processedCount;
+    }
+
+    public long getLyricCount() {
+        return lyricCount;
+    }
+
+    public String toString() {
+        return "[" + status + "]" + (file == null ? "" : file.getPath());
+    }
+}
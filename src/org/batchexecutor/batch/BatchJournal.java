@@ -0,0 +1,287 @@
+package org.batchexecutor.batch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.batchexecutor.util.Config;
+
+/**
+ * Persistent progress of a batch, so a restarted batch carries on where
+ * the last one stopped instead of visiting the whole library again.
+ * It only lives as long as one batch: the engine clears it once the
+ * batch has run to the end, from then on the {@link LibraryIndex} decides
+ * what a later batch has to do, going by the size and time of each song,
+ * its lyric file and how old a miss is. A song the journal has as done
+ * is skipped without any of those checks.
+ * <p>
+ * Two files live under {@link #getDefaultDir()}: <code>journal.log</code>,
+ * an append-only binary log of state changes (one status byte and the
+ * path per record), and <code>journal.idx</code>, a checkpoint holding
+ * every item finished at that point. A checkpoint is written
+ * to a temporary file and renamed over the old one, then the log is
+ * truncated. Loading reads the checkpoint and replays the log; a record
+ * cut short by a crash is dropped.
+ * <p>
+ * Only the paths of the finished items are kept in memory: a pending or
+ * failed item is found again by the walk of its directory anyway. So the
+ * memory in use grows with what one batch has finished, nothing of it is
+ * forgotten during the batch, and all of it goes with {@link #clear()}.
+ * @author SnowWolf725
+ */
+public class BatchJournal {
+
+    private static final Logger log = Logger.getLogger(BatchJournal.class.getName());
+    /** queued but not processed yet */
+    public static final byte PENDING = 0;
+    /** processed, whether or not a lyric was found */
+    public static final byte DONE = 1;
+    /** processing threw, retried on resume */
+    public static final byte FAILED = 2;
+    private static final int MAGIC = 0x424A4E4C;//"BJNL"
+    private static final int VERSION = 1;
+    private static final int CHECKPOINT_RECORDS = 50000;
+    private static final long CHECKPOINT_INTERVAL = 5 * 60 * 1000L;
+    private final File dir;
+    private final File logFile;
+    private final File indexFile;
+    private final Set<String> done = new HashSet<String>();
+    private DataOutputStream out;
+    private int sinceCheckpoint;
+    private long lastCheckpoint;
+
+    /**
+     * @param dir directory holding the journal files
+     */
+    public BatchJournal(File dir) {
+        this.dir = dir;
+        this.logFile = new File(dir, "journal.log");
+        this.indexFile = new File(dir, "journal.idx");
+    }
+
+    public static File getDefaultDir() {
+        return new File(Config.HOME, "batch");
+    }
+
+    /**
+     * Opens the journal for appending.
+     * @param resume true to load the previous state, false to start over
+     * @throws IOException
+     */
+    public synchronized void open(boolean resume) throws IOException {
+        dir.mkdirs();
+        done.clear();
+        if (resume) {
+            loadIndex();
+            long good = replayLog();
+            if (good < logFile.length()) {
+                RandomAccessFile raf = new RandomAccessFile(logFile, "rw");
+                try {
+                    raf.setLength(good);
+                } finally {
+                    raf.close();
+                }
+            }
+        } else {
+            indexFile.delete();
+            logFile.delete();
+        }
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(logFile, true)));
+        lastCheckpoint = System.currentTimeMillis();
+        log.log(Level.INFO, "journal opened with " + done.size() + " finished items");
+    }
+
+    public void pending(File f) {
+        append(PENDING, f);
+    }
+
+    public void done(File f) {
+        append(DONE, f);
+    }
+
+    public void failed(File f) {
+        append(FAILED, f);
+    }
+
+    public synchronized boolean isDone(File f) {
+        return done.contains(key(f));
+    }
+
+    /**
+     * Forgets every item, for when a batch has run to the end.
+     * @throws IOException
+     */
+    public synchronized void clear() throws IOException {
+        done.clear();
+        checkpoint();
+    }
+
+    /**
+     * Writes the whole state to the index and empties the log.
+     * @throws IOException
+     */
+    public synchronized void checkpoint() throws IOException {
+        if (out == null) {
+            return;
+        }
+        out.flush();
+        File temp = new File(dir, "journal.idx.tmp");
+        FileOutputStream fos = new FileOutputStream(temp);
+        try {
+            DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos));
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeInt(done.size());
+            for (String key : done) {
+                dos.writeByte(DONE);
+                dos.writeUTF(key);
+            }
+            dos.flush();
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+        indexFile.delete();
+        if (!temp.renameTo(indexFile)) {
+            throw new IOException("cannot rename " + temp + " to " + indexFile);
+        }
+        out.close();
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(logFile, false)));
+        sinceCheckpoint = 0;
+        lastCheckpoint = System.currentTimeMillis();
+    }
+
+    public synchronized void close() {
+        try {
+            checkpoint();
+            if (out != null) {
+                out.close();
+            }
+        } catch (IOException ex) {
+            log.log(Level.SEVERE, "cannot close the journal", ex);
+        }
+        out = null;
+    }
+
+    private synchronized void append(byte state, File f) {
+        String key = key(f);
+        put(state, key);
+        if (out == null) {
+            return;
+        }
+        try {
+            out.writeByte(state);
+            out.writeUTF(key);
+            out.flush();
+            if (++sinceCheckpoint >= CHECKPOINT_RECORDS
+                    || System.currentTimeMillis() - lastCheckpoint >= CHECKPOINT_INTERVAL) {
+                checkpoint();
+            }
+        } catch (IOException ex) {
+            log.log(Level.SEVERE, "cannot write the journal", ex);
+        }
+    }
+
+    private void loadIndex() throws IOException {
+        if (!indexFile.exists()) {
+            return;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                log.log(Level.WARNING, "ignoring unknown journal index " + indexFile);
+                return;
+            }
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                byte state = in.readByte();
+                put(state, in.readUTF());
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return the length of the log up to the last complete record
+     */
+    private long replayLog() throws IOException {
+        if (!logFile.exists()) {
+            return 0;
+        }
+        long good = 0;
+        CountingInputStream counter = new CountingInputStream(new FileInputStream(logFile));
+        DataInputStream in = new DataInputStream(counter);
+        try {
+            while (true) {
+                byte state = in.readByte();
+                String key = in.readUTF();
+                put(state, key);
+                good = counter.getCount();
+            }
+        } catch (EOFException ex) {
+            //end of the log, or a record cut short by a crash
+        } finally {
+            in.close();
+        }
+        return good;
+    }
+
+    /**
+     * Keeps a finished item, forgets one that is due again.
+     */
+    private void put(byte state, String key) {
+        if (state == DONE) {
+            done.add(key);
+        } else {
+            done.remove(key);
+        }
+    }
+
+    private static String key(File f) {
+        return f.getAbsolutePath();
+    }
+
+    /**
+     * Buffered stream that knows how many bytes have been consumed.
+     */
+    private static class CountingInputStream extends BufferedInputStream {
+
+        private long count;
+
+        CountingInputStream(FileInputStream in) {
+            super(in);
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        public synchronized int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        public synchronized int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package org.batchexecutor.batch;
+
+import java.util.EventListener;
+
+/**
+ * Receives progress notifications from a {@link BatchEngine}.
+ * Callbacks are made on the engine's worker threads, so UI
+ * observers have to hand the event over to their own thread.
+ * @author SnowWolf725
+ */
+public interface BatchListener extends EventListener {
+
+    /**
+     * A worker has taken an item off the queue.
+     * @param e the event
+     */
+    public void itemStarted(BatchEvent e);
+
+    /**
+     * A worker is done with an item, see {@link BatchEvent#getStatus()}.
+     * @param e the event
+     */
+    public void itemFinished(BatchEvent e);
+
+    /**
+     * The queue has been drained and no worker is busy any more.
+     * @param e the event
+     */
+    public void batchIdle(BatchEvent e);
+}
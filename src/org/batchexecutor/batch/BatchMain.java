@@ -0,0 +1,137 @@
+package org.batchexecutor.batch;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.batchexecutor.util.Config;
+import org.batchexecutor.util.Metrics;
+
+/**
+ * Command line front end of the {@link BatchEngine}, needs no display.
+ * <pre>
+ * BatchMain [-threads n] [-inflight n] [-delay ms] [-play player] [-slots n] [-maxplay ms] [-done regex] [-resume] [-full] [-watch] [-exact] [-stats s] file|dir...
+ * </pre>
+ * Without <code>-play</code> the lyric of every song is fetched; with it
+ * <code>-slots</code> players run at once, each for at most
+ * <code>-maxplay</code> ms per song, or until a line of its output
+ * matches <code>-done</code>.
+ * Progress is kept in a {@link BatchJournal}; <code>-resume</code> skips
+ * what the previous run already finished if it was stopped before the
+ * end, instead of starting over.
+ * Songs unchanged since any earlier run are skipped through the
+ * {@link LibraryIndex} unless <code>-full</code> is given. With
+ * <code>-watch</code> the directories given are watched once done, and
+ * songs added to them later are processed until the program is killed.
+ * <code>-exact</code> counts every frame of MP3s without a Xing frame count
+ * for their exact length, instead of estimating it from the first frame.
+ * <code>-stats</code> prints the {@link Metrics} every so many seconds;
+ * they are on JMX in any case.
+ * @author SnowWolf725
+ */
+public class BatchMain {
+
+    private static void usage() {
+        System.err.println("usage: BatchMain [-threads n] [-inflight n] [-delay ms] [-play player] [-slots n] [-maxplay ms] [-done regex] [-resume] [-full] [-watch] [-exact] [-stats s] file|dir...");
+        System.exit(1);
+    }
+
+    public static void main(String[] args) throws Exception {
+        BatchEngine engine = new BatchEngine(Config.getConfig().getBatchThreadCount());
+        engine.setPlayerSlots(Config.getConfig().getPlayerSlots());
+        engine.setPlayerMaxTime(Config.getConfig().getPlayerMaxTime());
+        engine.setPlayerDonePattern(Config.getConfig().getPlayerDonePattern());
+        boolean resume = false;
+        boolean full = false;
+        boolean watch = false;
+        List<File> roots = new ArrayList<File>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("-inflight") && i + 1 < args.length) {
+                engine.setMaxInFlight(Integer.parseInt(args[++i]));
+            } else if (arg.equals("-threads") && i + 1 < args.length) {
+                engine.setThreadCount(Integer.parseInt(args[++i]));
+            } else if (arg.equals("-delay") && i + 1 < args.length) {
+                engine.setDelay(Long.parseLong(args[++i]));
+            } else if (arg.equals("-play") && i + 1 < args.length) {
+                engine.setFetchLyrics(false);
+                engine.setPlayerLocation(args[++i]);
+            } else if (arg.equals("-slots") && i + 1 < args.length) {
+                engine.setPlayerSlots(Integer.parseInt(args[++i]));
+            } else if (arg.equals("-maxplay") && i + 1 < args.length) {
+                engine.setPlayerMaxTime(Long.parseLong(args[++i]));
+            } else if (arg.equals("-done") && i + 1 < args.length) {
+                engine.setPlayerDonePattern(Pattern.compile(args[++i]));
+            } else if (arg.equals("-resume")) {
+                resume = true;
+            } else if (arg.equals("-full")) {
+                full = true;
+            } else if (arg.equals("-watch")) {
+                watch = true;
+            } else if (arg.equals("-exact")) {
+                Config.getConfig().setExactMp3Length(true);
+            } else if (arg.equals("-stats") && i + 1 < args.length) {
+                Metrics.getDefault().startReporting(Long.parseLong(args[++i]) * 1000, System.out);
+            } else if (arg.startsWith("-")) {
+                usage();
+            } else {
+                roots.add(new File(arg));
+            }
+        }
+        if (roots.isEmpty()) {
+            usage();
+        }
+        Metrics.getDefault().register();
+        BatchJournal journal = new BatchJournal(BatchJournal.getDefaultDir());
+        journal.open(resume);
+        engine.setJournal(journal);
+        if (!full) {
+            LibraryIndex index = new LibraryIndex(LibraryIndex.getDefaultFile());
+            index.load();
+            engine.setIndex(index);
+        }
+        for (File root : roots) {
+            engine.add(root);
+        }
+        engine.addBatchListener(new BatchListener() {
+
+            public void itemStarted(BatchEvent e) {
+                System.out.println("[process]" + e.getFile().getPath());
+            }
+
+            public void itemFinished(BatchEvent e) {
+                if (e.getStatus() == BatchEvent.Status.LYRIC_SAVED
+                        || e.getStatus() == BatchEvent.Status.FAILED) {
+                    System.out.println(e + " queued=" + e.getQueueSize());
+                }
+            }
+
+            public void batchIdle(BatchEvent e) {
+            }
+        });
+        long start = System.currentTimeMillis();
+        LibraryWatcher watcher = null;
+        if (watch) {//watched before the first walk so nothing copied meanwhile is missed
+            watcher = new LibraryWatcher(engine, Config.getConfig().getWatchDebounce());
+            for (File root : roots) {
+                if (root.isDirectory()) {
+                    watcher.watch(root);
+                }
+            }
+        }
+        engine.start();
+        engine.awaitIdle();
+        if (watcher != null) {
+            System.out.println("[watch]" + roots);
+            watcher.run();
+        }
+        engine.stop();
+        journal.close();
+        Metrics.getDefault().stopReporting();
+        System.out.println(Metrics.getDefault().getSnapshot());
+        System.out.println("[done]processed=" + engine.getProcessedCount()
+                + " lyrics=" + engine.getLyricCount()
+                + " time=" + (System.currentTimeMillis() - start) / 1000 + "s");
+    }
+}
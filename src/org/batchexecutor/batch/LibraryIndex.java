@@ -0,0 +1,295 @@
+package org.batchexecutor.batch;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.batchexecutor.lyric.LyricFileIndex;
+import org.batchexecutor.playlist.PlayListItem;
+import org.batchexecutor.util.Config;
+
+/**
+ * Persistent index of the library, one entry per song: size, last
+ * modified time, lyric state and a digest of the tags used for the
+ * lookup. Unlike the {@link BatchJournal}, which is cleared when a batch
+ * runs to the end and only carries one that was stopped over to a
+ * restart, the index is kept across runs, so a rescan compares what
+ * the walk already knows (size and time) against it and only queues
+ * songs that are new or have changed. Songs left alone need no tag
+ * read. A song with a lyric is only left alone while its lyric file
+ * is still there, which {@link LyricFileIndex} answers from memory as long
+ * as the directory has not changed. A song looked up without a lyric is
+ * only left alone for {@link Config#getLyricMissTTL()} after the lookup,
+ * the same time the {@link org.batchexecutor.lyric.LyricMissCache} keeps
+ * a miss.
+ * <p>
+ * The whole index is kept in memory and written to
+ * {@link #getDefaultFile()} through a temporary file and a rename.
+ * @author SnowWolf725
+ */
+public class LibraryIndex {
+
+    private static final Logger log = Logger.getLogger(LibraryIndex.class.getName());
+    /** never processed to the end */
+    public static final byte UNKNOWN = 0;
+    /** a lyric file sits next to the song */
+    public static final byte HAS_LYRIC = 1;
+    /** looked up, nothing found */
+    public static final byte NO_LYRIC = 2;
+    private static final int MAGIC = 0x4C494458;//"LIDX"
+    private static final int VERSION = 2;//1 had no time of the lookup
+    private final File file;
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+    private boolean dirty;
+
+    private static class Entry {
+
+        long size;
+        long modified;
+        byte lyric;
+        int digest;
+        long checked;//ms when the lyric state was found out
+    }
+
+    /**
+     * @param file where the index is stored
+     */
+    public LibraryIndex(File file) {
+        this.file = file;
+    }
+
+    public static File getDefaultFile() {
+        return new File(new File(Config.HOME, "batch"), "library.idx");
+    }
+
+    /**
+     * Reads the stored index, a missing or unknown file gives an empty one.
+     * @throws IOException
+     */
+    public synchronized void load() throws IOException {
+        entries.clear();
+        dirty = false;
+        if (!file.exists()) {
+            return;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 65536));
+        try {
+            int version = in.readInt() == MAGIC ? in.readInt() : -1;
+            if (version != 1 && version != VERSION) {
+                log.log(Level.WARNING, "ignoring unknown library index " + file);
+                return;
+            }
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                String path = in.readUTF();
+                Entry e = new Entry();
+                e.size = in.readLong();
+                e.modified = in.readLong();
+                e.lyric = in.readByte();
+                e.digest = in.readInt();
+                if (version > 1) {
+                    e.checked = in.readLong();
+                }
+                entries.put(path, e);
+            }
+        } finally {
+            in.close();
+        }
+        log.log(Level.INFO, "library index loaded with " + entries.size() + " songs");
+    }
+
+    /**
+     * Writes the index if anything changed since it was loaded or saved.
+     * @throws IOException
+     */
+    public synchronized void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        file.getParentFile().mkdirs();
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(temp);
+        try {
+            DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(fos, 65536));
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeInt(entries.size());
+            for (Map.Entry<String, Entry> me : entries.entrySet()) {
+                Entry e = me.getValue();
+                dos.writeUTF(me.getKey());
+                dos.writeLong(e.size);
+                dos.writeLong(e.modified);
+                dos.writeByte(e.lyric);
+                dos.writeInt(e.digest);
+                dos.writeLong(e.checked);
+            }
+            dos.flush();
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+        file.delete();
+        if (!temp.renameTo(file)) {
+            throw new IOException("cannot rename " + temp + " to " + file);
+        }
+        dirty = false;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Whether a song is known with this size and time and was processed
+     * to the end, in which case the batch has nothing to do with it: its
+     * lyric file is still there, or the lookup that found nothing is
+     * younger than the miss TTL.
+     * @param song the song
+     * @param size its size
+     * @param modified its last modified time in ms
+     * @return true to leave it alone
+     */
+    public boolean isUnchanged(Path song, long size, long modified) {
+        byte lyric;
+        synchronized (this) {
+            Entry e = entries.get(key(song.toFile()));
+            if (e == null || e.size != size || e.modified != modified) {
+                return false;
+            }
+            if (e.lyric == NO_LYRIC) {
+                return isRecent(e);
+            }
+            lyric = e.lyric;
+        }
+        return lyric == HAS_LYRIC && LyricFileIndex.getDefault().exists(BatchEngine.getLyricFile(song.toFile()));
+    }
+
+    /**
+     * Same as {@link #isUnchanged(Path, long, long)} for a song not met
+     * during a walk.
+     * @param song the song
+     * @return true to leave it alone
+     */
+    public boolean isUnchanged(File song) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(song.toPath(), BasicFileAttributes.class);
+            return isUnchanged(song.toPath(), attrs.size(), attrs.lastModifiedTime().toMillis());
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * @param song the song
+     * @return its lyric state, {@link #UNKNOWN} if never seen
+     */
+    public synchronized byte getLyricState(File song) {
+        Entry e = entries.get(key(song));
+        return e == null ? UNKNOWN : e.lyric;
+    }
+
+    /**
+     * Whether a song was looked up without finding a lyric less than the
+     * miss TTL ago.
+     * @param song the song
+     * @return true if it is not due for another lookup yet
+     */
+    public synchronized boolean isRecentMiss(File song) {
+        Entry e = entries.get(key(song));
+        return e != null && e.lyric == NO_LYRIC && isRecent(e);
+    }
+
+    private static boolean isRecent(Entry e) {
+        return System.currentTimeMillis() - e.checked < Config.getConfig().getLyricMissTTL();
+    }
+
+    /**
+     * @param song the song
+     * @return the tag digest stored for it, 0 if none
+     */
+    public synchronized int getDigest(File song) {
+        Entry e = entries.get(key(song));
+        return e == null ? 0 : e.digest;
+    }
+
+    /**
+     * Records the current size and time of a song with its state.
+     * @param song the song
+     * @param lyric one of the lyric states
+     * @param digest tag digest, 0 if not read
+     */
+    public void update(File song, byte lyric, int digest) {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(song.toPath(), BasicFileAttributes.class);
+        } catch (IOException ex) {
+            remove(song);
+            return;
+        }
+        Entry e = new Entry();
+        e.size = attrs.size();
+        e.modified = attrs.lastModifiedTime().toMillis();
+        e.lyric = lyric;
+        e.digest = digest;
+        e.checked = System.currentTimeMillis();
+        synchronized (this) {
+            entries.put(key(song), e);
+            dirty = true;
+        }
+    }
+
+    /**
+     * Records the current size and time of a known song and keeps the
+     * rest, including when its lyric state was found out.
+     * @param song the song
+     */
+    public void touch(File song) {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(song.toPath(), BasicFileAttributes.class);
+        } catch (IOException ex) {
+            remove(song);
+            return;
+        }
+        synchronized (this) {
+            Entry e = entries.get(key(song));
+            if (e != null) {
+                e.size = attrs.size();
+                e.modified = attrs.lastModifiedTime().toMillis();
+                dirty = true;
+            }
+        }
+    }
+
+    public synchronized void remove(File song) {
+        if (entries.remove(key(song)) != null) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Digest of the tags a lyric lookup is based on.
+     * @param item the song, its tags are read if they were not yet
+     * @return the digest, never 0
+     */
+    public static int digest(PlayListItem item) {
+        int h = (item.getArtist() + "\u0000" + item.getTitle()).hashCode();
+        return h == 0 ? 1 : h;
+    }
+
+    private static String key(File f) {
+        return f.getAbsolutePath();
+    }
+}
@@ -0,0 +1,196 @@
+package org.batchexecutor.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.batchexecutor.util.FileUtil;
+
+/**
+ * Walks directory trees in parallel on a fork/join pool and streams
+ * the music files it finds (see {@link FileUtil#isMusicFile(String)})
+ * to a {@link Sink} in chunks of bounded size. Every directory is read
+ * through a {@link DirectoryStream} and becomes its own task, so the
+ * memory in use depends on the chunk size and the tree depth, not on
+ * the number of files. Symbolic links to directories are not followed.
+ * @author SnowWolf725
+ */
+public class LibraryScanner {
+
+    private static final Logger log = Logger.getLogger(LibraryScanner.class.getName());
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+
+    /**
+     * Receives the files found by a scan. Called from the pool threads,
+     * it may block to slow the walk down. The list is reused once the
+     * call returns.
+     */
+    public static interface Sink {
+
+        public void accept(List<File> chunk) throws InterruptedException;
+    }
+
+    /**
+     * Lets the caller drop music files using the attributes the walk has
+     * already read, so they cost no extra file system call.
+     */
+    public static interface Filter {
+
+        public boolean accept(Path file, BasicFileAttributes attrs);
+    }
+
+    /**
+     * Called once a whole tree has been walked.
+     */
+    public static interface Callback {
+
+        public void scanned(File root, long found);
+    }
+
+    /**
+     * @param parallelism number of threads walking directories
+     * @param chunkSize max files handed to the sink at once
+     */
+    public LibraryScanner(int parallelism, int chunkSize) {
+        this.pool = new ForkJoinPool(Math.max(1, parallelism));
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    /**
+     * Walks a tree in the background.
+     * @param root directory to walk
+     * @param sink receives the music files
+     * @param callback told when the walk is over, may be null
+     */
+    public void scan(File root, Sink sink, Callback callback) {
+        scan(root, null, sink, callback);
+    }
+
+    /**
+     * Walks a tree in the background.
+     * @param root directory to walk
+     * @param filter drops files before they reach the sink, may be null
+     * @param sink receives the music files
+     * @param callback told when the walk is over, may be null
+     */
+    public void scan(final File root, final Filter filter, final Sink sink, final Callback callback) {
+        pool.execute(new RecursiveAction() {
+
+            private static final long serialVersionUID = 1L;
+
+            protected void compute() {
+                DirectoryTask task = new DirectoryTask(root.toPath(), filter, sink);
+                try {
+                    task.compute();
+                } catch (RuntimeException ex) {
+                    log.log(Level.SEVERE, "scan failed: " + root, ex);
+                } finally {
+                    if (callback != null) {
+                        callback.scanned(root, task.getFound());
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Walks a tree on the calling thread's behalf and waits for it.
+     * @param root directory to walk
+     * @param sink receives the music files
+     * @return number of files found
+     */
+    public long scan(File root, Sink sink) {
+        DirectoryTask task = new DirectoryTask(root.toPath(), null, sink);
+        pool.invoke(task);
+        return task.getFound();
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    private class DirectoryTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+        private final Path dir;
+        private final Filter filter;
+        private final Sink sink;
+        private long found;
+
+        DirectoryTask(Path dir, Filter filter, Sink sink) {
+            this.dir = dir;
+            this.filter = filter;
+            this.sink = sink;
+        }
+
+        long getFound() {
+            return found;
+        }
+
+        protected void compute() {
+            List<DirectoryTask> children = new ArrayList<DirectoryTask>();
+            List<File> chunk = new ArrayList<File>();
+            DirectoryStream<Path> stream = null;
+            try {
+                stream = Files.newDirectoryStream(dir);
+                for (Path p : stream) {
+                    BasicFileAttributes attrs;
+                    try {
+                        attrs = Files.readAttributes(p, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                    } catch (IOException ex) {
+                        log.log(Level.FINE, "cannot stat " + p, ex);
+                        continue;
+                    }
+                    if (attrs.isDirectory()) {
+                        DirectoryTask child = new DirectoryTask(p, filter, sink);
+                        child.fork();
+                        children.add(child);
+                    } else if ((attrs.isRegularFile() || attrs.isSymbolicLink() && Files.isRegularFile(p))
+                            && FileUtil.isMusicFile(p.getFileName().toString())
+                            && (filter == null || filter.accept(p, attrs))) {
+                        chunk.add(p.toFile());
+                        if (chunk.size() >= chunkSize) {
+                            flush(chunk);
+                        }
+                    }
+                }
+                flush(chunk);
+            } catch (IOException ex) {
+                log.log(Level.WARNING, "cannot read " + dir, ex);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } finally {
+                try {
+                    if (stream != null) {
+                        stream.close();
+                    }
+                } catch (IOException ex) {
+                }
+            }
+            for (DirectoryTask child : children) {
+                child.join();
+                found += child.found;
+            }
+        }
+
+        private void flush(List<File> chunk) throws InterruptedException {
+            if (chunk.isEmpty()) {
+                return;
+            }
+            found += chunk.size();
+            sink.accept(chunk);
+            chunk.clear();
+        }
+    }
+}
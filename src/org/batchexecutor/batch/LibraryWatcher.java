@@ -0,0 +1,208 @@
+package org.batchexecutor.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.batchexecutor.util.FileUtil;
+
+/**
+ * Watches library roots and everything below them, and feeds the songs
+ * created or modified there into a {@link BatchEngine} as they settle.
+ * A song is only queued once no event has been seen for it during the
+ * debounce time, so a file being copied is handed over once, after the
+ * copy. New directories are watched as soon as they appear and walked
+ * through the engine, which picks up what was copied into them before
+ * the watch was in place. When the watch service loses events the root
+ * is simply walked again; with a {@link LibraryIndex} in the engine that
+ * only queues what changed.
+ * @author SnowWolf725
+ */
+public class LibraryWatcher implements Runnable {
+
+    private static final Logger log = Logger.getLogger(LibraryWatcher.class.getName());
+    private final BatchEngine engine;
+    private final long debounce;
+    private final WatchService service;
+    private final Map<WatchKey, Path> keys = new HashMap<WatchKey, Path>();
+    private final Map<WatchKey, Path> roots = new HashMap<WatchKey, Path>();
+    private final Map<Path, Long> settling = new LinkedHashMap<Path, Long>();//song -> time of its last event
+    private Thread thread;
+
+    /**
+     * @param engine engine the songs are fed into
+     * @param debounce ms a song must stay quiet before it is queued
+     * @throws IOException if the file system cannot be watched
+     */
+    public LibraryWatcher(BatchEngine engine, long debounce) throws IOException {
+        this.engine = engine;
+        this.debounce = Math.max(0, debounce);
+        this.service = FileSystems.getDefault().newWatchService();
+    }
+
+    /**
+     * Watches a root and all the directories below it.
+     * @param root the directory
+     * @throws IOException
+     */
+    public void watch(File root) throws IOException {
+        register(root.toPath(), root.toPath());
+    }
+
+    /**
+     * Starts delivering songs on a daemon thread.
+     */
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        thread = new Thread(this, "library-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops watching, songs still settling are dropped.
+     */
+    public synchronized void close() {
+        try {
+            service.close();
+        } catch (IOException ex) {
+            log.log(Level.WARNING, "cannot close the watch service", ex);
+        }
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    public void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = settling.isEmpty() ? service.take() : service.poll(nextDue(), TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    handle(key);
+                }
+                flush();
+            }
+        } catch (InterruptedException ex) {
+            //closed
+        } catch (ClosedWatchServiceException ex) {
+            //closed
+        }
+    }
+
+    private void handle(WatchKey key) {
+        Path dir;
+        Path root;
+        synchronized (keys) {
+            dir = keys.get(key);
+            root = roots.get(key);
+        }
+        if (dir == null) {
+            key.cancel();
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                log.log(Level.WARNING, "watch events lost, walking " + root + " again");
+                rescan(root.toFile());
+                continue;
+            }
+            Path p = dir.resolve((Path) event.context());
+            if (Files.isDirectory(p, LinkOption.NOFOLLOW_LINKS)) {
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                    try {
+                        register(p, root);
+                    } catch (IOException ex) {
+                        log.log(Level.WARNING, "cannot watch " + p, ex);
+                    }
+                    rescan(p.toFile());
+                }
+            } else if (FileUtil.isMusicFile(p.getFileName().toString())) {
+                settling.remove(p);
+                settling.put(p, Long.valueOf(now));
+            }
+        }
+        if (!key.reset()) {
+            synchronized (keys) {
+                keys.remove(key);
+                roots.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Queues the songs that have been quiet for the debounce time.
+     */
+    private void flush() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<Path, Long>> it = settling.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Path, Long> e = it.next();
+            if (now - e.getValue().longValue() < debounce) {
+                break;//kept in the order of their last event
+            }
+            it.remove();
+            File f = e.getKey().toFile();
+            if (f.isFile()) {
+                BatchJournal journal = engine.getJournal();
+                if (journal != null) {
+                    journal.pending(f);//a modified song is due again
+                }
+                engine.add(f);
+            }
+        }
+    }
+
+    /**
+     * @return ms until the oldest settling song is due
+     */
+    private long nextDue() {
+        long oldest = settling.values().iterator().next().longValue();
+        return Math.max(1, oldest + debounce - System.currentTimeMillis());
+    }
+
+    private void rescan(File dir) {
+        engine.add(dir);
+    }
+
+    private void register(Path start, final Path root) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                WatchKey key = dir.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY);
+                synchronized (keys) {
+                    keys.put(key, dir);
+                    roots.put(key, root);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            public FileVisitResult visitFileFailed(Path file, IOException ex) {
+                log.log(Level.FINE, "cannot watch " + file, ex);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
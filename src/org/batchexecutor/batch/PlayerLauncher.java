@@ -0,0 +1,220 @@
+package org.batchexecutor.batch;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Runs the external player on songs, up to a fixed number of instances
+ * at once. An instance is over when the player exits, when a line of
+ * its output matches the completion pattern, or when it has run for the
+ * wall time cap, whichever comes first; in the last two cases it is
+ * destroyed. A slot is freed as soon as its instance is over, so the
+ * throughput follows the real playing time instead of a fixed guess.
+ * @author SnowWolf725
+ */
+public class PlayerLauncher {
+
+    private static final Logger log = Logger.getLogger(PlayerLauncher.class.getName());
+    private final String player;
+    private final Semaphore slots;
+    private final long maxTime;
+    private final ScheduledExecutorService watchdog;
+    private final Set<Process> running = Collections.newSetFromMap(new ConcurrentHashMap<Process, Boolean>());
+    private volatile Pattern completion;
+    private volatile boolean shutdown;
+
+    /**
+     * How an instance ended.
+     */
+    public static enum Outcome {
+
+        /** the player exited by itself */
+        EXITED,
+        /** the output said the song was done */
+        COMPLETED,
+        /** destroyed after the wall time cap */
+        TIMED_OUT
+    }
+
+    /**
+     * @param player path of the player executable
+     * @param slots number of instances allowed at once
+     * @param maxTime ms an instance may run before it is destroyed
+     */
+    public PlayerLauncher(String player, int slots, long maxTime) {
+        this.player = player;
+        this.slots = new Semaphore(Math.max(1, slots), true);
+        this.maxTime = Math.max(1, maxTime);
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(new DaemonFactory("player-watchdog"));
+    }
+
+    public String getPlayer() {
+        return player;
+    }
+
+    /**
+     * @param completion output line telling that the song is done, null
+     * to rely on the exit status and the wall time cap only
+     */
+    public void setCompletionPattern(Pattern completion) {
+        this.completion = completion;
+    }
+
+    /**
+     * Plays a song, waiting for a free slot first.
+     * @param song the song
+     * @return how the instance ended
+     * @throws IOException if the player cannot be started, or the
+     * launcher was shut down
+     * @throws InterruptedException
+     */
+    public Outcome play(File song) throws IOException, InterruptedException {
+        slots.acquire();
+        try {
+            if (shutdown) {
+                throw new IOException("player launcher is shut down");
+            }
+            return run(song);
+        } finally {
+            slots.release();
+        }
+    }
+
+    /**
+     * Destroys every running instance, no new one is started after.
+     */
+    public void shutdown() {
+        shutdown = true;
+        watchdog.shutdownNow();
+        for (Process p : running) {
+            p.destroy();
+        }
+    }
+
+    private Outcome run(File song) throws IOException, InterruptedException {
+        ProcessBuilder pb = new ProcessBuilder(player, song.getPath());
+        pb.redirectErrorStream(true);
+        final Process p = pb.start();
+        running.add(p);
+        if (shutdown) {//shut down while starting, the loop there may have missed it
+            kill(p);
+            throw new IOException("player launcher is shut down");
+        }
+        final boolean[] state = new boolean[2];//0: timed out, 1: completed
+        ScheduledFuture<?> timer;
+        try {
+            timer = watchdog.schedule(new Runnable() {
+
+                public void run() {
+                    synchronized (state) {
+                        state[0] = true;
+                    }
+                    p.destroy();
+                }
+            }, maxTime, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ex) {//shut down meanwhile
+            kill(p);
+            throw new IOException("player launcher is shut down", ex);
+        }
+        Thread drain = new DaemonFactory("player-output").newThread(new Runnable() {
+
+            public void run() {
+                if (drain(p.getInputStream())) {
+                    synchronized (state) {
+                        state[1] = true;
+                    }
+                    p.destroy();
+                }
+            }
+        });
+        drain.start();
+        try {
+            p.getOutputStream().close();//the player reads nothing from us
+        } catch (IOException ex) {
+            //it may have exited already
+        }
+        try {
+            int exit = p.waitFor();
+            log.log(Level.FINE, song + ": player exited with " + exit);
+        } catch (InterruptedException ex) {
+            p.destroy();
+            throw ex;
+        } finally {
+            timer.cancel(false);
+            running.remove(p);
+        }
+        synchronized (state) {
+            if (state[1]) {
+                return Outcome.COMPLETED;
+            } else if (state[0]) {
+                return Outcome.TIMED_OUT;
+            }
+        }
+        return Outcome.EXITED;
+    }
+
+    private void kill(Process p) {
+        p.destroy();
+        running.remove(p);
+        try {
+            p.getOutputStream().close();
+        } catch (IOException ex) {
+        }
+    }
+
+    /**
+     * Reads the player output so it never blocks on a full pipe.
+     * @return true if a line matched the completion pattern
+     */
+    private boolean drain(InputStream in) {
+        BufferedReader br = new BufferedReader(new InputStreamReader(in));
+        try {
+            String line;
+            while ((line = br.readLine()) != null) {
+                Pattern p = completion;
+                if (p != null && p.matcher(line).find()) {
+                    return true;
+                }
+            }
+        } catch (IOException ex) {
+            //the process is gone
+        } finally {
+            try {
+                br.close();
+            } catch (IOException ex) {
+            }
+        }
+        return false;
+    }
+
+    private static class DaemonFactory implements ThreadFactory {
+
+        private final String name;
+
+        DaemonFactory(String name) {
+            this.name = name;
+        }
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
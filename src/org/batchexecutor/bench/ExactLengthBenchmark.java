@@ -0,0 +1,141 @@
+package org.batchexecutor.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.logging.Level;
+
+import org.batchexecutor.audiotag.audio.mp3.MP3AudioHeader;
+import org.batchexecutor.audiotag.audio.mp3.MPEGFrameHeader;
+
+/**
+ * Measures how long counting every frame with
+ * {@link MP3AudioHeader#scanFrames(File)} takes compared to the estimate
+ * from the first frame, and checks the count.
+ * <pre>
+ * ExactLengthBenchmark [-files n] [-minutes n] [-rounds n] [-library n]
+ * </pre>
+ * <code>-files</code> variable bit rate MPEG-1 layer III files of about
+ * <code>-minutes</code> each are written to a scratch directory that is
+ * deleted afterwards, with no Xing frame and a random bitrate for every
+ * frame, so the estimate from the first frame is far out. Each file is read
+ * <code>-rounds</code> times with and without the scan, then the time the
+ * scan would add to a library of <code>-library</code> such files is
+ * worked out. The frames of files over two megabytes are walked in
+ * parallel. Exits with 1 when a count is not the number of frames written.
+ * @author SnowWolf725
+ */
+public class ExactLengthBenchmark {
+
+    private static void usage() {
+        System.err.println("usage: ExactLengthBenchmark [-files n] [-minutes n] [-rounds n] [-library n]");
+        System.exit(2);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int files = 20;
+        double minutes = 4;
+        int rounds = 5;
+        int library = 200000;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (i + 1 >= args.length) {
+                usage();
+            } else if (arg.equals("-files")) {
+                files = Integer.parseInt(args[++i]);
+            } else if (arg.equals("-minutes")) {
+                minutes = Double.parseDouble(args[++i]);
+            } else if (arg.equals("-rounds")) {
+                rounds = Integer.parseInt(args[++i]);
+            } else if (arg.equals("-library")) {
+                library = Integer.parseInt(args[++i]);
+            } else {
+                usage();
+            }
+        }
+        MP3AudioHeader.logger.setLevel(Level.SEVERE);
+        File scratch = File.createTempFile("exact-length", "");
+        scratch.delete();
+        scratch.mkdirs();
+        try {
+            Random random = new Random(725);
+            File[] list = new File[files];
+            long[] written = new long[files];
+            long bytes = 0;
+            for (int i = 0; i < files; i++) {
+                list[i] = new File(scratch, i + ".mp3");
+                written[i] = write(list[i], minutes, random);
+                bytes += list[i].length();
+            }
+            int wrong = 0;
+            double estimateError = 0;
+            long estimate = 0;
+            long exact = 0;
+            for (int round = 0; round < rounds; round++) {
+                for (int i = 0; i < files; i++) {
+                    long start = System.nanoTime();
+                    MP3AudioHeader header = new MP3AudioHeader(list[i]);
+                    estimate += System.nanoTime() - start;
+                    long estimated = header.getNumberOfFrames();
+                    start = System.nanoTime();
+                    header = new MP3AudioHeader(list[i]);
+                    header.scanFrames(list[i]);
+                    exact += System.nanoTime() - start;
+                    if (round == 0) {
+                        estimateError += Math.abs(estimated - written[i]) / (double) written[i];
+                        if (header.getNumberOfFrames() != written[i] && ++wrong <= 10) {
+                            System.out.println("[exact]wrong count " + list[i] + " written=" + written[i]
+                                    + " counted=" + header.getNumberOfFrames());
+                        }
+                    }
+                }
+            }
+            int reads = files * rounds;
+            double exactPerFile = exact / 1e6 / reads;
+            System.out.println(String.format("[exact]files=%d size=%.1fMB wrong=%d estimate off by %.1f%% on average",
+                    files, bytes / (double) files / (1 << 20), wrong, estimateError * 100 / files));
+            System.out.println(String.format("[exact]estimate=%.2fms/file scan=%.2fms/file %.0fMB/s",
+                    estimate / 1e6 / reads, exactPerFile, (double) bytes * rounds / (exact / 1e9) / (1 << 20)));
+            System.out.println(String.format("[exact]library of %d files: %.1f minutes of scanning",
+                    library, exactPerFile * library / 60000));
+            if (wrong > 0) {
+                System.exit(1);
+            }
+        } finally {
+            for (File f : scratch.listFiles()) {
+                f.delete();
+            }
+            scratch.delete();
+        }
+    }
+
+    /**
+     * Writes a made up variable bit rate file with no Xing frame
+     * @return number of frames written
+     */
+    private static long write(File f, double minutes, Random random) throws Exception {
+        int sampleRate = random.nextInt(3);
+        //1152 samples a frame at 44.1, 48 or 32kHz
+        long frames = (long) (minutes * 60 * new int[]{44100, 48000, 32000}[sampleRate] / 1152);
+        byte[] header = new byte[4];
+        byte[] frame = new byte[2000];
+        OutputStream out = new FileOutputStream(f);
+        try {
+            for (long i = 0; i < frames; i++) {
+                header[0] = (byte) 0xFF;
+                header[1] = (byte) (0xE0 | MPEGFrameHeader.VERSION_1 << 3 | MPEGFrameHeader.LAYER_III << 1 | 1);
+                header[2] = (byte) ((1 + random.nextInt(14)) << 4 | sampleRate << 2);
+                header[3] = (byte) (random.nextInt(4) << 6);
+                int length = MPEGFrameHeader.parseMPEGHeader(ByteBuffer.wrap(header)).getFrameLength();
+                random.nextBytes(frame);
+                System.arraycopy(header, 0, frame, 0, 4);
+                out.write(frame, 0, length);
+            }
+        } finally {
+            out.close();
+        }
+        return frames;
+    }
+}
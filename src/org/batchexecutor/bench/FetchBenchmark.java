@@ -0,0 +1,198 @@
+package org.batchexecutor.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.batchexecutor.batch.BatchEngine;
+import org.batchexecutor.batch.BatchEvent;
+import org.batchexecutor.batch.BatchListener;
+import org.batchexecutor.util.Config;
+import org.batchexecutor.util.GAEUtil;
+import org.batchexecutor.util.Metrics;
+import org.batchexecutor.util.Util;
+
+/**
+ * Drives the {@link BatchEngine} in lyric mode against a {@link LyricStandIn}
+ * and reports throughput and per-song latency percentiles. The latency of a
+ * song runs from a worker taking it off the queue to its lyric being on
+ * disk, so it includes the wait for the lyric executor; <code>-inflight</code>
+ * bounds that wait the same way it does in {@link org.batchexecutor.batch.BatchMain}.
+ * <pre>
+ * FetchBenchmark [-songs n] [-threads n] [-inflight n] [-latency ms] [-jitter ms] [-errors rate] [-miss rate] [-size chars] [-rate req/s] [-hosts n] [-batch n]
+ * </pre>
+ * Everything runs in a scratch directory that is used as the home
+ * directory and deleted afterwards, so the real lyric store, miss cache
+ * and settings are not touched. The rate limits of the lyric sources are
+ * raised to <code>-rate</code>, otherwise the default of 2 requests a
+ * second per source is all that gets measured. <code>-batch</code> turns on
+ * the batched GAE search with that many songs per request; the stand-in
+ * understands it even though the real service may not.
+ * @author SnowWolf725
+ */
+public class FetchBenchmark {
+
+    private static void usage() {
+        System.err.println("usage: FetchBenchmark [-songs n] [-threads n] [-inflight n] [-latency ms] [-jitter ms] [-errors rate] [-miss rate] [-size chars] [-rate req/s] [-hosts n] [-batch n]");
+        System.exit(1);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int songs = 1000;
+        int threads = 8;
+        int inFlight = 0;
+        long latency = 50;
+        long jitter = 20;
+        double errors = 0;
+        double miss = 0.1;
+        int size = 2048;
+        double rate = 1000;
+        int hosts = 16;
+        int batch = 0;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (i + 1 >= args.length) {
+                usage();
+            } else if (arg.equals("-songs")) {
+                songs = Integer.parseInt(args[++i]);
+            } else if (arg.equals("-threads")) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (arg.equals("-inflight")) {
+                inFlight = Integer.parseInt(args[++i]);
+            } else if (arg.equals("-latency")) {
+                latency = Long.parseLong(args[++i]);
+            } else if (arg.equals("-jitter")) {
+                jitter = Long.parseLong(args[++i]);
+            } else if (arg.equals("-errors")) {
+                errors = Double.parseDouble(args[++i]);
+            } else if (arg.equals("-miss")) {
+                miss = Double.parseDouble(args[++i]);
+            } else if (arg.equals("-size")) {
+                size = Integer.parseInt(args[++i]);
+            } else if (arg.equals("-rate")) {
+                rate = Double.parseDouble(args[++i]);
+            } else if (arg.equals("-hosts")) {
+                hosts = Integer.parseInt(args[++i]);
+            } else if (arg.equals("-batch")) {
+                batch = Integer.parseInt(args[++i]);
+            } else {
+                usage();
+            }
+        }
+        //has to happen before Config, GAEUtil and Util are loaded
+        File scratch = Files.createTempDirectory("lyric-bench").toFile();
+        System.setProperty("user.home", new File(scratch, "home").getPath());
+        LyricStandIn standIn = new LyricStandIn(0);
+        standIn.setLatency(latency, jitter);
+        standIn.setErrorRate(errors);
+        standIn.setMissRate(miss);
+        standIn.setPayloadSize(size);
+        standIn.start();
+        System.setProperty("batchexecutor.gae.url", standIn.getURL());
+        System.setProperty("batchexecutor.baidu.url", standIn.getURL());
+        try {
+            Config config = Config.getConfig();
+            config.setLyricSourceRate(GAEUtil.SOURCE, rate);
+            config.setLyricSourceRate(Util.BAIDU, rate);
+            config.setMaxRequestsPerHost(hosts);
+            config.setGaeBatchSize(batch);
+            File library = new File(scratch, "library");
+            for (int i = 0; i < songs; i++) {
+                File dir = new File(library, "artist" + (i % 50));
+                dir.mkdirs();
+                new File(dir, "artist" + (i % 50) + " - song" + i + ".mp3").createNewFile();
+            }
+            run(library, songs, threads, inFlight, standIn);
+        } finally {
+            standIn.stop();
+            delete(scratch);
+        }
+        System.exit(0);//the lyric writer would otherwise linger until idle
+    }
+
+    private static void run(File library, int songs, int threads, int inFlight, LyricStandIn standIn) throws InterruptedException {
+        final Map<File, Long> started = new ConcurrentHashMap<File, Long>();
+        final long[] latencies = new long[songs];
+        final AtomicInteger finished = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        BatchEngine engine = new BatchEngine(threads);
+        if (inFlight > 0) {
+            engine.setMaxInFlight(inFlight);
+        }
+        engine.addBatchListener(new BatchListener() {
+
+            public void itemStarted(BatchEvent e) {
+                if (e.getFile().isFile()) {
+                    started.put(e.getFile(), System.nanoTime());
+                }
+            }
+
+            public void itemFinished(BatchEvent e) {
+                Long start = e.getFile() == null ? null : started.remove(e.getFile());
+                if (start == null) {
+                    return;//a directory
+                }
+                int i = finished.getAndIncrement();
+                if (i < latencies.length) {
+                    latencies[i] = System.nanoTime() - start;
+                }
+                if (e.getStatus() == BatchEvent.Status.FAILED) {
+                    failed.incrementAndGet();
+                }
+            }
+
+            public void batchIdle(BatchEvent e) {
+            }
+        });
+        engine.add(library);
+        long start = System.nanoTime();
+        engine.start();
+        engine.awaitIdle();
+        long elapsed = System.nanoTime() - start;
+        engine.stop();
+        int n = Math.min(finished.get(), latencies.length);
+        long[] sorted = Arrays.copyOf(latencies, n);
+        Arrays.sort(sorted);
+        System.out.println(Metrics.getDefault().getSnapshot());
+        System.out.println(String.format("[bench]songs=%d lyrics=%d failed=%d requests=%d errors=%d",
+                n, engine.getLyricCount(), failed.get(), standIn.getRequestCount(), standIn.getErrorCount()));
+        System.out.println(String.format("[bench]time=%.2fs throughput=%.1f songs/s",
+                elapsed / 1e9, n / (elapsed / 1e9)));
+        System.out.println(String.format("[bench]latency p50=%dms p90=%dms p99=%dms p99.9=%dms max=%dms",
+                percentile(sorted, 0.5), percentile(sorted, 0.9), percentile(sorted, 0.99),
+                percentile(sorted, 0.999), percentile(sorted, 1)));
+    }
+
+    private static long percentile(long[] sorted, double q) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int i = (int) Math.ceil(sorted.length * q) - 1;
+        return sorted[Math.max(0, Math.min(i, sorted.length - 1))] / 1000000;
+    }
+
+    private static void delete(File dir) throws IOException {
+        Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,319 @@
+package org.batchexecutor.bench;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.batchexecutor.lyric.LrcParser;
+import org.batchexecutor.lyric.Sentence;
+
+/**
+ * Compares the line by line parse of LRC content that {@link org.batchexecutor.lyric.Lyric}
+ * used to do, with a regex for the tags and split for the times, with the
+ * single pass {@link LrcParser}.
+ * <pre>
+ * LrcParseBenchmark [-lyrics n] [-lines n] [-seconds n]
+ * </pre>
+ * <code>-lyrics</code> made up lyrics of <code>-lines</code> lines each are
+ * parsed in turn: Chinese text, header tags, an offset tag, lines with
+ * several time tags, lines split into segments by tags in the middle,
+ * tags without hundredths, invalid times and blank lines. Both parsers
+ * must find the same times, contents and offset for every lyric before
+ * anything is timed. {@link LrcParser} is timed from a String, as for
+ * downloaded lyrics, and from a char buffer, as for lyric files. Each
+ * parse also fetches every time and content, since the old parse built
+ * them all. Each case is warmed up for the same time it is measured.
+ * @author SnowWolf725
+ */
+public class LrcParseBenchmark {
+
+    private static void usage() {
+        System.err.println("usage: LrcParseBenchmark [-lyrics n] [-lines n] [-seconds n]");
+        System.exit(1);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int lyrics = 100;
+        int lines = 60;
+        double seconds = 2;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (i + 1 >= args.length) {
+                usage();
+            } else if (arg.equals("-lyrics")) {
+                lyrics = Integer.parseInt(args[++i]);
+            } else if (arg.equals("-lines")) {
+                lines = Integer.parseInt(args[++i]);
+            } else if (arg.equals("-seconds")) {
+                seconds = Double.parseDouble(args[++i]);
+            } else {
+                usage();
+            }
+        }
+        Random random = new Random(lines);
+        final String[] contents = new String[lyrics];
+        final char[][] buffers = new char[lyrics][];
+        long chars = 0;
+        for (int i = 0; i < lyrics; i++) {
+            contents[i] = lyric(lines, random);
+            buffers[i] = contents[i].toCharArray();
+            chars += buffers[i].length;
+        }
+        final LrcParser parser = new LrcParser();
+        for (int i = 0; i < lyrics; i++) {
+            OldParser old = new OldParser();
+            old.parse(contents[i]);
+            parser.parse(contents[i], 0, true);
+            check(i, old, parser);
+        }
+        System.out.println(String.format("[bench]lyrics=%d lines=%d %.0f chars/lyric",
+                lyrics, lines, (double) chars / lyrics));
+
+        report("parseLine/parseTime", lyrics, seconds, new Parse() {
+
+            public long run(int i) throws IOException {
+                OldParser old = new OldParser();
+                old.parse(contents[i]);
+                long sum = old.offset;
+                for (Sentence s : old.list) {
+                    sum += s.getFromTime() + s.getContent().length();
+                }
+                return sum;
+            }
+        });
+        report("LrcParser String", lyrics, seconds, new Parse() {
+
+            public long run(int i) {
+                parser.parse(contents[i], 0, true);
+                return sum(parser);
+            }
+        });
+        report("LrcParser char[]", lyrics, seconds, new Parse() {
+
+            public long run(int i) {
+                parser.parse(buffers[i], buffers[i].length, 0, true);
+                return sum(parser);
+            }
+        });
+    }
+
+    private static interface Parse {
+
+        public long run(int i) throws Exception;
+    }
+
+    private static long sum(LrcParser parser) {
+        long sum = parser.getOffset();
+        for (int j = 0; j < parser.getCount(); j++) {
+            sum += parser.getTime(j) + parser.getContent(j).length();
+        }
+        return sum;
+    }
+
+    private static void report(String name, int lyrics, double seconds, Parse parse) throws Exception {
+        long limit = (long) (seconds * 1e9);
+        long sink = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            long start = System.nanoTime();
+            long elapsed;
+            int n = 0;
+            do {
+                sink += parse.run(n % lyrics);
+                n++;
+                elapsed = System.nanoTime() - start;
+            } while (elapsed < limit);
+            if (pass == 1) {
+                System.out.println(String.format("[bench]%-28s %10.2f us/parse", name, elapsed / 1e3 / n));
+            }
+        }
+        if (sink == 42) {
+            System.out.println();//keeps the results alive
+        }
+    }
+
+    private static void check(int i, OldParser old, LrcParser parser) {
+        boolean same = old.offset == parser.getOffset() && old.list.size() == parser.getCount();
+        for (int j = 0; same && j < parser.getCount(); j++) {
+            Sentence s = old.list.get(j);
+            same = s.getFromTime() == parser.getTime(j) && s.getContent().equals(parser.getContent(j));
+        }
+        if (!same) {
+            throw new IllegalStateException("parsers disagree on lyric " + i);
+        }
+    }
+
+    /**
+     * A made up lyric. The tags on one line are all different, the old
+     * parse found a repeated tag at its first place on the line.
+     */
+    private static String lyric(int lines, Random random) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("[ti:月亮代表我的心]\n[ar:邓丽君]\n[al:歌曲精选]\n[by:SnowWolf725]\n");
+        if (random.nextBoolean()) {
+            sb.append("[offset:").append(random.nextInt(1000) - 500).append("]\n");
+        }
+        int time = 10000;
+        for (int i = 0; i < lines; i++) {
+            int kind = random.nextInt(10);
+            if (kind == 0) {
+                sb.append('\n');
+                continue;
+            }
+            time += 1000 + random.nextInt(5000);
+            tag(sb, time, random.nextInt(8) > 0);
+            if (kind == 1) {//the chorus comes back
+                tag(sb, time + 60000 + random.nextInt(60000), true);
+            } else if (kind == 2) {//a second segment on the same line
+                sb.append("你问我爱你有多深 ");
+                time += 1000 + random.nextInt(3000);
+                tag(sb, time, true);
+            } else if (kind == 3) {
+                sb.append("[").append(random.nextInt(100)).append(":7").append(random.nextInt(10)).append("]");
+            }
+            sb.append(random.nextBoolean() ? "我爱你有几分 " : " 我的情也真 我的爱也真 ");
+            sb.append("月亮代表我的心").append(i).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static void tag(StringBuilder sb, int time, boolean hundredths) {
+        sb.append('[').append(two(time / 60000)).append(':').append(two(time / 1000 % 60));
+        if (hundredths) {
+            sb.append('.').append(two(time / 10 % 100));
+        }
+        sb.append(']');
+    }
+
+    private static String two(int n) {
+        return n < 10 ? "0" + n : String.valueOf(n);
+    }
+
+    /**
+     * The parse as it used to be in {@link org.batchexecutor.lyric.Lyric},
+     * without its prints and with blank characters always cut.
+     */
+    private static class OldParser {
+
+        private static final Pattern pattern = Pattern.compile("(?<=\\[).*?(?=\\])");
+        private final List<Sentence> list = new ArrayList<Sentence>();
+        private int offset;
+
+        void parse(String content) throws IOException {
+            if (content == null || content.trim().equals("")) {
+                return;
+            }
+            BufferedReader br = new BufferedReader(new StringReader(content));
+            String temp = null;
+            while ((temp = br.readLine()) != null) {
+                parseLine(temp.trim());
+            }
+            br.close();
+        }
+
+        private int parseOffset(String str) {
+            String[] ss = str.split("\\:");
+            if (ss.length == 2) {
+                if (ss[0].equalsIgnoreCase("offset")) {
+                    return Integer.parseInt(ss[1]);
+                } else {
+                    return Integer.MAX_VALUE;
+                }
+            } else {
+                return Integer.MAX_VALUE;
+            }
+        }
+
+        private void parseLine(String line) {
+            if (line.equals("")) {
+                return;
+            }
+            Matcher matcher = pattern.matcher(line);
+            List<String> temp = new ArrayList<String>();
+            int lastIndex = -1;
+            int lastLength = -1;
+            while (matcher.find()) {
+                String s = matcher.group();
+                int index = line.indexOf("[" + s + "]");
+                if (lastIndex != -1 && index - lastIndex > lastLength + 2) {
+                    String content = line.substring(lastIndex + lastLength + 2, index);
+                    for (String str : temp) {
+                        long t = parseTime(str);
+                        if (t != -1) {
+                            list.add(new Sentence(content, t));
+                        }
+                    }
+                    temp.clear();
+                }
+                temp.add(s);
+                lastIndex = index;
+                lastLength = s.length();
+            }
+            if (temp.isEmpty()) {
+                return;
+            }
+            try {
+                int length = lastLength + 2 + lastIndex;
+                String content = line.substring(length > line.length() ? line.length() : length);
+                content = content.trim();
+                if (content.equals("") && offset == 0) {
+                    for (String s : temp) {
+                        int of = parseOffset(s);
+                        if (of != Integer.MAX_VALUE) {
+                            offset = of;
+                            break;
+                        }
+                    }
+                    return;
+                }
+                for (String s : temp) {
+                    long t = parseTime(s);
+                    if (t != -1) {
+                        list.add(new Sentence(content, t));
+                    }
+                }
+            } catch (Exception exe) {
+            }
+        }
+
+        private long parseTime(String time) {
+            String[] ss = time.split("\\:|\\.");
+            if (ss.length < 2) {
+                return -1;
+            } else if (ss.length == 2) {
+                try {
+                    if (offset == 0 && ss[0].equalsIgnoreCase("offset")) {
+                        offset = Integer.parseInt(ss[1]);
+                        return -1;
+                    }
+                    int min = Integer.parseInt(ss[0]);
+                    int sec = Integer.parseInt(ss[1]);
+                    if (min < 0 || sec < 0 || sec >= 60) {
+                        throw new RuntimeException("数字不合法!");
+                    }
+                    return (min * 60 + sec) * 1000L;
+                } catch (Exception exe) {
+                    return -1;
+                }
+            } else if (ss.length == 3) {
+                try {
+                    int min = Integer.parseInt(ss[0]);
+                    int sec = Integer.parseInt(ss[1]);
+                    int mm = Integer.parseInt(ss[2]);
+                    if (min < 0 || sec < 0 || sec >= 60 || mm < 0 || mm > 99) {
+                        throw new RuntimeException("数字不合法!");
+                    }
+                    return (min * 60 + sec) * 1000L + mm * 10;
+                } catch (Exception exe) {
+                    return -1;
+                }
+            } else {
+                return -1;
+            }
+        }
+    }
+}
@@ -0,0 +1,383 @@
+package org.batchexecutor.bench;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A local stand-in for the lyric services, speaking the same protocols as
+ * the real ones so the fetch pipeline can be load tested offline:
+ * <ul>
+ * <li><code>/YOYO</code> answers the yoyolrc commands with the
+ * <code>ObjectOutputStream</code> replies {@link org.batchexecutor.util.GAEUtil} reads,
+ * including the batched <code>getResultLists</code> search, whose reply is
+ * streamed one song at a time,</li>
+ * <li><code>/version.txt</code> is the update check,</li>
+ * <li><code>/s</code> is a Baidu result page linking the HTML version of
+ * the lyric, served under <code>/lrc/</code>.</li>
+ * </ul>
+ * Latency, error rate, miss rate and payload size can be changed while it
+ * runs. Whether a song is missing is decided by its name, so every request
+ * about the same song agrees. The clients are pointed at it with the system
+ * properties <code>batchexecutor.gae.url</code> and
+ * <code>batchexecutor.baidu.url</code>, which have to be set to
+ * {@link #getURL()} before the lyric classes are loaded.
+ * @author SnowWolf725
+ */
+public class LyricStandIn {
+
+    private static final int MAX_PAYLOAD = 60000;
+    private static final int MAX_UTF_BYTES = 65535;//writeUTF cannot go past 64k of modified UTF-8
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private volatile long latency;
+    private volatile long jitter;
+    private volatile double errorRate;
+    private volatile double missRate;
+    private volatile int payloadSize = 2048;
+
+    /**
+     * @param port port to listen on, 0 for any free one
+     * @throws IOException
+     */
+    public LyricStandIn(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port), 256);
+        server.createContext("/YOYO", new Handler() {
+
+            void handle(HttpExchange ex, Map<String, String> query) throws IOException {
+                yoyo(ex, query);
+            }
+        });
+        server.createContext("/version.txt", new Handler() {
+
+            void handle(HttpExchange ex, Map<String, String> query) throws IOException {
+                reply(ex, "text/plain", "Version=1.2\nURL=\nDescription=stand-in\n".getBytes("ISO-8859-1"));
+            }
+        });
+        server.createContext("/s", new Handler() {
+
+            void handle(HttpExchange ex, Map<String, String> query) throws IOException {
+                baiduSearch(ex, query);
+            }
+        });
+        server.createContext("/lrc/", new Handler() {
+
+            void handle(HttpExchange ex, Map<String, String> query) throws IOException {
+                baiduLyric(ex);
+            }
+        });
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+
+            private int count;
+
+            public synchronized Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "stand-in-" + (++count));
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        server.setExecutor(executor);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return base URL of the stand-in, without a trailing slash
+     */
+    public String getURL() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * @param latency mean time a reply is held back, in ms
+     * @param jitter the delay varies by up to this much either way, in ms
+     */
+    public void setLatency(long latency, long jitter) {
+        this.latency = latency;
+        this.jitter = jitter;
+    }
+
+    /**
+     * @param errorRate share of requests answered with a 500, 0 to 1
+     */
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    /**
+     * @param missRate share of songs that have no lyric, 0 to 1
+     */
+    public void setMissRate(double missRate) {
+        this.missRate = missRate;
+    }
+
+    /**
+     * @param payloadSize characters of lyric text per song, fewer when
+     * the title has so many characters outside ASCII that the lyric would
+     * not fit in one <code>writeUTF</code>
+     */
+    public void setPayloadSize(int payloadSize) {
+        this.payloadSize = Math.max(1, Math.min(payloadSize, MAX_PAYLOAD));
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    public long getErrorCount() {
+        return errors.get();
+    }
+
+    private void yoyo(HttpExchange ex, Map<String, String> query) throws IOException {
+        String cmd = query.get("cmd");
+        if ("getResultLists".equals(cmd)) {
+            searchBatch(ex);
+            return;
+        }
+        String artist = value(query, "artist");
+        String title = value(query, "title");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        if ("getResultList".equals(cmd)) {
+            out.writeInt(1);
+            writeResultList(out, artist, title);
+        } else if ("getLyricContent".equals(cmd) || "getSingleResult".equals(cmd)) {
+            if (isMissing(artist, title)) {
+                out.writeInt(0);
+            } else {
+                out.writeInt(1);
+                out.writeUTF(lyric(artist, title, "\n"));
+            }
+        } else {//votes and anything else are just acknowledged
+            out.writeInt(1);
+        }
+        out.close();
+        reply(ex, "application/octet-stream", bytes.toByteArray());
+    }
+
+    /**
+     * The request body is the number of songs followed by the artist and
+     * title of each. The reply has the same layout as
+     * <code>getResultList</code> for every song in turn and is sent
+     * chunked, flushed after each song, so the client can hand out
+     * results before the whole reply is in.
+     */
+    private void searchBatch(HttpExchange ex) throws IOException {
+        if (!"POST".equals(ex.getRequestMethod())) {
+            ex.sendResponseHeaders(405, -1);
+            return;
+        }
+        ObjectInputStream in = new ObjectInputStream(ex.getRequestBody());
+        int n = in.readInt();
+        String[] artists = new String[n];
+        String[] titles = new String[n];
+        for (int i = 0; i < n; i++) {
+            artists[i] = in.readUTF();
+            titles[i] = in.readUTF();
+        }
+        ex.getResponseHeaders().set("Content-Type", "application/octet-stream");
+        ex.sendResponseHeaders(200, 0);
+        ObjectOutputStream out = new ObjectOutputStream(ex.getResponseBody());
+        out.writeInt(1);
+        for (int i = 0; i < n; i++) {
+            writeResultList(out, artists[i], titles[i]);
+            out.flush();
+        }
+        out.close();
+    }
+
+    private void writeResultList(ObjectOutputStream out, String artist, String title) throws IOException {
+        if (isMissing(artist, title)) {
+            out.writeInt(0);
+        } else {
+            out.writeInt(1);
+            out.writeUTF(artist);
+            out.writeUTF("0");//lrcCode
+            out.writeUTF("1");//lrcId
+            out.writeUTF(title);
+            out.writeUTF(Integer.toHexString(key(artist, title).hashCode()));//id
+        }
+    }
+
+    private void baiduSearch(HttpExchange ex, Map<String, String> query) throws IOException {
+        String key = value(query, "wd");
+        if (key.startsWith("filetype:lrc ")) {
+            key = key.substring("filetype:lrc ".length());
+        }
+        StringBuilder sb = new StringBuilder("<html><head><title>");
+        sb.append(key).append("</title></head><body>\n");
+        if (!isMissing("", key)) {
+            sb.append("<b>").append(key).append("</b> LRC/Lyric - <a href=\"").append(getURL());
+            sb.append("/lrc/").append(hex(key)).append(".html\" target=\"_blank\">HTML版</a>\n");
+        }
+        sb.append("</body></html>");
+        reply(ex, "text/html; charset=GBK", sb.toString().getBytes("GBK"));
+    }
+
+    private void baiduLyric(HttpExchange ex) throws IOException {
+        String path = ex.getRequestURI().getPath();
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        if (name.endsWith(".html")) {
+            name = name.substring(0, name.length() - ".html".length());
+        }
+        String key = unhex(name);
+        String html = "<html><body>" + lyric("", key, "<br>") + "</body></html>";
+        reply(ex, "text/html; charset=GBK", html.getBytes("GBK"));
+    }
+
+    private boolean isMissing(String artist, String title) {
+        int bucket = (key(artist, title).hashCode() & 0x7fffffff) % 10000;
+        return bucket < missRate * 10000;
+    }
+
+    private static String key(String artist, String title) {
+        return artist + '\u0000' + title;
+    }
+
+    /**
+     * Made up lyric of about {@link #payloadSize} characters, cut short
+     * before it takes more than {@link #MAX_UTF_BYTES} in modified UTF-8.
+     */
+    private String lyric(String artist, String title, String newLine) {
+        int size = payloadSize;
+        StringBuilder sb = new StringBuilder(size + 64);
+        sb.append("[ti:").append(title).append(']').append(newLine);
+        sb.append("[ar:").append(artist).append(']').append(newLine);
+        int bytes = utfLength(sb, 0);
+        for (int i = 0; sb.length() < size; i++) {
+            int start = sb.length();
+            sb.append(String.format("[%02d:%02d.%02d]", i / 20, i * 3 % 60, i % 100));
+            sb.append(title).append(" line ").append(i).append(newLine);
+            bytes += utfLength(sb, start);
+            if (bytes > MAX_UTF_BYTES) {
+                sb.setLength(start);
+                break;
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return bytes the characters from <code>start</code> on take in
+     * the modified UTF-8 of <code>writeUTF</code>
+     */
+    private static int utfLength(CharSequence s, int start) {
+        int n = 0;
+        for (int i = start; i < s.length(); i++) {
+            char c = s.charAt(i);
+            n += c >= 0x0001 && c <= 0x007F ? 1 : c <= 0x07FF ? 2 : 3;
+        }
+        return n;
+    }
+
+    private static String value(Map<String, String> query, String name) {
+        String v = query.get(name);
+        return v == null ? "" : v;
+    }
+
+    private static String hex(String s) throws UnsupportedEncodingException {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : s.getBytes("UTF-8")) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    private static String unhex(String s) throws UnsupportedEncodingException {
+        byte[] b = new byte[s.length() / 2];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = (byte) Integer.parseInt(s.substring(i * 2, i * 2 + 2), 16);
+        }
+        return new String(b, "UTF-8");
+    }
+
+    private static void reply(HttpExchange ex, String type, byte[] body) throws IOException {
+        ex.getResponseHeaders().set("Content-Type", type);
+        ex.sendResponseHeaders(200, body.length);
+        OutputStream out = ex.getResponseBody();
+        out.write(body);
+        out.close();
+    }
+
+    /**
+     * Common part of every endpoint: counts the request, holds it back
+     * for the configured latency and fails the configured share of them.
+     */
+    private abstract class Handler implements HttpHandler {
+
+        private final Random random = new Random();
+
+        abstract void handle(HttpExchange ex, Map<String, String> query) throws IOException;
+
+        public void handle(HttpExchange ex) throws IOException {
+            try {
+                requests.incrementAndGet();
+                long delay = latency;
+                double r;
+                synchronized (random) {
+                    if (jitter > 0) {
+                        delay += (long) ((random.nextDouble() * 2 - 1) * jitter);
+                    }
+                    r = random.nextDouble();
+                }
+                if (delay > 0) {
+                    Thread.sleep(delay);
+                }
+                if (r < errorRate) {
+                    errors.incrementAndGet();
+                    ex.sendResponseHeaders(500, -1);
+                    return;
+                }
+                handle(ex, parseQuery(ex));
+            } catch (InterruptedException e) {
+                ex.sendResponseHeaders(503, -1);
+            } finally {
+                ex.close();
+            }
+        }
+
+        /**
+         * The Baidu search sends its words in GBK, everything else in UTF-8.
+         */
+        private Map<String, String> parseQuery(HttpExchange ex) throws UnsupportedEncodingException {
+            Map<String, String> map = new HashMap<String, String>();
+            String query = ex.getRequestURI().getRawQuery();
+            if (query == null) {
+                return map;
+            }
+            String charset = ex.getHttpContext().getPath().equals("/s") ? "GBK" : "UTF-8";
+            for (String pair : query.split("&")) {
+                int eq = pair.indexOf('=');
+                if (eq > 0) {
+                    map.put(URLDecoder.decode(pair.substring(0, eq), charset), URLDecoder.decode(pair.substring(eq + 1), charset));
+                }
+            }
+            return map;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package org.batchexecutor.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import org.batchexecutor.audiotag.audio.mp3.MP3AudioHeader;
+import org.batchexecutor.audiotag.audio.mp3.MPEGFrameHeader;
+
+/**
+ * Parses the audio header of many MP3 files on all cores at once and checks
+ * that every result is the same as a single threaded run of the same files.
+ * <pre>
+ * Mp3ParseStress [-threads n] [-rounds n] [-generate n] [file|dir ...]
+ * </pre>
+ * Directories are searched for <code>.mp3</code> files. <code>-generate</code>
+ * adds that many synthetic files, written to a scratch directory that is
+ * deleted afterwards: MPEG 1, 2 and 2.5 layer III with random bitrate,
+ * sampling rate, channel mode and padding, some with a Xing or Info frame
+ * and a LAME tag, behind a random amount of junk. Every file is parsed
+ * <code>-rounds</code> times in shuffled order so that parses of
+ * different kinds of file overlap. The whole of
+ * {@link MP3AudioHeader#toString()} is compared, which includes the raw
+ * frame header bytes. Exits with 1 when anything differs.
+ * @author SnowWolf725
+ */
+public class Mp3ParseStress {
+
+    private static void usage() {
+        System.err.println("usage: Mp3ParseStress [-threads n] [-rounds n] [-generate n] [file|dir ...]");
+        System.exit(2);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int rounds = 4;
+        int generate = 0;
+        List<File> files = new ArrayList<File>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.startsWith("-") && i + 1 >= args.length) {
+                usage();
+            } else if (arg.equals("-threads")) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (arg.equals("-rounds")) {
+                rounds = Integer.parseInt(args[++i]);
+            } else if (arg.equals("-generate")) {
+                generate = Integer.parseInt(args[++i]);
+            } else if (arg.startsWith("-")) {
+                usage();
+            } else {
+                collect(new File(arg), files);
+            }
+        }
+        File scratch = null;
+        if (generate > 0) {
+            scratch = File.createTempFile("mp3-stress", "");
+            scratch.delete();
+            scratch.mkdirs();
+            Random random = new Random(725);
+            for (int i = 0; i < generate; i++) {
+                File f = new File(scratch, i + ".mp3");
+                write(f, random);
+                files.add(f);
+            }
+        }
+        if (files.isEmpty()) {
+            usage();
+        }
+        //keep the per file logging of the parser out of the report
+        MP3AudioHeader.logger.setLevel(Level.SEVERE);
+        int mismatches;
+        try {
+            mismatches = run(files, threads, rounds);
+        } finally {
+            if (scratch != null) {
+                for (File f : scratch.listFiles()) {
+                    f.delete();
+                }
+                scratch.delete();
+            }
+        }
+        System.exit(mismatches == 0 ? 0 : 1);
+    }
+
+    private static int run(final List<File> files, int threads, int rounds) throws Exception {
+        final String[] expected = new String[files.size()];
+        long start = System.nanoTime();
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = parse(files.get(i));
+        }
+        long single = System.nanoTime() - start;
+
+        List<Integer> order = new ArrayList<Integer>();
+        for (int r = 0; r < rounds; r++) {
+            for (int i = 0; i < expected.length; i++) {
+                order.add(i);
+            }
+        }
+        Collections.shuffle(order, new Random(rounds));
+        final AtomicInteger mismatches = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<Future<?>>(order.size());
+        start = System.nanoTime();
+        for (final int i : order) {
+            futures.add(executor.submit(new Runnable() {
+
+                public void run() {
+                    String actual = parse(files.get(i));
+                    if (!actual.equals(expected[i]) && mismatches.incrementAndGet() <= 10) {
+                        System.out.println("[stress]mismatch " + files.get(i) + "\n  expected " + expected[i] + "\n  actual   " + actual);
+                    }
+                }
+            }));
+        }
+        for (Future<?> f : futures) {
+            f.get();
+        }
+        long parallel = System.nanoTime() - start;
+        executor.shutdown();
+        System.out.println(String.format("[stress]files=%d parses=%d threads=%d mismatches=%d",
+                files.size(), order.size(), threads, mismatches.get()));
+        System.out.println(String.format("[stress]single=%.1f files/s parallel=%.1f files/s",
+                files.size() / (single / 1e9), order.size() / (parallel / 1e9)));
+        return mismatches.get();
+    }
+
+    private static String parse(File f) {
+        try {
+            return new MP3AudioHeader(f).toString();
+        } catch (Exception ex) {
+            return ex.getClass().getName() + ": " + ex.getMessage();
+        }
+    }
+
+    private static void collect(File f, List<File> files) {
+        if (f.isDirectory()) {
+            File[] children = f.listFiles();
+            if (children != null) {
+                for (File child : children) {
+                    collect(child, files);
+                }
+            }
+        } else if (f.getName().toLowerCase().endsWith(".mp3")) {
+            files.add(f);
+        }
+    }
+
+    /**
+     * Writes a made up MPEG layer III file. The frame length comes from
+     * {@link MPEGFrameHeader} itself so the frames line up with what the
+     * parser expects.
+     */
+    private static void write(File f, Random random) throws Exception {
+        int[] versions = {MPEGFrameHeader.VERSION_1, MPEGFrameHeader.VERSION_2, MPEGFrameHeader.VERSION_2_5};
+        int version = versions[random.nextInt(versions.length)];
+        int mode = random.nextInt(4);
+        byte[] header = new byte[4];
+        header[0] = (byte) 0xFF;
+        header[1] = (byte) (0xE0 | version << 3 | MPEGFrameHeader.LAYER_III << 1 | 1);
+        header[2] = (byte) ((1 + random.nextInt(14)) << 4 | random.nextInt(3) << 2);
+        header[3] = (byte) (mode << 6);
+        int length = MPEGFrameHeader.parseMPEGHeader(ByteBuffer.wrap(header)).getFrameLength();
+        int frames = 20 + random.nextInt(200);
+        OutputStream out = new FileOutputStream(f);
+        try {
+            byte[] junk = new byte[random.nextInt(3000)];
+            random.nextBytes(junk);
+            out.write(junk);
+            int offset = version == MPEGFrameHeader.VERSION_1
+                    ? (mode == MPEGFrameHeader.MODE_MONO ? 21 : 36)
+                    : (mode == MPEGFrameHeader.MODE_MONO ? 13 : 21);
+            boolean xing = random.nextInt(3) > 0 && length >= offset + 120 + 36;
+            byte[] frame = new byte[length];
+            for (int i = 0; i < frames; i++) {
+                random.nextBytes(frame);
+                System.arraycopy(header, 0, frame, 0, 4);
+                if (i == 0 && xing) {
+                    ByteBuffer bb = ByteBuffer.wrap(frame, 4, length - 4).slice();
+                    bb.put(new byte[length - 4]);
+                    bb.position(offset - 4);
+                    bb.put((random.nextBoolean() ? "Xing" : "Info").getBytes("ISO-8859-1"));
+                    bb.putInt(3);//frame count and audio size
+                    bb.putInt(frames - 1);
+                    bb.putInt((frames - 1) * length);
+                    bb.position(offset - 4 + 120);
+                    bb.put("LAME3.99r".getBytes("ISO-8859-1"));
+                }
+                out.write(frame);
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
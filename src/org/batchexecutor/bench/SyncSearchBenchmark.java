@@ -0,0 +1,192 @@
+package org.batchexecutor.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.logging.Level;
+
+import org.batchexecutor.audiotag.audio.exceptions.InvalidAudioFrameException;
+import org.batchexecutor.audiotag.audio.mp3.MP3AudioHeader;
+import org.batchexecutor.audiotag.audio.mp3.MPEGFrameHeader;
+
+/**
+ * Compares the byte at a time search for the first MPEG frame that
+ * {@link MP3AudioHeader} used to do with the search that skips to the next
+ * candidate with {@link MPEGFrameHeader#findSyncByte}.
+ * <pre>
+ * SyncSearchBenchmark [-junk bytes] [-seconds n]
+ * </pre>
+ * Both searches run over the same junk in memory followed by a real frame
+ * header: once with random junk, where about one byte in 256 is a 0xFF
+ * that has to be checked although none starts a valid header, and once
+ * with junk that has no 0xFF at all, like text or unsynchronised tag data.
+ * Then a file with that junk in front of the audio is searched end to end
+ * with {@link MP3AudioHeader}. Each case is warmed up for the same time it
+ * is measured.
+ * @author SnowWolf725
+ */
+public class SyncSearchBenchmark {
+
+    private static final byte[] FRAME_HEADER = {(byte) 0xFF, (byte) 0xFB, (byte) 0x90, (byte) 0x40};
+
+    private static void usage() {
+        System.err.println("usage: SyncSearchBenchmark [-junk bytes] [-seconds n]");
+        System.exit(1);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int junk = 256 * 1024;
+        double seconds = 2;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (i + 1 >= args.length) {
+                usage();
+            } else if (arg.equals("-junk")) {
+                junk = Integer.parseInt(args[++i]);
+            } else if (arg.equals("-seconds")) {
+                seconds = Double.parseDouble(args[++i]);
+            } else {
+                usage();
+            }
+        }
+        MP3AudioHeader.logger.setLevel(Level.SEVERE);
+        for (boolean withFF : new boolean[]{true, false}) {
+            byte[] data = junk(junk, withFF);
+            final ByteBuffer bb = ByteBuffer.allocateDirect(data.length + FRAME_HEADER.length);
+            bb.put(data).put(FRAME_HEADER).flip();
+            String kind = withFF ? "random" : "no-0xFF";
+            int expected = byteLoop(bb);
+            if (swar(bb) != expected) {
+                throw new IllegalStateException("searches disagree: " + expected + " " + swar(bb));
+            }
+            report(kind + " byte loop", data.length, seconds, new Search() {
+
+                public int run() {
+                    return byteLoop(bb);
+                }
+            });
+            report(kind + " swar", data.length, seconds, new Search() {
+
+                public int run() {
+                    return swar(bb);
+                }
+            });
+
+            final File file = File.createTempFile("sync", ".mp3");
+            try {
+                OutputStream out = new FileOutputStream(file);
+                try {
+                    out.write(data);
+                    byte[] frame = new byte[417];
+                    System.arraycopy(FRAME_HEADER, 0, frame, 0, FRAME_HEADER.length);
+                    for (int i = 0; i < 20; i++) {
+                        out.write(frame);
+                    }
+                } finally {
+                    out.close();
+                }
+                report(kind + " MP3AudioHeader", data.length, seconds, new Search() {
+
+                    public int run() throws Exception {
+                        return (int) new MP3AudioHeader(file).getMp3StartByte();
+                    }
+                });
+            } finally {
+                file.delete();
+            }
+        }
+    }
+
+    private static interface Search {
+
+        public int run() throws Exception;
+    }
+
+    private static void report(String name, int bytes, double seconds, Search search) throws Exception {
+        long limit = (long) (seconds * 1e9);
+        int sink = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            long start = System.nanoTime();
+            long elapsed;
+            int n = 0;
+            do {
+                sink += search.run();
+                n++;
+                elapsed = System.nanoTime() - start;
+            } while (elapsed < limit);
+            if (pass == 1) {
+                System.out.println(String.format("[bench]%-28s %10.1f us/search %8.1f MB/s", name,
+                        elapsed / 1e3 / n, (double) bytes * n / (elapsed / 1e9) / (1 << 20)));
+            }
+        }
+        if (sink == 42) {
+            System.out.println();//keeps the results alive
+        }
+    }
+
+    /**
+     * Random bytes, with the 0xFF bytes taken out or, if they are kept,
+     * with every chance frame header broken so the search has to get
+     * through all of it.
+     */
+    private static byte[] junk(int size, boolean withFF) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        ByteBuffer bb = ByteBuffer.wrap(data);
+        for (int i = 0; i < data.length; i++) {
+            if (data[i] != (byte) 0xFF) {
+                continue;
+            }
+            if (!withFF) {
+                data[i] = 0;
+            } else if (i + MPEGFrameHeader.HEADER_SIZE <= data.length) {
+                bb.position(i);
+                if (isFrame(bb)) {
+                    data[i + 1] = 0;
+                }
+            }
+        }
+        return data;
+    }
+
+    /**
+     * The search as it used to be: every position is tried.
+     */
+    private static int byteLoop(ByteBuffer bb) {
+        for (int p = 0; p <= bb.limit() - MPEGFrameHeader.HEADER_SIZE; p++) {
+            bb.position(p);
+            if (isFrame(bb)) {
+                return p;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Only the positions of 0xFF bytes are tried.
+     */
+    private static int swar(ByteBuffer bb) {
+        int to = bb.limit() - MPEGFrameHeader.HEADER_SIZE + 1;
+        for (int p = MPEGFrameHeader.findSyncByte(bb, 0, to); p < to; p = MPEGFrameHeader.findSyncByte(bb, p + 1, to)) {
+            bb.position(p);
+            if (isFrame(bb)) {
+                return p;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isFrame(ByteBuffer bb) {
+        if (!MPEGFrameHeader.isMPEGFrame(bb)) {
+            return false;
+        }
+        try {
+            MPEGFrameHeader.parseMPEGHeader(bb);
+            return true;
+        } catch (InvalidAudioFrameException ex) {
+            return false;
+        }
+    }
+}
@@ -1,16 +1,19 @@
 package org.batchexecutor.lyric;
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.apache.commons.httpclient.methods.GetMethod;
 import org.batchexecutor.playlist.PlayListItem;
 import org.batchexecutor.util.GAEUtil;
+import org.batchexecutor.util.HttpUtil;
 
 public class LRCUtil {
 
@@ -19,33 +22,106 @@ public class LRCUtil {
      * 根据传入的歌名和歌手名，得到一个搜索的列表
      * 注意，传进来的不能为null,否则将会出现不可意料的
      * 异常
-     * 这个方法调用另一个方法，并且进行多种组合进行查找，直到
-     * 有结果或者组合都有完了为止
+     * 这个方法调用另一个方法，并且进行多种组合进行查找，
+     * 几种组合是同时搜的,歌手名加歌名的优先,然后是只有歌名的,最后是文件名,
+     * 优先的组合有结果了,其它的就不等了
      * @param item 要搜索的项
      * @return 一个搜索的列表
      */
     public static List<SearchResult> search(PlayListItem item) {
+        try {
+            return find(item);
+        } catch (IOException ex) {
+            Logger.getLogger(LRCUtil.class.getName()).log(Level.SEVERE, null, ex);
+            return new ArrayList<SearchResult>();
+        }
+    }
+
+    /**
+     * 和{@link #search(PlayListItem)}一样,只是网络出错的时候会抛出来,
+     * 这样才能分清楚是真的没有还是没搜成
+     * 最近搜过没找到的,直接返回空的列表
+     * @param item 要搜索的项
+     * @return 一个搜索的列表
+     * @throws IOException 所有的组合都没搜到,并且有的出错了
+     */
+    public static List<SearchResult> find(PlayListItem item) throws IOException {
         if (!item.isInited()) {
             item.reRead();
         }
         List<SearchResult> list = new ArrayList<SearchResult>();
+        LyricMissCache cache = LyricMissCache.getDefault();
+        if (cache.isMissing(GAEUtil.SOURCE, item)) {
+            return list;
+        }
+        List<Query> queries = new ArrayList<Query>();
+        //先把歌手名和歌名一起附上
+        addQuery(queries, item.getArtist(), item.getTitle());
+        addQuery(queries, "", item.getTitle());
+        addQuery(queries, "", item.getName());
         try {
-            //先把歌手名和歌名一起附上
-            List<SearchResult> temp = search(item.getArtist(), item.getTitle());
-            if (temp.isEmpty()) {
-                temp = search("", item.getTitle());
-                if (temp.isEmpty()) {
-                    temp = search("", item.getName());
-                }
+            List<SearchResult> temp = LyricFetchExecutor.getDefault().firstFound(queries);
+            if (temp != null) {
+                list.addAll(temp);
+                cache.found(GAEUtil.SOURCE, item);
+            } else {
+                cache.missed(GAEUtil.SOURCE, item);
             }
-            list.addAll(temp);
-        } catch (Exception ex) {
-            Logger.getLogger(LRCUtil.class.getName()).log(Level.SEVERE, null, ex);
+        } catch (ExecutionException ex) {
+            throw new IOException("lyric search failed: " + item, ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while searching " + item);
         }
-
         return list;
     }
 
+    /**
+     * 加一个搜索的组合,和前面一样的就不加了
+     */
+    private static void addQuery(List<Query> queries, String singer, String title) {
+        Query q = new Query(singer == null ? "" : singer, title == null ? "" : title);
+        if (!queries.contains(q)) {
+            queries.add(q);
+        }
+    }
+
+    /**
+     * 一种搜索的组合,没搜到的时候返回NULL
+     */
+    private static class Query implements Callable<List<SearchResult>> {
+
+        private final String singer;
+        private final String title;
+
+        Query(String singer, String title) {
+            this.singer = singer;
+            this.title = title;
+        }
+
+        public List<SearchResult> call() throws Exception {
+            try {
+                List<SearchResult> list = search(singer, title);
+                return list.isEmpty() ? null : list;
+            } catch (Exception ex) {
+                Logger.getLogger(LRCUtil.class.getName()).log(Level.SEVERE, null, ex);
+                throw ex;
+            }
+        }
+
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Query)) {
+                return false;
+            }
+            Query q = (Query) obj;
+            return singer.equals(q.singer) && title.equals(q.title);
+        }
+
+        public int hashCode() {
+            return singer.hashCode() * 31 + title.hashCode();
+        }
+    }
+
     /**
      * 实际上进行搜索的方法
      * @param singer
@@ -63,9 +139,11 @@ public class LRCUtil {
     }
 
     private static String readURL(String url) {
+        GetMethod get = null;
         try {
-            HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
-            BufferedReader br = new BufferedReader(new InputStreamReader(conn.getInputStream(), "UTF-8"));
+            get = new GetMethod(url);
+            HttpUtil.executeOK(get);
+            BufferedReader br = new BufferedReader(new InputStreamReader(get.getResponseBodyAsStream(), "UTF-8"));
             String temp = null;
             StringBuilder sb = new StringBuilder();
             while ((temp = br.readLine()) != null) {
@@ -76,6 +154,10 @@ public class LRCUtil {
         } catch (Exception exe) {
             exe.printStackTrace();
             return null;
+        } finally {
+            if (get != null) {
+                get.releaseConnection();
+            }
         }
     }
 }
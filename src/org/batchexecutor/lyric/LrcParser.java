@@ -0,0 +1,323 @@
+package org.batchexecutor.lyric;
+
+/**
+ * LRC歌词的分析器,一遍扫过去,把每一句的时间和内容的位置放到数组里
+ * 以前是一行一行读,每个标签用正则找,再用indexOf找位置,
+ * 时间用split再parseInt,一首歌要生成很多临时的字符串,
+ * 批处理要检查几十万个歌词文件的时候很慢
+ * 现在不用正则,不split,也不截标签的字符串,只有真的取内容的时候才生成字符串
+ * 分析的规则和以前{@link Lyric}里的一样:
+ * <ul>
+ * <li>一行里可以有好几个时间标签,标签中间夹了内容的话就分成几段</li>
+ * <li>时间是"分:秒"或者"分:秒.百分秒",不合法的标签就不要</li>
+ * <li>[offset:毫秒]是整体的偏移量,只认第一个</li>
+ * </ul>
+ * 一个分析器可以反复用,不是线程安全的
+ * @author SnowWolf725
+ */
+public final class LrcParser {
+
+    private static final char[] OFFSET = {'o', 'f', 'f', 's', 'e', 't'};
+    private static final int INVALID = Integer.MIN_VALUE;
+    private char[] text = new char[0];
+    private long[] times = new long[64];
+    private int[] starts = new int[64];//每一句的内容在text里的起始位置
+    private int[] ends = new int[64];
+    private int count;
+    private int offset;
+    private boolean cutBlank;
+    private int[] tagStarts = new int[8];//一段里还没有内容的时间标签
+    private int[] tagEnds = new int[8];
+    private int tags;
+    private final int[] fieldStarts = new int[3];
+    private final int[] fieldEnds = new int[3];
+    private String lastContent;//同一段的几个标签共用一个字符串
+    private int lastStart = -1;
+    private int lastEnd = -1;
+
+    /**
+     * 分析一段歌词
+     * @param content 歌词内容
+     * @param offset 现在的整体偏移量,不是0的话就不再认歌词里的偏移量
+     * @param cutBlank 要不要去掉每一句前后的空白
+     */
+    public void parse(String content, int offset, boolean cutBlank) {
+        char[] buf = content.toCharArray();
+        parse(buf, buf.length, offset, cutBlank);
+    }
+
+    /**
+     * 分析一段歌词,buf在用完这次的结果之前不能改
+     * @param buf 歌词内容
+     * @param length 内容的长度
+     * @param offset 现在的整体偏移量,不是0的话就不再认歌词里的偏移量
+     * @param cutBlank 要不要去掉每一句前后的空白
+     */
+    public void parse(char[] buf, int length, int offset, boolean cutBlank) {
+        this.text = buf;
+        this.offset = offset;
+        this.cutBlank = cutBlank;
+        count = 0;
+        lastContent = null;
+        lastStart = lastEnd = -1;
+        int i = 0;
+        while (i < length) {
+            int end = i;
+            while (end < length && buf[end] != '\n' && buf[end] != '\r') {
+                end++;
+            }
+            parseLine(i, end);
+            i = end + 1;
+            if (end < length && buf[end] == '\r' && i < length && buf[i] == '\n') {
+                i++;
+            }
+        }
+    }
+
+    /**
+     * @return 分析出来的句子数,没有排序
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return 第i句的起始时间,毫秒
+     */
+    public long getTime(int i) {
+        return times[i];
+    }
+
+    /**
+     * @return 第i句的内容
+     */
+    public String getContent(int i) {
+        int s = starts[i];
+        int e = ends[i];
+        if (s != lastStart || e != lastEnd) {
+            lastContent = new String(text, s, e - s);
+            lastStart = s;
+            lastEnd = e;
+        }
+        return lastContent;
+    }
+
+    /**
+     * @return 分析完以后的整体偏移量
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    private void parseLine(int from, int to) {
+        while (from < to && text[from] <= ' ') {
+            from++;
+        }
+        while (to > from && text[to - 1] <= ' ') {
+            to--;
+        }
+        tags = 0;
+        int lastClose = -1;//最后一个时间标签的']'的位置
+        int p = from;
+        while (p < to) {
+            int open = indexOf('[', p, to);
+            if (open < 0) {
+                break;
+            }
+            int close = indexOf(']', open + 1, to);
+            if (close < 0) {
+                break;
+            }
+            if (lastClose != -1 && open > lastClose + 1) {
+                //中间夹了别的内容,前面的标签就是这一段的
+                for (int t = 0; t < tags; t++) {
+                    addSentence(parseTime(tagStarts[t], tagEnds[t]), lastClose + 1, open);
+                }
+                tags = 0;
+            }
+            addTag(open + 1, close);
+            lastClose = close;
+            p = close + 1;
+        }
+        //本行没有分析出任何标签
+        if (tags == 0) {
+            return;
+        }
+        int s = lastClose + 1;
+        int e = to;
+        if (cutBlank) {
+            while (s < e && text[s] <= ' ') {
+                s++;
+            }
+            while (e > s && text[e - 1] <= ' ') {
+                e--;
+            }
+        }
+        //当已经有了偏移量的时候，就不再分析了
+        if (s == e && offset == 0) {
+            for (int t = 0; t < tags; t++) {
+                if (split(tagStarts[t], tagEnds[t], false) == 2 && isOffset()) {
+                    int of = parseInt(fieldStarts[1], fieldEnds[1]);
+                    if (of != INVALID) {
+                        offset = of;
+                    }
+                    break;//只分析一次,不合法的话这一行也不要了
+                }
+            }
+            return;
+        }
+        for (int t = 0; t < tags; t++) {
+            addSentence(parseTime(tagStarts[t], tagEnds[t]), s, e);
+        }
+    }
+
+    /**
+     * 把如00:00.00这样的标签转化成毫秒数,
+     * 01:10.34就是一分钟加上10秒再加上340毫秒,也就是70340毫秒
+     * @return 毫秒数,不是时间就是-1
+     */
+    private long parseTime(int from, int to) {
+        int n = split(from, to, true);
+        if (n == 2) {
+            //先看有没有一个是记录了整体偏移量的
+            if (offset == 0 && isOffset()) {
+                int of = parseInt(fieldStarts[1], fieldEnds[1]);
+                if (of != INVALID) {
+                    offset = of;
+                }
+                return -1;
+            }
+            int min = parseInt(fieldStarts[0], fieldEnds[0]);
+            int sec = parseInt(fieldStarts[1], fieldEnds[1]);
+            if (min < 0 || sec < 0 || sec >= 60) {
+                return -1;
+            }
+            return (min * 60L + sec) * 1000L;
+        } else if (n == 3) {
+            int min = parseInt(fieldStarts[0], fieldEnds[0]);
+            int sec = parseInt(fieldStarts[1], fieldEnds[1]);
+            int mm = parseInt(fieldStarts[2], fieldEnds[2]);
+            if (min < 0 || sec < 0 || sec >= 60 || mm < 0 || mm > 99) {
+                return -1;
+            }
+            return (min * 60L + sec) * 1000L + mm * 10;
+        } else {
+            return -1;
+        }
+    }
+
+    /**
+     * 按':'(还有'.')把标签分开,和String.split一样,最后的空段不算
+     * @return 有几段,多于3段的时候就是4
+     */
+    private int split(int from, int to, boolean dot) {
+        int n = 0;
+        int fields = 0;//去掉最后的空段以后有几段
+        int s = from;
+        for (int i = from; i <= to; i++) {
+            if (i == to || text[i] == ':' || (dot && text[i] == '.')) {
+                if (n < 3) {
+                    fieldStarts[n] = s;
+                    fieldEnds[n] = i;
+                }
+                n++;
+                if (i > s) {
+                    fields = n;
+                }
+                s = i + 1;
+            }
+        }
+        if (from == to) {
+            return 1;//""分出来是一段
+        }
+        return fields > 3 ? 4 : fields;
+    }
+
+    private boolean isOffset() {
+        int s = fieldStarts[0];
+        if (fieldEnds[0] - s != OFFSET.length) {
+            return false;
+        }
+        for (int i = 0; i < OFFSET.length; i++) {
+            char c = text[s + i];
+            if (Character.toLowerCase(c) != OFFSET[i] && Character.toLowerCase(Character.toUpperCase(c)) != OFFSET[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 和Integer.parseInt一样的规则,不合法的时候返回INVALID
+     */
+    private int parseInt(int from, int to) {
+        if (from >= to) {
+            return INVALID;
+        }
+        boolean negative = false;
+        char first = text[from];
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            if (++from == to) {
+                return INVALID;
+            }
+        }
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            int d = Character.digit(text[i], 10);
+            if (d < 0) {
+                return INVALID;
+            }
+            value = value * 10 + d;
+            if (value > Integer.MAX_VALUE + 1L) {
+                return INVALID;
+            }
+        }
+        if (negative) {
+            value = -value;
+        }
+        return value > Integer.MAX_VALUE ? INVALID : (int) value;
+    }
+
+    private int indexOf(char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (text[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void addTag(int s, int e) {
+        if (tags == tagStarts.length) {
+            tagStarts = grow(tagStarts);
+            tagEnds = grow(tagEnds);
+        }
+        tagStarts[tags] = s;
+        tagEnds[tags] = e;
+        tags++;
+    }
+
+    private void addSentence(long time, int s, int e) {
+        if (time == -1) {
+            return;
+        }
+        if (count == times.length) {
+            long[] t = new long[count * 2];
+            System.arraycopy(times, 0, t, 0, count);
+            times = t;
+            starts = grow(starts);
+            ends = grow(ends);
+        }
+        times[count] = time;
+        starts[count] = s;
+        ends[count] = e;
+        count++;
+    }
+
+    private static int[] grow(int[] a) {
+        int[] b = new int[a.length * 2];
+        System.arraycopy(a, 0, b, 0, a.length);
+        return b;
+    }
+}
@@ -5,28 +5,24 @@
 package org.batchexecutor.lyric;
 
 import java.awt.Color;
+import java.awt.Font;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
-import java.awt.LinearGradientPaint;
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.awt.Shape;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.FileFilter;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.io.Reader;
 import java.io.Serializable;
-import java.io.StringReader;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Comparator;
-import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.batchexecutor.playlist.PlayListItem;
 import org.batchexecutor.util.Config;
@@ -44,7 +40,7 @@ public class Lyric implements Serializable {
     private int height;//表示歌词的显示区域的高度
     private long time;//表示当前的时间是多少了。以毫秒为单位
     private long tempTime;//表示一个暂时的时间,用于拖动的时候,确定应该到哪了
-    private List<Sentence> list = new ArrayList<Sentence>();//里面装的是所有的句子
+    private LyricTimeline timeline = new LyricTimeline(new long[0], new long[0], new String[0]);//所有的句子
     private boolean isMoving;//是否正在被拖动 
     private int currentIndex;//当前正在显示的歌词的下标
     private boolean initDone;//是否初始化完毕了
@@ -53,8 +49,16 @@ public class Lyric implements Serializable {
     private boolean enabled = true;//是否起用了该对象,默认是起用的
     private long during = Integer.MAX_VALUE;//这首歌的长度
     private int offset;//整首歌的偏移量
+    private static final int IMAGE_CACHE_SIZE = 64;//每种颜色最多缓存多少句画好的图像
+    private static final int IMAGE_PAD = 2;//图像四周留的空白,斜体的字会出一点头
+    private static final int CLIP_SIZE = 1 << 14;//卡拉OK剪裁的时候用的一个足够大的范围
+    private transient LyricWriter.Callback callback;//下载到的歌词保存完了告诉谁
+    private transient boolean saveQueued;//下载到的歌词是不是交给LyricWriter了
+    private transient Map<Sentence, BufferedImage> hilightImages;//高亮色画好的句子
+    private transient Map<Sentence, BufferedImage> foregroundImages;//前景色画好的句子
+    private transient Font imageFont;//画图像的时候用的字体
+    private transient int imageVersion;//画图像的时候的样式版本
     //用于缓存的一个正则表达式对象
-    private static final Pattern pattern = Pattern.compile("(?<=\\[).*?(?=\\])");
 
     /**
      * 用ID3V1标签的字节和歌名来初始化歌词
@@ -65,7 +69,18 @@ public class Lyric implements Serializable {
      * @param data ID3V1的数据
      */
     public Lyric(final PlayListItem info) {
+        this(info, null);
+    }
+
+    /**
+     * 和{@link #Lyric(PlayListItem)}一样,网上下载到的歌词在后台保存,
+     * 保存完了或者出错了会通知callback
+     * @param info 歌曲信息
+     * @param callback 保存的结果告诉谁,可以是NULL
+     */
+    public Lyric(final PlayListItem info, LyricWriter.Callback callback) {
         this.offset = info.getOffset();
+        this.callback = callback;
         this.info = info;
         this.during = info.getLength() * 1000;
         this.file = info.getLyricFile();
@@ -119,49 +134,42 @@ public class Lyric implements Serializable {
     private void doInit(PlayListItem info) {
         init(info);
 
-        Sentence temp = null;
-        //这个时候就要去网络上找了
-        if (list.size() == 1) {
-            temp = list.remove(0);
+        //这个时候就要去网络上找了,最近搜过没找到的就不找了
+        //网络上也没有找到或者出错了,就还是只显示歌名
+        if (timeline.size() == 1 && !LyricMissCache.getDefault().isMissing(LyricMissCache.ALL, info)) {
             try {
                 String lyric = Util.getLyric(info);
                 if (lyric != null) {
                     init(lyric);
                     saveLyric(lyric, info);
-                } else {//如果网络也没有找到,就要加回去了
-                    list.add(temp);
                 }
             } catch (IOException ex) {
                 Logger.getLogger(Lyric.class.getName()).log(Level.SEVERE, null, ex);
-                //如果抛了任何异常,也要加回去了
-                list.add(temp);
             }
         }
     }
 
     /**
      * 把下载到的歌词保存起来,免得下次再去找
+     * 交给{@link LyricWriter}在后台写到歌曲旁边,这里不等它写完
      * @param lyric 歌词内容
      * @param info 歌的信息
      */
     private void saveLyric(String lyric, PlayListItem info) {
-        try {
-            //如果歌手不为空,则以歌手名+歌曲名为最好组合
-            //String name = info.getFormattedName() + ".lrc";
-//            File dir = new File(Config.HOME, "Lyrics" + File.separator);
-            //File dir = Config.getConfig().getSaveLyricDir();
-            File dir = new File(info.getLocation()).getParentFile();
-            dir.mkdirs();
-            //file = new File(dir, name);
-            file = new File(dir, info.getName() + ".lrc");
-            BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
-            bw.write(lyric);
-            bw.close();
-            info.setLyricFile(file);
-            log.info("保存完毕,保存在:" + file);
-        } catch (Exception exe) {
-            log.log(Level.SEVERE, "保存歌词出错", exe);
-        }
+        File target = new File(new File(info.getLocation()).getParentFile(), info.getName() + ".lrc");
+        LyricWriter.getDefault().write(info, lyric, target, callback);
+        saveQueued = true;
+        file = target;
+        info.setLyricFile(file);
+    }
+
+    /**
+     * 下载到的歌词是不是已经交给{@link LyricWriter}去保存了,
+     * 是的话保存完了会通知构造的时候给的{@link LyricWriter.Callback}
+     * @return 是否交出去了
+     */
+    public boolean isSaveQueued() {
+        return saveQueued;
     }
 
     /**
@@ -187,58 +195,21 @@ public class Lyric implements Serializable {
      */
     public void adjustTime(int time) {
         //如果是只有一个显示的,那就说明没有什么效对的意义了,直接返回
-        if (list.size() == 1) {
+        if (timeline.size() == 1) {
             return;
         }
         offset += time;
         info.setOffset(offset);
     }
 
-    /**
-     * 根据一个文件夹,和一个歌曲的信息
-     * 从本地搜到最匹配的歌词
-     * @param dir 目录
-     * @param info 歌曲信息 
-     * @return 歌词文件
-     */
-    private File getMathedLyricFile(File dir, PlayListItem info) {
-        File matched = null;//已经匹配的文件
-        File[] fs = dir.listFiles(new FileFilter() {
-
-            public boolean accept(File pathname) {
-                return pathname.getName().toLowerCase().endsWith(".lrc");
-            }
-        });
-        for (File f : fs) {
-            //全部匹配或者部分匹配都行
-            if (matchAll(info, f) || matchSongName(info, f)) {
-                matched = f;
-                break;
-            }
-        }
-        return matched;
-    }
-
     /**
      * 根据歌的信息去初始化,这个时候
      * 可能在本地找到歌词文件,也可能要去网络上搜索了
      * @param info 歌曲信息
      */
     private void init(PlayListItem info) {
-        File matched = null;
-        for (File dir : Config.getConfig().getSearchLyricDirs()) {
-            log.log(Level.FINE, "正在搜索文件夹:" + dir);
-            //得到歌曲信息后,先本地搜索,先搜索HOME文件夹
-            //如果还不存在的话,那建一个目录,然后直接退出不管了
-            if (!dir.exists()) {
-                dir.mkdirs();
-            }
-            matched = getMathedLyricFile(dir, info);
-            //当搜索到了,就退出
-            if (matched != null) {
-                break;
-            }
-        }
+        //得到歌曲信息后,先本地搜索,搜索的目录都在索引里
+        File matched = LyricFileIndex.getDefault().find(info);
         log.info("找到的是:" + matched);
         if (matched != null && matched.exists()) {
             info.setLyricFile(matched);
@@ -254,253 +225,102 @@ public class Lyric implements Serializable {
      * @param file 文件
      */
     private void init(File file) {
-        BufferedReader br = null;
+        Reader r = null;
         try {
-            br = new BufferedReader(new InputStreamReader(new FileInputStream(file), "Big5"));
-            StringBuilder sb = new StringBuilder();
-            String temp = null;
-            while ((temp = br.readLine()) != null) {
-                sb.append(temp).append("\n");
+            r = new InputStreamReader(new FileInputStream(file), "Big5");
+            char[] buf = new char[(int) Math.min(file.length() + 16, Integer.MAX_VALUE - 8)];
+            int length = 0;
+            int n;
+            while ((n = r.read(buf, length, buf.length - length)) != -1) {
+                length += n;
+                if (length == buf.length) {
+                    buf = Arrays.copyOf(buf, buf.length * 2);
+                }
             }
-            init(sb.toString());
+            init(buf, length);
         } catch (Exception ex) {
             Logger.getLogger(Lyric.class.getName()).log(Level.SEVERE, null, ex);
 
         } finally {
             try {
-                br.close();
+                r.close();
             } catch (Exception ex) {
                 Logger.getLogger(Lyric.class.getName()).log(Level.SEVERE, null, ex);
             }
         }
     }
 
-    /**
-     * 是否完全匹配,完全匹配是指直接对应到ID3V1的标签,
-     * 如果一样,则完全匹配了,完全匹配的LRC的文件格式是:
-     * 阿木 - 有一种爱叫放手.lrc
-     * @param info 歌曲信息
-     * @param file 侯选文件
-     * @return 是否合格
-     */
-    private boolean matchAll(PlayListItem info, File file) {
-        String name = info.getFormattedName();
-        String fn = file.getName().substring(0, file.getName().lastIndexOf("."));
-        if (name.equals(fn)) {
-            return true;
-        } else {
-            return false;
-        }
-    }
-
-    /**
-     * 是否匹配了歌曲名
-     * @param info 歌曲信息
-     * @param file 侯选文件
-     * @return 是否合格
-     */
-    private boolean matchSongName(PlayListItem info, File file) {
-        String name = info.getFormattedName();
-        String rn = file.getName().substring(0, file.getName().lastIndexOf("."));
-        if (name.equalsIgnoreCase(rn) || info.getTitle().equalsIgnoreCase(rn)) {
-            return true;
-        } else {
-            return false;
-        }
-    }
-
     /**
      * 最重要的一个方法，它根据读到的歌词内容
      * 进行初始化，比如把歌词一句一句分开并计算好时间
      * @param content 歌词内容
      */
     private void init(String content) {
+        if (content == null) {
+            content = "";
+        }
+        char[] buf = content.toCharArray();
+        init(buf, buf.length);
+    }
+
+    private void init(char[] buf, int length) {
         //如果歌词的内容为空,则后面就不用执行了
         //直接显示歌曲名就可以了
-        if (content == null || content.trim().equals("")) {
-            list.add(new Sentence(info.getFormattedName(), Integer.MIN_VALUE, Integer.MAX_VALUE));
+        if (isBlank(buf, length)) {
+            timeline = new LyricTimeline(info.getFormattedName(), Integer.MIN_VALUE, Integer.MAX_VALUE);
             return;
         }
         try {
-            BufferedReader br = new BufferedReader(new StringReader(content));
-            String temp = null;
-            while ((temp = br.readLine()) != null) {
-                parseLine(temp.trim());
+            final LrcParser parser = new LrcParser();
+            parser.parse(buf, length, offset, Config.getConfig().isCutBlankChars());
+            if (parser.getOffset() != offset) {
+                offset = parser.getOffset();
+                info.setOffset(offset);
             }
-            br.close();
-            //读进来以后就排序了
-            Collections.sort(list, new Comparator<Sentence>() {
-
-                public int compare(Sentence o1, Sentence o2) {
-                    return (int) (o1.getFromTime() - o2.getFromTime());
-                }
-            });
-            //处理第一句歌词的起始情况,无论怎么样,加上歌名做为第一句歌词,并把它的
-            //结尾为真正第一句歌词的开始
-            if (list.size() == 0) {
-                list.add(new Sentence(info.getFormattedName(), 0, Integer.MAX_VALUE));
+            int n = parser.getCount();
+            //如果就是没有怎么办,那就只显示一句歌名了
+            if (n == 0) {
+                timeline = new LyricTimeline(info.getFormattedName(), 0, Integer.MAX_VALUE);
                 return;
-            } else {
-                Sentence first = list.get(0);
-                list.add(0, new Sentence(info.getFormattedName(), 0, first.getFromTime()));
             }
+            //读进来以后就排序了,时间一样的保持原来的顺序
+            Integer[] order = new Integer[n];
+            for (int i = 0; i < n; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
 
-            int size = list.size();
-            for (int i = 0; i < size; i++) {
-                Sentence next = null;
-                if (i + 1 < size) {
-                    next = list.get(i + 1);
-                }
-                Sentence now = list.get(i);
-                if (next != null) {
-                    now.setToTime(next.getFromTime() - 1);
+                public int compare(Integer o1, Integer o2) {
+                    long t1 = parser.getTime(o1);
+                    long t2 = parser.getTime(o2);
+                    return t1 < t2 ? -1 : (t1 == t2 ? 0 : 1);
                 }
-            }
-            //如果就是没有怎么办,那就只显示一句歌名了
-            if (list.size() == 1) {
-                list.get(0).setToTime(Integer.MAX_VALUE);
-            } else {
-                Sentence last = list.get(list.size() - 1);
-                last.setToTime(info == null ? Integer.MAX_VALUE : info.getLength() * 1000 + 1000);
-            }
+            });
+            //无论怎么样,加上歌名做为第一句歌词,
+            //每一句的结尾都是下一句的开始
+            long[] from = new long[n + 1];
+            long[] to = new long[n + 1];
+            String[] content = new String[n + 1];
+            content[0] = info.getFormattedName();
+            for (int i = 0; i < n; i++) {
+                from[i + 1] = parser.getTime(order[i]);
+                content[i + 1] = parser.getContent(order[i]);
+                to[i] = from[i + 1] - 1;
+            }
+            to[n] = info == null ? Integer.MAX_VALUE : info.getLength() * 1000 + 1000;
+            timeline = new LyricTimeline(from, to, content);
         } catch (Exception ex) {
             Logger.getLogger(Lyric.class.getName()).log(Level.SEVERE, null, ex);
         }
     }
 
-    /**
-     * 分析出整体的偏移量
-     * @param str 包含内容的字符串
-     * @return 偏移量，当分析不出来，则返回最大的正数
-     */
-    private int parseOffset(String str) {
-        String[] ss = str.split("\\:");
-        if (ss.length == 2) {
-            if (ss[0].equalsIgnoreCase("offset")) {
-                int os = Integer.parseInt(ss[1]);
-                System.err.println("整体的偏移量：" + os);
-                return os;
-            } else {
-                return Integer.MAX_VALUE;
-            }
-        } else {
-            return Integer.MAX_VALUE;
-        }
-    }
-
-    /**
-     * 分析这一行的内容，根据这内容
-     * 以及标签的数量生成若干个Sentence对象
-     * 当此行中的时间标签分布不在一起时，也要能分析出来
-     * 所以更改了一些实现
-     * 20080824更新
-     * @param line 这一行
-     */
-    private void parseLine(String line) {
-        if (line.equals("")) {
-            return;
-        }
-        Matcher matcher = pattern.matcher(line);
-        List<String> temp = new ArrayList<String>();
-        int lastIndex = -1;//最后一个时间标签的下标
-        int lastLength = -1;//最后一个时间标签的长度
-        while (matcher.find()) {
-            String s = matcher.group();
-            int index = line.indexOf("[" + s + "]");
-            if (lastIndex != -1 && index - lastIndex > lastLength + 2) {
-                //如果大于上次的大小，则中间夹了别的内容在里面
-                //这个时候就要分段了
-                String content = line.substring(lastIndex + lastLength + 2, index);
-                for (String str : temp) {
-                    long t = parseTime(str);
-                    if (t != -1) {
-                        list.add(new Sentence(content, t));
-                    }
-                }
-                temp.clear();
-            }
-            temp.add(s);
-            lastIndex = index;
-            lastLength = s.length();
-        }
-        //如果列表为空，则表示本行没有分析出任何标签
-        if (temp.isEmpty()) {
-            return;
-        }
-        try {
-            int length = lastLength + 2 + lastIndex;
-            String content = line.substring(length > line.length() ? line.length() : length);
-            if (Config.getConfig().isCutBlankChars()) {
-                content = content.trim();
-            }
-            //当已经有了偏移量的时候，就不再分析了
-            if (content.equals("") && offset == 0) {
-                for (String s : temp) {
-                    int of = parseOffset(s);
-                    if (of != Integer.MAX_VALUE) {
-                        offset = of;
-                        info.setOffset(offset);
-                        break;//只分析一次
-                    }
-                }
-                return;
-            }
-            for (String s : temp) {
-                long t = parseTime(s);
-                if (t != -1) {
-                    list.add(new Sentence(content, t));
-                }
+    private static boolean isBlank(char[] buf, int length) {
+        for (int i = 0; i < length; i++) {
+            if (buf[i] > ' ') {
+                return false;
             }
-        } catch (Exception exe) {
-        }
-    }
-
-    /**
-     * 把如00:00.00这样的字符串转化成
-     * 毫秒数的时间，比如 
-     * 01:10.34就是一分钟加上10秒再加上340毫秒
-     * 也就是返回70340毫秒
-     * @param time 字符串的时间
-     * @return 此时间表示的毫秒
-     */
-    private long parseTime(String time) {
-        String[] ss = time.split("\\:|\\.");
-        //如果 是两位以后，就非法了
-        if (ss.length < 2) {
-            return -1;
-        } else if (ss.length == 2) {//如果正好两位，就算分秒
-            try {
-                //先看有没有一个是记录了整体偏移量的
-                if (offset == 0 && ss[0].equalsIgnoreCase("offset")) {
-                    offset = Integer.parseInt(ss[1]);
-                    info.setOffset(offset);
-                    System.err.println("整体的偏移量：" + offset);
-                    return -1;
-                }
-                int min = Integer.parseInt(ss[0]);
-                int sec = Integer.parseInt(ss[1]);
-                if (min < 0 || sec < 0 || sec >= 60) {
-                    throw new RuntimeException("数字不合法!");
-                }
-                return (min * 60 + sec) * 1000L;
-            } catch (Exception exe) {
-                return -1;
-            }
-        } else if (ss.length == 3) {//如果正好三位，就算分秒，十毫秒
-            try {
-                int min = Integer.parseInt(ss[0]);
-                int sec = Integer.parseInt(ss[1]);
-                int mm = Integer.parseInt(ss[2]);
-                if (min < 0 || sec < 0 || sec >= 60 || mm < 0 || mm > 99) {
-                    throw new RuntimeException("数字不合法!");
-                }
-                return (min * 60 + sec) * 1000L + mm * 10;
-            } catch (Exception exe) {
-                return -1;
-            }
-        } else {//否则也非法
-            return -1;
         }
+        return true;
     }
 
     /**
@@ -538,7 +358,6 @@ public class Lyric implements Serializable {
     }
 
     private void drawKaraoke(Graphics2D gd, Sentence now, int x, int y, long t) {
-        int nowWidth = now.getContentWidth(gd);
         Color gradient = null;
         //如果要渐入渐出才去求中间色，否则直接用高亮色画
         if (Config.getConfig().isLyricShadow()) {
@@ -546,23 +365,97 @@ public class Lyric implements Serializable {
         } else {
             gradient = Config.getConfig().getLyricHilight();
         }
-        if (Config.getConfig().isKaraoke()) {
-            float f = (t - now.getFromTime()) * 1.0f / (now.getToTime() - now.getFromTime());
-            if (f > 0.98f) {
-                f = 0.98f;
-            }
-            if (x == 0) {
-                x = 1;
-            }
-            if (nowWidth == 0) {
-                nowWidth = 1;
-            }
-            gd.setPaint(new LinearGradientPaint(x, y, x + nowWidth, y, new float[]{f, f + 0.01f}, new Color[]{gradient, Config.getConfig().getLyricForeground()}));
+        if (!Config.getConfig().isKaraoke()) {
+            drawSentence(gd, now, gradient, x, y);
+            return;
+        }
+        //唱过的部份用高亮色,没唱的部份用前景色,
+        //分别剪出来画,不用每一帧都生成一个渐变
+        float f = (t - now.getFromTime()) * 1.0f / (now.getToTime() - now.getFromTime());
+        if (f > 0.98f) {
+            f = 0.98f;
+        }
+        int split = x + (int) (now.getContentWidth(gd) * f);
+        Shape clip = gd.getClip();
+        gd.clipRect(split - CLIP_SIZE, y - CLIP_SIZE, CLIP_SIZE, CLIP_SIZE * 2);
+        drawSentence(gd, now, gradient, x, y);
+        gd.setClip(clip);
+        gd.clipRect(split, y - CLIP_SIZE, CLIP_SIZE, CLIP_SIZE * 2);
+        drawSentence(gd, now, Config.getConfig().getLyricForeground(), x, y);
+        gd.setClip(clip);
+    }
+
+    /**
+     * 用某种颜色画一句歌词,高亮色和前景色的句子画一次以后就缓存成图像,
+     * 以后每一帧直接贴上去,别的颜色(渐入渐出的时候)还是直接画字
+     * @param gd 画笔
+     * @param sen 句子
+     * @param c 颜色
+     * @param x X座标
+     * @param y Y座标
+     */
+    private void drawSentence(Graphics2D gd, Sentence sen, Color c, int x, int y) {
+        BufferedImage image = getSentenceImage(gd, sen, c);
+        if (image != null) {
+            gd.drawImage(image, x - IMAGE_PAD, y - IMAGE_PAD, null);
         } else {
-            gd.setPaint(gradient);
+            gd.setColor(c);
+            Util.drawString(gd, sen.getContent(), x, y);
         }
+    }
 
-        Util.drawString(gd, now.getContent(), x, y);
+    /**
+     * 得到一句歌词画好了的图像,字体,颜色或者抗锯齿设置改了缓存就全部不要了
+     * @return 图像,不是高亮色也不是前景色的时候就是NULL
+     */
+    private BufferedImage getSentenceImage(Graphics2D gd, Sentence sen, Color c) {
+        Font font = gd.getFont();
+        int version = Config.getConfig().getLyricStyleVersion();
+        if (hilightImages == null || !font.equals(imageFont) || version != imageVersion) {
+            hilightImages = new ImageCache();
+            foregroundImages = new ImageCache();
+            imageFont = font;
+            imageVersion = version;
+        }
+        Map<Sentence, BufferedImage> images = null;
+        if (c.equals(Config.getConfig().getLyricHilight())) {
+            images = hilightImages;
+        } else if (c.equals(Config.getConfig().getLyricForeground())) {
+            images = foregroundImages;
+        } else {
+            return null;
+        }
+        BufferedImage image = images.get(sen);
+        if (image == null) {
+            int w = sen.getContentWidth(gd) + IMAGE_PAD * 2;
+            int h = gd.getFontMetrics().getHeight() + IMAGE_PAD * 2;
+            image = gd.getDeviceConfiguration().createCompatibleImage(w, h, Transparency.TRANSLUCENT);
+            Graphics2D ig = image.createGraphics();
+            ig.setRenderingHints(gd.getRenderingHints());
+            ig.setFont(font);
+            ig.setColor(c);
+            Util.drawString(ig, sen.getContent(), IMAGE_PAD, IMAGE_PAD);
+            ig.dispose();
+            images.put(sen, image);
+        }
+        return image;
+    }
+
+    /**
+     * 只留最近画过的那些句子的图像,几个小时的歌词也不会占太多内存
+     */
+    private static class ImageCache extends LinkedHashMap<Sentence, BufferedImage> {
+
+        private static final long serialVersionUID = 1L;
+
+        ImageCache() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Sentence, BufferedImage> eldest) {
+            return size() > IMAGE_CACHE_SIZE;
+        }
     }
 
     /**
@@ -591,8 +484,8 @@ public class Lyric implements Serializable {
         }
         //如果只存在一句的话,那就不要浪费那么多计算的时候了
         //直接画在中间就可以了
-        if (list.size() == 1) {
-            Sentence sen = list.get(0);
+        if (timeline.size() == 1) {
+            Sentence sen = timeline.get(0);
             int x = (width - sen.getContentWidth(g)) / 2;
             int y = (height - sen.getContentHeight(g) + Config.getConfig().getV_SPACE()) / 2;
             g.setColor(Config.getConfig().getLyricHilight());
@@ -613,42 +506,37 @@ public class Lyric implements Serializable {
                 Util.drawString(g, sen.getContent(), x, y);
                 return;
             }
-            Sentence now = list.get(index);
+            Sentence now = timeline.get(index);
             int nowWidth = now.getContentWidth(g) + Config.getConfig().getH_SPACE();
             int x = (width) / 2 - now.getHIncrease(g, t);
             int y = (height - now.getContentHeight(g)) / 2;
             this.drawKaraoke(gd, now, x, y, t);
-            gd.setPaint(Config.getConfig().getLyricForeground());
             int tempX = x;
             //画出中间那句之前的句子
             for (int i = index - 1; i >= 0; i--) {
-                Sentence sen = list.get(i);
+                Sentence sen = timeline.get(i);
                 int wid = sen.getContentWidth(g) + Config.getConfig().getH_SPACE();
                 tempX = tempX - wid;
                 if (tempX + wid < 0) {
                     break;
                 }
-                if (Config.getConfig().isLyricShadow()) {
-                    if (i == index - 1) {
-                        gd.setPaint(sen.getBestOutColor(Config.getConfig().getLyricHilight(),
-                                Config.getConfig().getLyricForeground(), time));
-                    } else {
-                        gd.setPaint(Config.getConfig().getLyricForeground());
-                    }
+                Color c = Config.getConfig().getLyricForeground();
+                if (Config.getConfig().isLyricShadow() && i == index - 1) {
+                    c = sen.getBestOutColor(Config.getConfig().getLyricHilight(),
+                            Config.getConfig().getLyricForeground(), time);
                 }
-                Util.drawString(g, sen.getContent(), tempX, y);
+                drawSentence(gd, sen, c, tempX, y);
             }
-            gd.setPaint(Config.getConfig().getLyricForeground());
             tempX = x;
             int tempWidth = nowWidth;
             //画出中间那句之后的句子
-            for (int i = index + 1; i < list.size(); i++) {
-                Sentence sen = list.get(i);
+            for (int i = index + 1; i < timeline.size(); i++) {
+                Sentence sen = timeline.get(i);
                 tempX = tempX + tempWidth;
                 if (tempX > width) {
                     break;
                 }
-                Util.drawString(g, sen.getContent(), tempX, y);
+                drawSentence(gd, sen, Config.getConfig().getLyricForeground(), tempX, y);
                 tempWidth = sen.getContentWidth(g) + Config.getConfig().getH_SPACE();
             }
         }
@@ -660,8 +548,8 @@ public class Lyric implements Serializable {
      */
     public int getMaxWidth(Graphics g) {
         int max = 0;
-        for (Sentence sen : list) {
-            int w = sen.getContentWidth(g);
+        for (int i = 0; i < timeline.size(); i++) {
+            int w = timeline.get(i).getContentWidth(g);
             if (w > max) {
                 max = w;
             }
@@ -721,8 +609,8 @@ public class Lyric implements Serializable {
         }
         //如果只存在一句的话,那就不要浪费那么多计算的时候了
         //直接画在中间就可以了
-        if (list.size() == 1) {
-            Sentence sen = list.get(0);
+        if (timeline.size() == 1) {
+            Sentence sen = timeline.get(0);
             int x = getSentenceX(g, sen);
             int y = (height - sen.getContentHeight(g)) / 2;
             g.setColor(Config.getConfig().getLyricHilight());
@@ -742,44 +630,39 @@ public class Lyric implements Serializable {
                 Util.drawString(g, sen.getContent(), x, y);
                 return;
             }
-            Sentence now = list.get(index);
+            Sentence now = timeline.get(index);
             //先求出中间的最基准的纵座标
             int y = (height + now.getContentHeight(g)) / 2 - now.getVIncrease(g, t);
             int x = getSentenceX(g, now);
             this.drawKaraoke(gd, now, x, y, t);
-            gd.setColor(Config.getConfig().getLyricForeground());
             //然后再画上面的部份以及下面的部份
             //这样就可以保证正在唱的歌词永远在正中间显示
             int tempY = y;
             //画出本句之前的句子
             for (int i = index - 1; i >= 0; i--) {
-                Sentence sen = list.get(i);
+                Sentence sen = timeline.get(i);
                 int x1 = getSentenceX(g, sen);
                 tempY = tempY - sen.getContentHeight(g) - Config.getConfig().getV_SPACE();
                 if (tempY + sen.getContentHeight(g) < 0) {
                     break;
                 }
-                if (Config.getConfig().isLyricShadow()) {
-                    if (i == index - 1) {
-                        gd.setColor(sen.getBestOutColor(Config.getConfig().getLyricHilight(),
-                                Config.getConfig().getLyricForeground(), time));
-                    } else {
-                        gd.setColor(Config.getConfig().getLyricForeground());
-                    }
+                Color c = Config.getConfig().getLyricForeground();
+                if (Config.getConfig().isLyricShadow() && i == index - 1) {
+                    c = sen.getBestOutColor(Config.getConfig().getLyricHilight(),
+                            Config.getConfig().getLyricForeground(), time);
                 }
-                Util.drawString(g, sen.getContent(), x1, tempY);
+                drawSentence(gd, sen, c, x1, tempY);
             }
-            gd.setColor(Config.getConfig().getLyricForeground());
             tempY = y;
             //画出本句之后的句子 
-            for (int i = index + 1; i < list.size(); i++) {
-                Sentence sen = list.get(i);
+            for (int i = index + 1; i < timeline.size(); i++) {
+                Sentence sen = timeline.get(i);
                 int x1 = getSentenceX(g, sen);
                 tempY = tempY + sen.getContentHeight(g) + Config.getConfig().getV_SPACE();
                 if (tempY > height) {
                     break;
                 }
-                Util.drawString(g, sen.getContent(), x1, tempY);
+                drawSentence(gd, sen, Config.getConfig().getLyricForeground(), x1, tempY);
             }
         }
     }
@@ -791,13 +674,7 @@ public class Lyric implements Serializable {
      * @return 下标
      */
     private int getNowSentenceIndex(long t) {
-        for (int i = 0; i < list.size(); i++) {
-            if (list.get(i).isInTime(t)) {
-                return i;
-            }
-        }
-//        throw new RuntimeException("竟然出现了找不到的情况！");
-        return -1;
+        return timeline.indexOf(t);
     }
 
     /**
@@ -808,12 +685,12 @@ public class Lyric implements Serializable {
      * @param g 画笔,因为对于每一个画笔长度不一样的
      */
     public void moveH(int length, Graphics g) {
-        if (list.size() == 1 || !enabled) {
+        if (timeline.size() == 1 || !enabled) {
             return;
         }
         //如果长度是大于0的,则说明是正向移动,快进
         if (length > 0) {
-            Sentence now = list.get(currentIndex);
+            Sentence now = timeline.get(currentIndex);
             int nowWidth = now.getContentWidth(g);
             float f = (time - now.getFromTime()) * 1.0f / (now.getToTime() - now.getFromTime());
             //先算出当前的这一句还剩多少长度了
@@ -824,8 +701,8 @@ public class Lyric implements Serializable {
                 timeAdd = now.getTimeH(length, g);
             } else {
                 timeAdd = now.getTimeH(rest, g);
-                for (int i = currentIndex; i < list.size(); i++) {
-                    Sentence sen = list.get(i);
+                for (int i = currentIndex; i < timeline.size(); i++) {
+                    Sentence sen = timeline.get(i);
                     int len = sen.getContentWidth(g);
                     //如果加上下一句的长度还不够,就把时间再加,继续下一句
                     if (len + rest < length) {
@@ -841,7 +718,7 @@ public class Lyric implements Serializable {
             checkTempTime();
         } else {//否则就是反向移动,要快退了
             length = 0 - length;//取它的正数
-            Sentence now = list.get(currentIndex);
+            Sentence now = timeline.get(currentIndex);
             int nowWidth = now.getContentWidth(g);
             float f = (time - now.getFromTime()) * 1.0f / (now.getToTime() - now.getFromTime());
             //先算出当前的这一句已经用了多少长度了
@@ -853,7 +730,7 @@ public class Lyric implements Serializable {
             } else {
                 timeAdd = now.getTimeH(rest, g);
                 for (int i = currentIndex; i > 0; i--) {
-                    Sentence sen = list.get(i);
+                    Sentence sen = timeline.get(i);
                     int len = sen.getContentWidth(g);
                     //如果加上下一句的长度还不够,就把时间再加,继续下一句
                     if (len + rest < length) {
@@ -878,12 +755,12 @@ public class Lyric implements Serializable {
      * @param g 画笔,因为对于每一个画笔长度不一样的
      */
     public void moveV(int length, Graphics g) {
-        if (list.size() == 1 || !enabled) {
+        if (timeline.size() == 1 || !enabled) {
             return;
         }
         //如果长度是大于0的,则说明是正向移动,快进
         if (length > 0) {
-            Sentence now = list.get(currentIndex);
+            Sentence now = timeline.get(currentIndex);
             int nowHeight = now.getContentHeight(g);
             float f = (time - now.getFromTime()) * 1.0f / (now.getToTime() - now.getFromTime());
             //先算出当前的这一句还剩多少长度了
@@ -894,8 +771,8 @@ public class Lyric implements Serializable {
                 timeAdd = now.getTimeV(length, g);
             } else {
                 timeAdd = now.getTimeV(rest, g);
-                for (int i = currentIndex; i < list.size(); i++) {
-                    Sentence sen = list.get(i);
+                for (int i = currentIndex; i < timeline.size(); i++) {
+                    Sentence sen = timeline.get(i);
                     int len = sen.getContentHeight(g);
                     //如果加上下一句的长度还不够,就把时间再加,继续下一句
                     if (len + rest < length) {
@@ -911,7 +788,7 @@ public class Lyric implements Serializable {
             checkTempTime();
         } else {//否则就是反向移动,要快退了
             length = 0 - length;//取它的正数
-            Sentence now = list.get(currentIndex);
+            Sentence now = timeline.get(currentIndex);
             int nowHeight = now.getContentHeight(g);
             float f = (time - now.getFromTime()) * 1.0f / (now.getToTime() - now.getFromTime());
             //先算出当前的这一句已经用了多少长度了
@@ -923,7 +800,7 @@ public class Lyric implements Serializable {
             } else {
                 timeAdd = now.getTimeV(rest, g);
                 for (int i = currentIndex; i > 0; i--) {
-                    Sentence sen = list.get(i);
+                    Sentence sen = timeline.get(i);
                     int len = sen.getContentHeight(g);
                     //如果加上下一句的长度还不够,就把时间再加,继续下一句
                     if (len + rest < length) {
@@ -945,7 +822,7 @@ public class Lyric implements Serializable {
      * @return 能否拖动
      */
     public boolean canMove() {
-        return list.size() > 1 && enabled;
+        return timeline.size() > 1 && enabled;
     }
 
     /**
@@ -0,0 +1,169 @@
+package org.batchexecutor.lyric;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.batchexecutor.playlist.PlayListItem;
+import org.batchexecutor.util.Util;
+
+/**
+ * 专门用来跑歌词搜索的执行器,搜索歌词基本上都是在等网络,
+ * 所以一个搜索一个线程,能同时跑几千个
+ * 运行在有虚拟线程的JDK上时,每个任务用一个虚拟线程,
+ * 否则就退回到一个很大的线程池
+ * 每个主机的并发数由{@link org.batchexecutor.util.HostLimiter}来限制
+ * @author SnowWolf725
+ */
+public final class LyricFetchExecutor {
+
+    private static final Logger log = Logger.getLogger(LyricFetchExecutor.class.getName());
+    private static final int MAX_PLATFORM_THREADS = 512;//没有虚拟线程时,线程池的最大线程数
+    private static final LyricFetchExecutor instance = new LyricFetchExecutor();
+    private final ExecutorService executor;
+    private final boolean virtual;
+
+    private LyricFetchExecutor() {
+        ExecutorService es = createVirtualExecutor();
+        virtual = es != null;
+        if (es == null) {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(MAX_PLATFORM_THREADS, MAX_PLATFORM_THREADS,
+                    60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+                private final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "lyric-fetch-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            pool.allowCoreThreadTimeOut(true);
+            es = pool;
+        }
+        executor = es;
+        log.log(Level.INFO, "歌词搜索执行器,虚拟线程=" + virtual);
+    }
+
+    public static LyricFetchExecutor getDefault() {
+        return instance;
+    }
+
+    /**
+     * 是否是用虚拟线程在跑
+     * @return 是否
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * 提交一个任务
+     * @param task 任务
+     * @return 任务的结果
+     */
+    public <T> Future<T> submit(Callable<T> task) {
+        return executor.submit(task);
+    }
+
+    /**
+     * 同时跑几个按优先级排好的搜索,返回排在最前面的有结果的那个
+     * 排在前面的搜索有结果了,后面的就马上取消掉;
+     * 排在前面的没结果,才会用后面的结果,所以和一个一个按顺序搜的结果一样,
+     * 只是花的时间是最慢的那个,而不是全部加起来
+     * 调用的线程在等的时候会自己去跑还没开始的任务,
+     * 所以在这个执行器自己的线程里调用也不会因为线程用完了而死锁
+     * @param tasks 搜索,没结果的时候返回NULL
+     * @return 结果,都没有就是NULL
+     * @throws ExecutionException 都没有结果,并且有的出错了,抛出第一个错误
+     * @throws InterruptedException
+     */
+    public <T> T firstFound(List<? extends Callable<T>> tasks) throws ExecutionException, InterruptedException {
+        List<FutureTask<T>> futures = new ArrayList<FutureTask<T>>(tasks.size());
+        for (int i = 0; i < tasks.size(); i++) {
+            FutureTask<T> f = new FutureTask<T>(tasks.get(i));
+            futures.add(f);
+            if (i > 0) {//第一个自己跑
+                executor.execute(f);
+            }
+        }
+        ExecutionException error = null;
+        try {
+            for (FutureTask<T> f : futures) {
+                f.run();//已经在别的线程开始了的话什么都不做
+                try {
+                    T t = f.get();
+                    if (t != null) {
+                        return t;
+                    }
+                } catch (ExecutionException ex) {
+                    log.log(Level.FINE, "搜索出错了", ex.getCause());
+                    if (error == null) {
+                        error = ex;
+                    }
+                }
+            }
+            if (error != null) {
+                throw error;
+            }
+            return null;
+        } finally {
+            for (FutureTask<T> f : futures) {
+                f.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * 在后台初始化一首歌的歌词,先本地再网络,找到了就保存下来
+     * @param info 歌曲信息
+     * @return 初始化好的歌词
+     */
+    public Future<Lyric> load(final PlayListItem info) {
+        return executor.submit(new Callable<Lyric>() {
+
+            public Lyric call() throws Exception {
+                return new Lyric(info);
+            }
+        });
+    }
+
+    /**
+     * 在后台去网络上搜索一首歌的歌词内容
+     * @param info 歌曲信息
+     * @return 歌词内容,可能为NULL
+     */
+    public Future<String> fetch(final PlayListItem info) {
+        return executor.submit(new Callable<String>() {
+
+            public String call() throws Exception {
+                return Util.getLyric(info);
+            }
+        });
+    }
+
+    /**
+     * 通过反射去取JDK的虚拟线程执行器,这样在旧的JDK上也能编译和运行
+     * @return 执行器,JDK不支持时返回NULL
+     */
+    private static ExecutorService createVirtualExecutor() {
+        try {
+            Method m = java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (Exception ex) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package org.batchexecutor.lyric;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.batchexecutor.playlist.PlayListItem;
+import org.batchexecutor.util.Config;
+
+/**
+ * 本地歌词文件的索引,以前每首歌都要把每个搜索目录列一遍,
+ * 再一个一个去比文件名,歌词文件一多就很慢
+ * 现在每个目录只在第一次用的时候列一次,文件名去掉扩展名,转小写以后
+ * 放到一个表里,以后查一首歌就是查几次表
+ * 保存了新的歌词要调{@link #added(File)},这样就不用重新列目录了;
+ * 别的程序往目录里放了歌词,目录的修改时间会变,下次查的时候会重新列一次
+ * 匹配的规则和以前一样:文件名是"歌手 - 歌名"或者只是歌名,不分大小写
+ * @author SnowWolf725
+ */
+public final class LyricFileIndex {
+
+    private static final Logger log = Logger.getLogger(LyricFileIndex.class.getName());
+    private static final LyricFileIndex instance = new LyricFileIndex();
+    private final Map<File, DirIndex> dirs = new ConcurrentHashMap<File, DirIndex>();
+
+    /**
+     * 一个目录里的歌词文件
+     */
+    private static class DirIndex {
+
+        final Map<String, File> files = new HashMap<String, File>();//小写的名字->文件
+        long modified;//列目录的时候,目录的修改时间
+    }
+
+    private LyricFileIndex() {
+    }
+
+    public static LyricFileIndex getDefault() {
+        return instance;
+    }
+
+    /**
+     * 在{@link Config#getSearchLyricDirs()}里面找一首歌的歌词文件,
+     * 按目录的顺序,先找"歌手 - 歌名",再找歌名
+     * @param info 歌曲信息
+     * @return 歌词文件,没有就是NULL
+     */
+    public File find(PlayListItem info) {
+        String name = info.getFormattedName();
+        String title = info.getTitle();
+        for (File dir : Config.getConfig().getSearchLyricDirs()) {
+            //如果还不存在的话,那建一个目录
+            if (!dir.exists()) {
+                dir.mkdirs();
+            }
+            DirIndex index = getIndex(dir);
+            synchronized (index) {
+                File f = name == null ? null : index.files.get(key(name));
+                if (f == null && title != null) {
+                    f = index.files.get(key(title));
+                }
+                if (f != null) {
+                    return f;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 一个歌词文件还在不在,用它所在目录的索引来查,目录没变就不用再碰文件
+     * @param lrc 歌词文件
+     * @return 在就是true
+     */
+    public boolean exists(File lrc) {
+        File dir = lrc.getAbsoluteFile().getParentFile();
+        if (dir == null) {
+            return lrc.exists();
+        }
+        DirIndex index = getIndex(dir);
+        synchronized (index) {
+            File f = index.files.get(key(baseName(lrc.getName())));
+            if (f == null) {
+                return false;
+            }
+            if (f.getName().equals(lrc.getName())) {
+                return true;
+            }
+        }
+        return lrc.exists();//只是大小写不一样
+    }
+
+    /**
+     * 新保存了一个歌词文件,如果它所在的目录已经索引过了就加进去
+     * @param lrc 歌词文件
+     */
+    public void added(File lrc) {
+        File dir = lrc.getAbsoluteFile().getParentFile();
+        DirIndex index = dir == null ? null : dirs.get(dir);
+        if (index == null) {
+            return;
+        }
+        synchronized (index) {
+            index.files.put(key(baseName(lrc.getName())), lrc);
+            index.modified = dir.lastModified();
+        }
+    }
+
+    /**
+     * 清空索引,下次用的时候重新列目录
+     */
+    public void clear() {
+        dirs.clear();
+    }
+
+    private DirIndex getIndex(File dir) {
+        File key = dir.getAbsoluteFile();
+        DirIndex index = dirs.get(key);
+        long modified = key.lastModified();
+        if (index != null) {
+            synchronized (index) {
+                if (index.modified == modified) {
+                    return index;
+                }
+            }
+        }
+        index = build(key, modified);
+        dirs.put(key, index);
+        return index;
+    }
+
+    private DirIndex build(File dir, long modified) {
+        DirIndex index = new DirIndex();
+        index.modified = modified;
+        DirectoryStream<Path> stream = null;
+        try {
+            stream = Files.newDirectoryStream(dir.toPath(), new DirectoryStream.Filter<Path>() {
+
+                public boolean accept(Path p) {
+                    return p.getFileName().toString().toLowerCase(Locale.ENGLISH).endsWith(".lrc");
+                }
+            });
+            for (Path p : stream) {
+                String lower = key(baseName(p.getFileName().toString()));
+                if (!index.files.containsKey(lower)) {
+                    index.files.put(lower, p.toFile());
+                }
+            }
+        } catch (IOException ex) {
+            log.log(Level.WARNING, "不能列出" + dir, ex);
+        } finally {
+            try {
+                if (stream != null) {
+                    stream.close();
+                }
+            } catch (IOException ex) {
+            }
+        }
+        log.log(Level.FINE, dir + "里有" + index.files.size() + "个歌词文件");
+        return index;
+    }
+
+    private static String baseName(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? name : name.substring(0, dot);
+    }
+
+    private static String key(String name) {
+        return name.toLowerCase(Locale.ENGLISH);
+    }
+}
@@ -0,0 +1,219 @@
+package org.batchexecutor.lyric;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import org.batchexecutor.playlist.PlayListItem;
+import org.batchexecutor.util.Config;
+
+/**
+ * 记住哪些歌在网上是找不到歌词的,在有效期内就不再去搜了
+ * 以前网上没有歌词的歌每次批处理,每次构造{@link Lyric}都要重新搜一遍,
+ * 白白花掉好几个网络请求
+ * 按来源和规范化以后的(歌手,歌名)来记,规范化就是转小写,
+ * 去掉标点和多余的空白,有效期由{@link Config#getLyricMissTTL()}设定
+ * 只有真的搜完了没找到才记,网络出错的不算
+ * 歌名规范化以后是空的歌分不清是哪一首,既不记也不查
+ * 记录追加写在{@link Config#HOME}下面的lyric-miss.log里,
+ * 启动的时候读一遍,过期的多了就重写一次
+ * @author SnowWolf725
+ */
+public final class LyricMissCache {
+
+    private static final Logger log = Logger.getLogger(LyricMissCache.class.getName());
+    /** 所有来源都没找到 */
+    public static final String ALL = "all";
+    private static final Pattern NOISE = Pattern.compile("[\\p{Punct}\\p{Space}\\u3000-\\u303f\\uff01-\\uff0f]+");
+    private static LyricMissCache instance;
+    private final File file;
+    private final Map<String, Long> expires = new HashMap<String, Long>();//键->过期的时间
+    private DataOutputStream out;
+
+    private LyricMissCache(File file) {
+        this.file = file;
+        load();
+    }
+
+    public static synchronized LyricMissCache getDefault() {
+        if (instance == null) {
+            instance = new LyricMissCache(new File(Config.HOME, "lyric-miss.log"));
+        }
+        return instance;
+    }
+
+    /**
+     * 这首歌在这个来源上是不是最近搜过没找到
+     * @param source 来源
+     * @param artist 歌手
+     * @param title 歌名
+     * @return 是的话就不用再搜了
+     */
+    public synchronized boolean isMissing(String source, String artist, String title) {
+        String key = key(source, artist, title);
+        if (key == null) {
+            return false;
+        }
+        Long time = expires.get(key);
+        return time != null && time.longValue() > System.currentTimeMillis();
+    }
+
+    public boolean isMissing(String source, PlayListItem info) {
+        return isMissing(source, info.getArtist(), info.getTitle());
+    }
+
+    /**
+     * 记下这首歌在这个来源上没找到
+     */
+    public void missed(String source, String artist, String title) {
+        String key = key(source, artist, title);
+        if (key == null) {
+            return;
+        }
+        write(key, System.currentTimeMillis() + Config.getConfig().getLyricMissTTL());
+    }
+
+    public void missed(String source, PlayListItem info) {
+        missed(source, info.getArtist(), info.getTitle());
+    }
+
+    /**
+     * 这首歌在这个来源上找到了,以前的记录就不要了
+     */
+    public void found(String source, String artist, String title) {
+        String key = key(source, artist, title);
+        if (key == null) {
+            return;
+        }
+        synchronized (this) {
+            if (!expires.containsKey(key)) {
+                return;
+            }
+        }
+        write(key, 0);
+    }
+
+    public void found(String source, PlayListItem info) {
+        found(source, info.getArtist(), info.getTitle());
+    }
+
+    public synchronized int size() {
+        return expires.size();
+    }
+
+    /**
+     * 规范化歌手和歌名,大小写,标点和空白不同的都算同一首
+     * @return 歌名规范化以后是空的就是NULL,不然所有没歌名的歌都成了同一首
+     */
+    static String key(String source, String artist, String title) {
+        String t = normalize(title);
+        if (t.length() == 0) {
+            return null;
+        }
+        return source + '\u0000' + normalize(artist) + '\u0000' + t;
+    }
+
+    static String normalize(String s) {
+        if (s == null) {
+            return "";
+        }
+        return NOISE.matcher(s.toLowerCase(Locale.ENGLISH)).replaceAll(" ").trim();
+    }
+
+    private synchronized void write(String key, long time) {
+        if (time > 0) {
+            expires.put(key, Long.valueOf(time));
+        } else {
+            expires.remove(key);
+        }
+        try {
+            if (out == null) {
+                file.getParentFile().mkdirs();
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+            }
+            out.writeUTF(key);
+            out.writeLong(time);
+            out.flush();
+        } catch (IOException ex) {
+            log.log(Level.WARNING, "不能写" + file, ex);
+        }
+    }
+
+    /**
+     * 读出还没过期的记录,过期的占了一半以上就重写文件
+     */
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+        int records = 0;
+        boolean partial = false;
+        long now = System.currentTimeMillis();
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            while (true) {
+                in.mark(1);
+                if (in.read() < 0) {
+                    break;
+                }
+                in.reset();
+                String key = in.readUTF();
+                long time = in.readLong();
+                records++;
+                if (time > now) {
+                    expires.put(key, Long.valueOf(time));
+                } else {
+                    expires.remove(key);
+                }
+            }
+        } catch (EOFException ex) {
+            partial = true;//最后一条没写完
+        } catch (IOException ex) {
+            log.log(Level.WARNING, "不能读" + file, ex);
+        } finally {
+            try {
+                if (in != null) {
+                    in.close();
+                }
+            } catch (IOException ex) {
+            }
+        }
+        if (partial || records > expires.size() * 2) {
+            compact();
+        }
+    }
+
+    private void compact() {
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                for (Map.Entry<String, Long> e : expires.entrySet()) {
+                    dos.writeUTF(e.getKey());
+                    dos.writeLong(e.getValue().longValue());
+                }
+            } finally {
+                dos.close();
+            }
+            file.delete();
+            if (!temp.renameTo(file)) {
+                log.log(Level.WARNING, "不能重写" + file);
+            }
+        } catch (IOException ex) {
+            log.log(Level.WARNING, "不能重写" + file, ex);
+        }
+    }
+}
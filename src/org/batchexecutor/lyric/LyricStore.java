@@ -0,0 +1,280 @@
+package org.batchexecutor.lyric;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.batchexecutor.playlist.PlayListItem;
+import org.batchexecutor.util.Config;
+
+/**
+ * 本地的歌词库,所有下载过的歌词都在这里存一份,
+ * 同一首歌在不同的文件夹里有好几份的时候,只要下载一次
+ * 歌词的内容按SHA-1存成文件(objects/前两位/后面的.lrc),一样的内容只存一份;
+ * 规范化以后的(歌手,歌名)到SHA-1的对应关系放在内存里的一个表里,查一次是O(1)的,
+ * 这个表追加写在index文件里,启动的时候读一遍
+ * 歌名规范化以后是空的歌分不清是哪一首,不存也不取
+ * 放到歌曲旁边的歌词文件是复制出来的,随便改都不会动到库里的;
+ * 库里的文件是只读的,读的时候还会对一下SHA-1,对不上的就不要了
+ * @author SnowWolf725
+ */
+public final class LyricStore {
+
+    private static final Logger log = Logger.getLogger(LyricStore.class.getName());
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static LyricStore instance;
+    private final File objects;
+    private final File indexFile;
+    private final Map<String, String> index = new HashMap<String, String>();//键->SHA-1
+    private DataOutputStream out;
+
+    private LyricStore(File dir) {
+        this.objects = new File(dir, "objects");
+        this.indexFile = new File(dir, "index");
+        load();
+    }
+
+    public static synchronized LyricStore getDefault() {
+        if (instance == null) {
+            instance = new LyricStore(new File(Config.HOME, "store"));
+        }
+        return instance;
+    }
+
+    /**
+     * 从库里取一首歌的歌词
+     * @param info 歌曲信息
+     * @return 歌词内容,没有就是NULL
+     */
+    public String get(PlayListItem info) {
+        File blob = getFile(info);
+        if (blob == null) {
+            return null;
+        }
+        try {
+            byte[] data = Files.readAllBytes(blob.toPath());
+            if (!blob.equals(blob(sha1(data)))) {
+                log.log(Level.WARNING, blob + "被改过了,不要了");
+                discard(blob);
+                return null;
+            }
+            return new String(data, UTF8);
+        } catch (IOException ex) {
+            log.log(Level.WARNING, "读不了" + blob, ex);
+            return null;
+        }
+    }
+
+    /**
+     * @param info 歌曲信息
+     * @return 库里存这首歌的歌词的文件,没有就是NULL
+     */
+    public File getFile(PlayListItem info) {
+        String key = key(info.getArtist(), info.getTitle());
+        if (key == null) {
+            return null;
+        }
+        String sha;
+        synchronized (this) {
+            sha = index.get(key);
+        }
+        if (sha == null) {
+            return null;
+        }
+        File blob = blob(sha);
+        return blob.exists() ? blob : null;
+    }
+
+    /**
+     * 把一首歌的歌词存到库里
+     * @param info 歌曲信息
+     * @param lyric 歌词内容
+     * @return 存歌词的文件,歌名是空的不存,就是NULL
+     * @throws IOException
+     */
+    public File put(PlayListItem info, String lyric) throws IOException {
+        String key = key(info.getArtist(), info.getTitle());
+        if (key == null) {
+            return null;
+        }
+        byte[] data = lyric.getBytes(UTF8);
+        String sha = sha1(data);
+        File blob = blob(sha);
+        if (blob.exists() && !sha.equals(sha1(Files.readAllBytes(blob.toPath())))) {
+            log.log(Level.WARNING, blob + "被改过了,重新存");
+            discard(blob);
+        }
+        if (!blob.exists()) {
+            blob.getParentFile().mkdirs();
+            File temp = File.createTempFile("lrc", ".tmp", blob.getParentFile());
+            try {
+                Files.write(temp.toPath(), data);
+                Files.move(temp.toPath(), blob.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                blob.setReadOnly();
+            } catch (FileAlreadyExistsException ex) {
+                //别的线程刚存了一样的内容
+            } finally {
+                temp.delete();
+            }
+        }
+        synchronized (this) {
+            if (!sha.equals(index.put(key, sha))) {
+                append(key, sha);
+            }
+        }
+        return blob;
+    }
+
+    /**
+     * 把库里的歌词复制到指定的地方,不用硬链接,
+     * 不然改了旁边的歌词文件,库里的和别的歌的也跟着变了
+     * 先复制到旁边的临时文件,再改名过去,原来有的话会被换掉
+     * 按内容复制,库里文件的只读属性不会带过去
+     * @param blob 库里的文件
+     * @param target 放到哪里
+     * @throws IOException
+     */
+    public void materialize(File blob, File target) throws IOException {
+        Path temp = Files.createTempFile(target.getAbsoluteFile().getParentFile().toPath(), "lrc", ".tmp");
+        try {
+            Files.delete(temp);
+            InputStream in = Files.newInputStream(blob.toPath());
+            try {
+                Files.copy(in, temp);
+            } finally {
+                in.close();
+            }
+            Files.move(temp, target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    public synchronized int size() {
+        return index.size();
+    }
+
+    private static String key(String artist, String title) {
+        String t = LyricMissCache.normalize(title);
+        if (t.length() == 0) {
+            return null;
+        }
+        return LyricMissCache.normalize(artist) + '\u0000' + t;
+    }
+
+    private File blob(String sha) {
+        return new File(new File(objects, sha.substring(0, 2)), sha.substring(2) + ".lrc");
+    }
+
+    /**
+     * 删掉库里一个内容不对的文件,它是只读的,要先改回来
+     */
+    private static void discard(File blob) {
+        blob.setWritable(true);
+        if (!blob.delete()) {
+            log.log(Level.WARNING, "删不掉" + blob);
+        }
+    }
+
+    private static String sha1(byte[] data) {
+        try {
+            byte[] d = MessageDigest.getInstance("SHA-1").digest(data);
+            StringBuilder sb = new StringBuilder(d.length * 2);
+            for (byte b : d) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private void append(String key, String sha) {
+        try {
+            if (out == null) {
+                indexFile.getParentFile().mkdirs();
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile, true)));
+            }
+            out.writeUTF(key);
+            out.writeUTF(sha);
+            out.flush();
+        } catch (IOException ex) {
+            log.log(Level.WARNING, "不能写" + indexFile, ex);
+        }
+    }
+
+    private void load() {
+        if (!indexFile.exists()) {
+            return;
+        }
+        boolean partial = false;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+            while (true) {
+                in.mark(1);
+                if (in.read() < 0) {
+                    break;
+                }
+                in.reset();
+                String key = in.readUTF();
+                String sha = in.readUTF();
+                index.put(key, sha);
+            }
+        } catch (EOFException ex) {
+            partial = true;//最后一条没写完
+        } catch (IOException ex) {
+            log.log(Level.WARNING, "不能读" + indexFile, ex);
+        } finally {
+            try {
+                if (in != null) {
+                    in.close();
+                }
+            } catch (IOException ex) {
+            }
+        }
+        if (partial) {
+            rewrite();
+        }
+        log.log(Level.INFO, "歌词库里有" + index.size() + "首歌");
+    }
+
+    /**
+     * 把表重新整个写一遍,去掉没写完的记录
+     */
+    private void rewrite() {
+        File temp = new File(indexFile.getPath() + ".tmp");
+        try {
+            DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                for (Map.Entry<String, String> e : index.entrySet()) {
+                    dos.writeUTF(e.getKey());
+                    dos.writeUTF(e.getValue());
+                }
+            } finally {
+                dos.close();
+            }
+            Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            log.log(Level.WARNING, "不能重写" + indexFile, ex);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package org.batchexecutor.lyric;
+
+import java.io.Serializable;
+
+/**
+ * 一首歌所有句子的时间轴,按起始时间排好序
+ * 起始时间,结束时间和内容分别放在三个数组里,
+ * 找某个时间在唱哪一句用二分查找,不生成任何对象,
+ * 几个小时的有声书或者串烧也一样快
+ * 画的时候要用到{@link Sentence}里的方法,所以每一句的Sentence对象
+ * 在第一次用到的时候才生成,以后就一直用那一个
+ * @author SnowWolf725
+ */
+final class LyricTimeline implements Serializable {
+
+    private static final long serialVersionUID = 20260101L;
+    private final long[] fromTime;
+    private final long[] toTime;
+    private final String[] content;
+    private transient Sentence[] sentences;
+
+    /**
+     * 三个数组的长度要一样,起始时间要从小到大排好
+     */
+    LyricTimeline(long[] fromTime, long[] toTime, String[] content) {
+        this.fromTime = fromTime;
+        this.toTime = toTime;
+        this.content = content;
+    }
+
+    /**
+     * 只有一句的时间轴
+     */
+    LyricTimeline(String content, long fromTime, long toTime) {
+        this(new long[]{fromTime}, new long[]{toTime}, new String[]{content});
+    }
+
+    int size() {
+        return fromTime.length;
+    }
+
+    long getFromTime(int i) {
+        return fromTime[i];
+    }
+
+    long getToTime(int i) {
+        return toTime[i];
+    }
+
+    String getContent(int i) {
+        return content[i];
+    }
+
+    /**
+     * @return 第i句,画的时候用
+     */
+    Sentence get(int i) {
+        if (sentences == null) {
+            sentences = new Sentence[fromTime.length];
+        }
+        Sentence sen = sentences[i];
+        if (sen == null) {
+            sen = new Sentence(content[i], fromTime[i], toTime[i]);
+            sentences[i] = sen;
+        }
+        return sen;
+    }
+
+    /**
+     * 找到这个时间正在唱的那一句
+     * 每一句的结束时间都在下一句的开始之前,所以只可能是
+     * 最后一个起始时间不大于t的那一句
+     * @param t 时间
+     * @return 下标,没有就是-1
+     */
+    int indexOf(long t) {
+        int low = 0;
+        int high = fromTime.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (fromTime[mid] <= t) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high >= 0 && t <= toTime[high] ? high : -1;
+    }
+}
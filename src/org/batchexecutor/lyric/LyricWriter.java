@@ -0,0 +1,235 @@
+package org.batchexecutor.lyric;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.batchexecutor.playlist.PlayListItem;
+import org.batchexecutor.util.Metrics;
+
+/**
+ * 在后台保存下载到的歌词,找歌词的线程只管把要写的东西放到队列里就回去了,
+ * 不用等硬盘
+ * 以前每个找歌词的线程都自己打开文件写,并发的时候全是零碎的同步小写,
+ * 出错了也只是打个日志
+ * 现在由一个写线程来写,每次把队列里攒下的一起拿出来,按目录分好组,
+ * 同一个目录的连着写;每个文件都是先写临时文件再改名,不会留下写了一半的歌词
+ * 写完或者出错都会通过{@link Callback}告诉交给它的人
+ * 队列是有上限的,写线程跟不上的时候多出来的先放到一个不限长的溢出表里,
+ * 写线程有空了再按原来的顺序挪回队列,{@link #write}从来不等
+ * 写线程在没事干一会以后会自己退出,有新的再起来,
+ * 它不是守护线程,所以程序正常退出之前会把队列里的写完
+ * @author SnowWolf725
+ */
+public final class LyricWriter {
+
+    private static final Logger log = Logger.getLogger(LyricWriter.class.getName());
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int QUEUE_CAPACITY = 1024;
+    private static final int BATCH_SIZE = 256;//一次最多拿多少个出来写
+    private static final long IDLE_TIMEOUT = 5000L;//写线程空闲多久就退出
+    private static final LyricWriter instance = new LyricWriter();
+    private final BlockingQueue<Write> queue = new ArrayBlockingQueue<Write>(QUEUE_CAPACITY);
+    private final Queue<Write> overflow = new ArrayDeque<Write>();//队列满了放这里,由this同步
+    private Thread thread;
+
+    /**
+     * 保存的结果,在写线程里调用,不要在里面做太久的事
+     */
+    public static interface Callback {
+
+        /**
+         * 歌词已经写到目标文件里了
+         * @param target 目标文件
+         */
+        public void saved(File target);
+
+        /**
+         * 写不了
+         * @param target 目标文件
+         * @param error 原因
+         */
+        public void failed(File target, Exception error);
+    }
+
+    private static class Write {
+
+        final PlayListItem info;
+        final String lyric;
+        final File target;
+        final Callback callback;
+
+        Write(PlayListItem info, String lyric, File target, Callback callback) {
+            this.info = info;
+            this.lyric = lyric;
+            this.target = target;
+            this.callback = callback;
+        }
+    }
+
+    private LyricWriter() {
+        Metrics.getDefault().addGauge("lyric.writes", new Metrics.Gauge() {
+
+            public long getValue() {
+                return getQueueSize();
+            }
+        });
+    }
+
+    public static LyricWriter getDefault() {
+        return instance;
+    }
+
+    /**
+     * 把一首歌的歌词交给写线程,先存到歌词库里,
+     * 再链接或者复制到目标文件,歌词库不能用的时候才直接写
+     * @param info 歌曲信息
+     * @param lyric 歌词内容
+     * @param target 目标文件
+     * @param callback 写完了告诉谁,可以是NULL,那出错了就只打日志
+     */
+    public void write(PlayListItem info, String lyric, File target, Callback callback) {
+        Write w = new Write(info, lyric, target, callback);
+        synchronized (this) {
+            //溢出表里有东西的时候也要排在它们后面,同一个文件后写的才会留下
+            if (!overflow.isEmpty() || !queue.offer(w)) {
+                if (overflow.isEmpty()) {
+                    log.log(Level.FINE, "写歌词的队列满了,先放到溢出表里");
+                }
+                overflow.add(w);
+            }
+            if (thread == null) {
+                thread = new Thread(new Runnable() {
+
+                    public void run() {
+                        drain();
+                    }
+                }, "lyric-writer");
+                thread.start();
+            }
+        }
+    }
+
+    /**
+     * @return 队列里还有多少个没写
+     */
+    public int getQueueSize() {
+        synchronized (this) {
+            return queue.size() + overflow.size();
+        }
+    }
+
+    /**
+     * 把溢出表里的按顺序挪回队列,能挪多少挪多少
+     */
+    private synchronized void refill() {
+        while (!overflow.isEmpty() && queue.offer(overflow.peek())) {
+            overflow.remove();
+        }
+    }
+
+    private void drain() {
+        List<Write> batch = new ArrayList<Write>(BATCH_SIZE);
+        Map<File, List<Write>> dirs = new LinkedHashMap<File, List<Write>>();
+        while (true) {
+            refill();
+            Write first;
+            try {
+                first = queue.poll(IDLE_TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                first = null;
+            }
+            if (first == null) {
+                synchronized (this) {
+                    if (queue.isEmpty() && overflow.isEmpty()) {
+                        thread = null;
+                        return;
+                    }
+                }
+                continue;
+            }
+            batch.add(first);
+            queue.drainTo(batch, BATCH_SIZE - 1);
+            //同一个目录的放在一起写
+            for (Write w : batch) {
+                File dir = w.target.getAbsoluteFile().getParentFile();
+                List<Write> list = dirs.get(dir);
+                if (list == null) {
+                    list = new ArrayList<Write>();
+                    dirs.put(dir, list);
+                }
+                list.add(w);
+            }
+            for (Map.Entry<File, List<Write>> e : dirs.entrySet()) {
+                e.getKey().mkdirs();
+                for (Write w : e.getValue()) {
+                    save(w);
+                }
+            }
+            batch.clear();
+            dirs.clear();
+        }
+    }
+
+    private void save(Write w) {
+        Exception error = null;
+        try {
+            try {
+                LyricStore store = LyricStore.getDefault();
+                File blob = store.put(w.info, w.lyric);
+                if (blob == null) {//没有歌名的不进库
+                    writeAtomically(w.lyric.getBytes(UTF8), w.target);
+                } else {
+                    store.materialize(blob, w.target);
+                }
+            } catch (Exception exe) {
+                log.log(Level.WARNING, "歌词库不能用,直接保存", exe);
+                writeAtomically(w.lyric.getBytes(UTF8), w.target);
+            }
+            LyricFileIndex.getDefault().added(w.target);
+            log.info("保存完毕,保存在:" + w.target);
+        } catch (Exception exe) {
+            log.log(Level.SEVERE, "保存歌词出错:" + w.target, exe);
+            error = exe;
+        }
+        if (w.callback == null) {
+            return;
+        }
+        try {
+            if (error == null) {
+                w.callback.saved(w.target);
+            } else {
+                w.callback.failed(w.target, error);
+            }
+        } catch (RuntimeException ex) {
+            log.log(Level.WARNING, null, ex);
+        }
+    }
+
+    /**
+     * 先写到同一个目录下的临时文件,再改名成目标文件
+     */
+    private static void writeAtomically(byte[] data, File target) throws IOException {
+        Path temp = Files.createTempFile(target.getAbsoluteFile().getParentFile().toPath(), "lrc", ".tmp");
+        try {
+            Files.write(temp, data);
+            Files.move(temp, target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+}
@@ -5,7 +5,9 @@
 package org.batchexecutor.lyric;
 
 import java.awt.Color;
+import java.awt.Font;
 import java.awt.Graphics;
+import java.awt.geom.Rectangle2D;
 import java.io.Serializable;
 
 import org.batchexecutor.util.Config;
@@ -24,6 +26,10 @@ public class Sentence implements Serializable {
     private long toTime;//这一句的结束时间
     private String content;//这一句的内容
     private final static long DISAPPEAR_TIME = 1000L;//歌词从显示完到消失的时间
+    private transient Font layoutFont;//量宽度和高度的时候用的字体
+    private transient int layoutVersion;//量的时候的样式版本
+    private transient int width;//量出来的宽度
+    private transient int height;//量出来的高度,不算行距
     public Sentence(String content, long fromTime, long toTime) {
         this.content = content;
         this.fromTime = fromTime;
@@ -97,7 +103,26 @@ public class Sentence implements Serializable {
      * @return 宽度
      */
     public int getContentWidth(Graphics g) {
-        return (int) g.getFontMetrics().getStringBounds(content, g).getWidth();
+        measure(g);
+        return width;
+    }
+
+    /**
+     * 量出内容的宽度和高度,字体和样式不变的时候只量一次,
+     * 每画一帧都要用好几次,每次都去量太费了
+     * @param g 画笔
+     */
+    private void measure(Graphics g) {
+        Font font = g.getFont();
+        int version = Config.getConfig().getLyricStyleVersion();
+        if (font.equals(layoutFont) && version == layoutVersion) {
+            return;
+        }
+        Rectangle2D bounds = g.getFontMetrics().getStringBounds(content, g);
+        width = (int) bounds.getWidth();
+        height = (int) bounds.getHeight();
+        layoutFont = font;
+        layoutVersion = version;
     }
 
     /**
@@ -135,7 +160,8 @@ public class Sentence implements Serializable {
      * @return 高度
      */
     public int getContentHeight(Graphics g) {
-        return (int) g.getFontMetrics().getStringBounds(content, g).getHeight() + Config.getConfig().getV_SPACE();
+        measure(g);
+        return height + Config.getConfig().getV_SPACE();
     }
 
     /**
@@ -132,7 +132,11 @@ public class MpegInfo implements TagInfo {
         try {
             AudioFileFormat aff = AudioSystem.getAudioFileFormat(file);
             loadInfo(aff);
-            MP3File mp3 = new MP3File(file, MP3File.LOAD_ALL, true);
+            int loadOptions = MP3File.LOAD_ALL;
+            if (Config.getConfig().isExactMp3Length()) {
+                loadOptions |= MP3File.LOAD_EXACT_LENGTH;
+            }
+            MP3File mp3 = new MP3File(file, loadOptions, true);
             header = mp3.getMP3AudioHeader();
             readHead();
             int tp = Config.getConfig().getReadTagOrder();
@@ -32,6 +32,7 @@ import java.util.logging.Logger;
 import javax.sound.sampled.UnsupportedAudioFileException;
 
 import org.batchexecutor.util.Config;
+import org.batchexecutor.util.Metrics;
 
 /**
  * This class is a factory for TagInfo and TagInfoDialog.
@@ -153,6 +154,7 @@ public class TagInfoFactory {
         try {
             taginfo = getTagInfoImplInstance(MpegTagInfoClass);
             taginfo.load(location);
+            Metrics.getDefault().read("mpeg", location.length());
         } catch (IOException ex) {
             log.log(Level.SEVERE,null,ex);
             taginfo = null;
@@ -166,6 +168,7 @@ public class TagInfoFactory {
                 //taginfo = new OggVorbisInfo(location);
                 taginfo = getTagInfoImplInstance(VorbisTagInfoClass);
                 taginfo.load(location);
+                Metrics.getDefault().read("vorbis", location.length());
             } catch (UnsupportedAudioFileException ex) {
                 // Not Ogg Vorbis Format
                 taginfo = null;
@@ -179,6 +182,7 @@ public class TagInfoFactory {
             try {
                 taginfo = getTagInfoImplInstance(APETagInfoClass);
                 taginfo.load(location);
+                Metrics.getDefault().read("ape", location.length());
             } catch (UnsupportedAudioFileException ex) {
                 // Not APE Format
                 taginfo = null;
@@ -192,6 +196,7 @@ public class TagInfoFactory {
             try {
                 taginfo = getTagInfoImplInstance(FlacTagInfoClass);
                 taginfo.load(location);
+                Metrics.getDefault().read("flac", location.length());
             } catch (UnsupportedAudioFileException ex) {
                 // Not Flac Format
                 taginfo = null;
@@ -29,6 +29,8 @@ import java.util.Set;
 import java.util.Vector;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 import javax.swing.ImageIcon;
 import javax.swing.JDialog;
 import javax.swing.JFrame;
@@ -243,6 +245,7 @@ public class Config implements Serializable {
     private Color lyricForeground = new Color(100, 100, 100);//歌词前景颜色
     private Color lyricBackground = new Color(6, 6, 6);//歌词背景颜色
     private Font lyricFont = new Font("Dialog", Font.PLAIN, 14);
+    private transient volatile int lyricStyleVersion;//歌词的字体,颜色或者抗锯齿改了就加一,画歌词的缓存就要重新生成
     private boolean autoLoadLyric = true;//播放时是否自动加载歌词
     private boolean cutBlankChars;//是否截掉空白字符
     private boolean hideWhenNoLyric;//是否在没有歌词的时候自动隐藏
@@ -265,6 +268,22 @@ public class Config implements Serializable {
     private Color audioChartlineColor = new Color(0, 255, 255);//波形的时候,线条的颜色
     private int audioChartDisappearSpeed = DISAPPEAR_NORMAL;//消逝的速度
     private int audioChartBarCount = 20;//条柱个数
+    /*******************************************************************/
+    /******************批处理引擎要用到的变量*****************************/
+    /*******************************************************************/
+    private int batchThreadCount;//批处理的工作线程数,小于等于0时按CPU个数来
+    private int maxRequestsPerHost;//每个主机同时进行的网络请求数,小于等于0时用默认值
+    private int gaeBatchSize;//在GAE上搜歌词的时候一次请求最多带几首歌,小于等于1时一首一个请求
+    private Map<String, Double> lyricSourceRates;//每个歌词来源的初始速度,每秒多少个请求
+    private int playerSlots;//同时运行的播放器个数,小于等于0时就是1个
+    private long playerMaxTime;//每首歌播放器最多运行多少毫秒,小于等于0时用默认值
+    private String playerDonePattern;//播放器输出的哪一行表示这首歌放完了,正则表达式,空的话只看退出和超时
+    private Vector<File> watchDirs;//批处理运行时一直监视的目录,新加进来的歌马上处理
+    private long watchDebounce;//文件多少毫秒没有变化才算加完了,小于等于0时用默认值
+    private int httpConnectTimeout;//网络连接的超时,毫秒,小于等于0时用默认值
+    private int httpReadTimeout;//网络读取的超时,毫秒,小于等于0时用默认值
+    private long lyricMissTTL;//网上没找到歌词的歌多久以内不再搜,毫秒,小于等于0时用默认值
+    private boolean exactMp3Length;//MP3没有Xing帧数的时候是否数遍所有的帧来算准确的长度,要读整个文件
     private static Config config = new Config();//自己的一个单例的对象 
     static {
         load();
@@ -744,6 +763,7 @@ public class Config implements Serializable {
 
     public void setAntiAliasing(boolean antiAliasing) {
         this.antiAliasing = antiAliasing;
+        lyricStyleVersion++;
     }
 
     public boolean isLyricTopShow() {
@@ -1419,7 +1439,7 @@ public class Config implements Serializable {
     }
 
     public String getExtensions() {
-        return null;
+        return EXTS;
     }
 
     public static String getResource(String key) {
@@ -1448,6 +1468,7 @@ public class Config implements Serializable {
 
     public void setLyricBackground(Color BACK_GROUND) {
         this.lyricBackground = BACK_GROUND;
+        lyricStyleVersion++;
     }
 
     public Font getLyricFont() {
@@ -1456,6 +1477,7 @@ public class Config implements Serializable {
 
     public void setLyricFont(Font FONT) {
         this.lyricFont = FONT;
+        lyricStyleVersion++;
     }
 
     public Color getLyricForeground() {
@@ -1464,6 +1486,7 @@ public class Config implements Serializable {
 
     public void setLyricForeground(Color FORE_GROUND) {
         this.lyricForeground = FORE_GROUND;
+        lyricStyleVersion++;
     }
 
     public Color getLyricHilight() {
@@ -1472,6 +1495,16 @@ public class Config implements Serializable {
 
     public void setLyricHilight(Color HIGH_LIGHT) {
         this.lyricHilight = HIGH_LIGHT;
+        lyricStyleVersion++;
+    }
+
+    /**
+     * 歌词的样式的版本,字体,颜色或者抗锯齿设置改了以后就会变,
+     * 缓存了歌词的宽度或者图像的地方拿它来判断缓存还能不能用
+     * @return 版本号
+     */
+    public int getLyricStyleVersion() {
+        return lyricStyleVersion;
     }
 
     public int getH_SPACE() {
@@ -1514,6 +1547,209 @@ public class Config implements Serializable {
         return lastDir;
     }
 
+    /**
+     * 得到批处理引擎的工作线程数,旧的配置文件里面没有
+     * 这一项,读出来是0,这时就按CPU的个数来
+     * @return 线程数
+     */
+    public int getBatchThreadCount() {
+        if (batchThreadCount <= 0) {
+            return Runtime.getRuntime().availableProcessors();
+        }
+        return batchThreadCount;
+    }
+
+    public void setBatchThreadCount(int batchThreadCount) {
+        this.batchThreadCount = batchThreadCount;
+    }
+
+    /**
+     * 得到每个主机同时允许的网络请求数
+     * @return 请求数
+     */
+    public int getMaxRequestsPerHost() {
+        if (maxRequestsPerHost <= 0) {
+            return 8;
+        }
+        return maxRequestsPerHost;
+    }
+
+    public void setMaxRequestsPerHost(int maxRequestsPerHost) {
+        this.maxRequestsPerHost = maxRequestsPerHost;
+    }
+
+    /**
+     * 得到在GAE上搜歌词的时候一次请求最多合并几首歌,
+     * 服务器要支持一次搜几首歌才有用,所以默认是不合并的
+     * @return 几首歌,小于等于1就是不合并
+     */
+    public int getGaeBatchSize() {
+        return gaeBatchSize;
+    }
+
+    public void setGaeBatchSize(int gaeBatchSize) {
+        this.gaeBatchSize = gaeBatchSize;
+    }
+
+    /**
+     * 读MP3的时候,如果没有Xing头给出帧数,是不是把所有的帧都数一遍,
+     * 不数的话长度是按第一帧估计的,VBR的歌会差很多,
+     * 数的话要把整个文件读一遍,所以默认是不数的
+     * @return 是否数帧
+     */
+    public boolean isExactMp3Length() {
+        return exactMp3Length;
+    }
+
+    public void setExactMp3Length(boolean exactMp3Length) {
+        this.exactMp3Length = exactMp3Length;
+    }
+
+    /**
+     * 得到某个歌词来源的初始限速,没有设置过的就是每秒2个请求
+     * @param source 来源的名字
+     * @return 每秒多少个请求
+     */
+    public double getLyricSourceRate(String source) {
+        Double rate = lyricSourceRates == null ? null : lyricSourceRates.get(source);
+        if (rate == null || rate.doubleValue() <= 0) {
+            return 2.0;
+        }
+        return rate.doubleValue();
+    }
+
+    public void setLyricSourceRate(String source, double rate) {
+        if (lyricSourceRates == null) {
+            lyricSourceRates = new HashMap<String, Double>();
+        }
+        lyricSourceRates.put(source, Double.valueOf(rate));
+    }
+
+    /**
+     * 得到批处理时同时运行的播放器个数
+     * @return 个数
+     */
+    public int getPlayerSlots() {
+        if (playerSlots <= 0) {
+            return 1;
+        }
+        return playerSlots;
+    }
+
+    public void setPlayerSlots(int playerSlots) {
+        this.playerSlots = playerSlots;
+    }
+
+    /**
+     * 得到每首歌播放器最多运行的时间,到时间还没退出就杀掉它,默认是20秒
+     * @return 毫秒
+     */
+    public long getPlayerMaxTime() {
+        if (playerMaxTime <= 0) {
+            return 20000L;
+        }
+        return playerMaxTime;
+    }
+
+    public void setPlayerMaxTime(long playerMaxTime) {
+        this.playerMaxTime = playerMaxTime;
+    }
+
+    /**
+     * 得到表示一首歌放完了的播放器输出,输出的某一行匹配上了就杀掉播放器
+     * @return 正则表达式,没有设置或者写错了的话是null
+     */
+    public Pattern getPlayerDonePattern() {
+        if (playerDonePattern == null || playerDonePattern.length() == 0) {
+            return null;
+        }
+        try {
+            return Pattern.compile(playerDonePattern);
+        } catch (PatternSyntaxException ex) {
+            log.log(Level.WARNING, "播放器完成的正则表达式不对:" + playerDonePattern, ex);
+            return null;
+        }
+    }
+
+    public void setPlayerDonePattern(String playerDonePattern) {
+        this.playerDonePattern = playerDonePattern;
+    }
+
+    /**
+     * 得到批处理时要一直监视的目录
+     * @return 目录,没有设置的话是空的
+     */
+    public Vector<File> getWatchDirs() {
+        if (watchDirs == null) {
+            watchDirs = new Vector<File>();
+        }
+        return watchDirs;
+    }
+
+    public void setWatchDirs(Vector<File> watchDirs) {
+        this.watchDirs = watchDirs;
+    }
+
+    /**
+     * 得到监视目录时文件要安静多久才算加完了,默认是2秒
+     * @return 毫秒
+     */
+    public long getWatchDebounce() {
+        if (watchDebounce <= 0) {
+            return 2000L;
+        }
+        return watchDebounce;
+    }
+
+    public void setWatchDebounce(long watchDebounce) {
+        this.watchDebounce = watchDebounce;
+    }
+
+    /**
+     * 得到网络连接的超时,默认是10秒
+     * @return 毫秒
+     */
+    public int getHttpConnectTimeout() {
+        if (httpConnectTimeout <= 0) {
+            return 10000;
+        }
+        return httpConnectTimeout;
+    }
+
+    public void setHttpConnectTimeout(int httpConnectTimeout) {
+        this.httpConnectTimeout = httpConnectTimeout;
+    }
+
+    /**
+     * 得到网络读取的超时,默认是30秒
+     * @return 毫秒
+     */
+    public int getHttpReadTimeout() {
+        if (httpReadTimeout <= 0) {
+            return 30000;
+        }
+        return httpReadTimeout;
+    }
+
+    public void setHttpReadTimeout(int httpReadTimeout) {
+        this.httpReadTimeout = httpReadTimeout;
+    }
+
+    /**
+     * 得到网上没找到歌词的歌多久以内不再去搜,默认是7天
+     * @return 毫秒
+     */
+    public long getLyricMissTTL() {
+        if (lyricMissTTL <= 0) {
+            return 7 * 24 * 3600 * 1000L;
+        }
+        return lyricMissTTL;
+    }
+
+    public void setLyricMissTTL(long lyricMissTTL) {
+        this.lyricMissTTL = lyricMissTTL;
+    }
+
     private Config() {
         lastEqualizer = new int[10];
         playlists = new Vector<PlayList>();
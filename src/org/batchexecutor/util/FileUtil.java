@@ -34,7 +34,7 @@ import java.util.StringTokenizer;
 @SuppressWarnings("unchecked")
 public class FileUtil {
 
-    private static List supportedExtensions = null;
+    private static volatile List supportedExtensions = null;
 
     public static File[] findFilesRecursively(File directory) {
         if (directory.isFile()) {
@@ -68,10 +68,21 @@ public class FileUtil {
     }
 
     public static boolean isMusicFile(File f) {
+        return isMusicFile(f.getName());
+    }
+
+    /**
+     * Checks a bare file name, so directory walkers do not need
+     * to build a File for every entry they see.
+     *
+     * @param fileName name without directory
+     * @return true if the extension is a supported one, ignoring case
+     */
+    public static boolean isMusicFile(String fileName) {
         List exts = getSupportedExtensions();
         int sz = exts.size();
         String ext;
-        String name = f.getName();
+        String name = fileName.toLowerCase();
         for (int i = 0; i < sz; i++) {
             ext = (String) exts.get(i);
             if (ext.equals(".wsz") || ext.equals(".m3u")) {
@@ -88,10 +99,12 @@ public class FileUtil {
         if (supportedExtensions == null) {
             String ext = Config.getConfig().getExtensions();
             StringTokenizer st = new StringTokenizer(ext, ",");
-            supportedExtensions = new ArrayList();
+            // fill a local list first, scanner threads may read the field concurrently
+            List exts = new ArrayList();
             while (st.hasMoreTokens()) {
-                supportedExtensions.add("." + st.nextElement());
+                exts.add("." + st.nextElement());
             }
+            supportedExtensions = exts;
         }
         return (supportedExtensions);
     }
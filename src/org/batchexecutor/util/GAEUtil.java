@@ -4,19 +4,34 @@
  */
 package org.batchexecutor.util;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.UnsupportedEncodingException;
-import java.net.HttpURLConnection;
-import java.net.URL;
 import java.net.URLEncoder;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.StatusLine;
+import org.apache.commons.httpclient.methods.ByteArrayRequestEntity;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.methods.PostMethod;
 import org.batchexecutor.lyric.SearchResult;
 import org.batchexecutor.lyric.SearchResult.Task;
 
@@ -26,17 +41,30 @@ import org.batchexecutor.lyric.SearchResult.Task;
  */
 public final class GAEUtil {
 
-    private static final String getSingleResultURL = "http://yoyolrc.appspot.com/YOYO?cmd=getSingleResult&artist={0}&title={1}";
-    private static final String getLyricContentURL = "http://yoyolrc.appspot.com/YOYO?cmd=getLyricContent&id={0}&lrcId={1}&lrcCode={2}&artist={3}&title={4}";
-    private static final String getResultListURL = "http://yoyolrc.appspot.com/YOYO?cmd=getResultList&artist={0}&title={1}";
-    private static final String voteURL = "http://yoyolrc.appspot.com/YOYO?cmd={0}&yoyoVersion={1}";
-    private static final String versionURL = "http://yoyolrc.appspot.com/version.txt";
+    /** 服务器的地址,压力测试的时候可以用系统属性换成本地的替身 */
+    private static final String SERVER = System.getProperty("batchexecutor.gae.url", "http://yoyolrc.appspot.com");
+    private static final String getSingleResultURL = SERVER + "/YOYO?cmd=getSingleResult&artist={0}&title={1}";
+    private static final String getLyricContentURL = SERVER + "/YOYO?cmd=getLyricContent&id={0}&lrcId={1}&lrcCode={2}&artist={3}&title={4}";
+    private static final String getResultListURL = SERVER + "/YOYO?cmd=getResultList&artist={0}&title={1}";
+    private static final String getResultListsURL = SERVER + "/YOYO?cmd=getResultLists";
+    private static final String voteURL = SERVER + "/YOYO?cmd={0}&yoyoVersion={1}";
+    private static final String versionURL = SERVER + "/version.txt";
     private static final Logger log = Logger.getLogger(GAEUtil.class.getName());
+    /** 在限速器里面的来源名 */
+    public static final String SOURCE = "gae";
+    private static Batcher batcher;
+    /** 服务器不认一次搜几首歌的命令的时候就变成false,以后都一首一个请求 */
+    private static volatile boolean batchSupported = true;
 
     public static Version getRemoteVersion() throws IOException {
-        HttpURLConnection conn = (HttpURLConnection) new URL(versionURL).openConnection();
         Properties pro = new Properties();
-        pro.load(conn.getInputStream());
+        GetMethod get = new GetMethod(versionURL);
+        try {
+            HttpUtil.executeOK(get);
+            pro.load(get.getResponseBodyAsStream());
+        } finally {
+            get.releaseConnection();
+        }
         String version = pro.getProperty("Version");
         String url = pro.getProperty("URL");
         String des = pro.getProperty("Description");
@@ -47,72 +75,329 @@ public final class GAEUtil {
     public static boolean vote(String vote) {
         try {
             String urlContent = MessageFormat.format(voteURL, $(vote), $(Util.VERSION));
-            ObjectInputStream ois = getObjectInputStream(urlContent);
-            int back = ois.readInt();
-            return back == 1;
+            return request(urlContent, new Response<Boolean>() {
+
+                public Boolean read(ObjectInputStream ois) throws IOException {
+                    int back = ois.readInt();
+                    return back == 1;
+                }
+            });
         } catch (Exception ex) {
             ex.printStackTrace();
             return false;
         }
     }
 
+    /**
+     * 在GAE上搜一首歌的歌词
+     * 设置了一次请求搜几首歌的时候,会和别的线程同时在搜的歌合并成一个请求
+     * @param artistParam 歌手
+     * @param titleParam 歌名
+     * @return 搜到的结果,没有就是空的
+     * @throws java.lang.Exception
+     */
     public static List<SearchResult> getSearchResult(String artistParam, String titleParam) throws Exception {
+        Batcher b = getBatcher();
+        if (b == null) {
+            return searchOne(artistParam, titleParam);
+        }
+        try {
+            return b.search(artistParam, titleParam).get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof Exception) {
+                throw (Exception) ex.getCause();
+            }
+            throw ex;
+        }
+    }
+
+    private static synchronized Batcher getBatcher() {
+        if (!batchSupported || Config.getConfig().getGaeBatchSize() <= 1) {
+            return null;
+        }
+        if (batcher == null) {
+            batcher = new Batcher();
+        }
+        return batcher;
+    }
+
+    private static List<SearchResult> searchOne(String artistParam, String titleParam) throws Exception {
         String urlContent = MessageFormat.format(getResultListURL, $(artistParam), $(titleParam));
-        ObjectInputStream ois = getObjectInputStream(urlContent);
-        int back = ois.readInt();
-        List<SearchResult> list = new ArrayList<SearchResult>();
-        if (back == 1) {
-            int size = ois.readInt();
-            for (int i = 0; i < size; i++) {
-                final String artist = ois.readUTF();
-                final String lrcCode = ois.readUTF();
-                final String lrcId = ois.readUTF();
-                final String title = ois.readUTF();
-                final String id = ois.readUTF();
-                final Task task = new Task() {
-
-                    public String getLyricContent() {
-                        return getLyricContent_S(id, lrcId, lrcCode, artist, title);
-                    }
-                };
-                list.add(new SearchResult(id, lrcId, lrcCode, artist, title, task));
+        return request(urlContent, new Response<List<SearchResult>>() {
+
+            public List<SearchResult> read(ObjectInputStream ois) throws IOException {
+                return ois.readInt() == 1 ? readResultList(ois) : new ArrayList<SearchResult>();
             }
+        });
+    }
+
+    /**
+     * 读一首歌的搜索结果,单个搜和合并搜的时候每首歌的格式是一样的
+     */
+    private static List<SearchResult> readResultList(ObjectInputStream ois) throws IOException {
+        List<SearchResult> list = new ArrayList<SearchResult>();
+        int size = ois.readInt();
+        for (int i = 0; i < size; i++) {
+            final String artist = ois.readUTF();
+            final String lrcCode = ois.readUTF();
+            final String lrcId = ois.readUTF();
+            final String title = ois.readUTF();
+            final String id = ois.readUTF();
+            final Task task = new Task() {
+
+                public String getLyricContent() {
+                    return getLyricContent_S(id, lrcId, lrcCode, artist, title);
+                }
+            };
+            list.add(new SearchResult(id, lrcId, lrcCode, artist, title, task));
         }
         return list;
     }
 
     private static String getSingleResult(String artistParam, String titleParam) throws Exception {
         String urlContent = MessageFormat.format(getSingleResultURL, $(artistParam), $(titleParam));
-        ObjectInputStream ois = getObjectInputStream(urlContent);
-        int back = ois.readInt();
-        if (back == 1) {
-            return ois.readUTF();
-        } else {
-            return null;
-        }
+        return request(urlContent, new Response<String>() {
+
+            public String read(ObjectInputStream ois) throws IOException {
+                int back = ois.readInt();
+                if (back == 1) {
+                    return ois.readUTF();
+                } else {
+                    return null;
+                }
+            }
+        });
     }
 
     private static String getLyricContent_S(String id, String lrcId, String lrcCode, String artist, String title) {
         try {
             String urlContent = MessageFormat.format(getLyricContentURL, $(id), $(lrcId), $(lrcCode), $(artist), $(title));
-            ObjectInputStream ois = getObjectInputStream(urlContent);
-            int back = ois.readInt();
-            if (back == 1) {
-                return ois.readUTF();
-            } else {
-                return "";
-            }
+            return request(urlContent, new Response<String>() {
+
+                public String read(ObjectInputStream ois) throws IOException {
+                    int back = ois.readInt();
+                    if (back == 1) {
+                        return ois.readUTF();
+                    } else {
+                        return "";
+                    }
+                }
+            });
         } catch (Exception ex) {
             ex.printStackTrace();
             return "";
         }
     }
 
-    private static ObjectInputStream getObjectInputStream(String urlContent) throws Exception {
-        URL url = new URL(urlContent);
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        ObjectInputStream ois = new ObjectInputStream(conn.getInputStream());
-        return ois;
+    /**
+     * 解析服务器返回的对象流
+     */
+    private static interface Response<T> {
+
+        public T read(ObjectInputStream ois) throws IOException;
+    }
+
+    /**
+     * 所有对GAE的请求都从这里走,先按限速取令牌,再取主机的许可,
+     * 完了以后把这次的延迟或者失败报告给限速器
+     * @param urlContent URL
+     * @param response 怎么解析返回的内容
+     * @return 解析的结果
+     * @throws java.lang.Exception
+     */
+    private static <T> T request(String urlContent, Response<T> response) throws Exception {
+        T t = request(urlContent, new GetMethod(urlContent), response);
+        countResult(t);
+        return t;
+    }
+
+    /**
+     * 和{@link #request(String, Response)}一样,不过请求是调用的人给的,
+     * 也不管找没找到,合并搜索的时候一个请求里有好几首歌,由调用的人一首一首记
+     */
+    private static <T> T request(String urlContent, HttpMethod method, Response<T> response) throws Exception {
+        RateLimiter limiter = RateLimiter.forSource(SOURCE);
+        limiter.acquire();
+        String host = HostLimiter.getDefault().acquire(urlContent);
+        Metrics metrics = Metrics.getDefault();
+        long start = System.currentTimeMillis();
+        try {
+            T t;
+            try {
+                HttpUtil.executeOK(method);
+                t = response.read(new ObjectInputStream(method.getResponseBodyAsStream()));
+            } finally {
+                method.releaseConnection();
+            }
+            long latency = System.currentTimeMillis() - start;
+            limiter.success(latency);
+            metrics.latency(SOURCE, latency);
+            return t;
+        } catch (Exception ex) {
+            limiter.failure();
+            metrics.error(SOURCE);
+            throw ex;
+        } finally {
+            HostLimiter.getDefault().release(host);
+        }
+    }
+
+    private static void countResult(Object t) {
+        if (t == null || "".equals(t) || t instanceof Collection && ((Collection<?>) t).isEmpty()) {
+            Metrics.getDefault().miss(SOURCE);
+        } else {
+            Metrics.getDefault().hit(SOURCE);
+        }
+    }
+
+    /**
+     * 一首等着合并搜索结果的歌
+     * 合并的请求读到它的时候直接把结果放进来;
+     * 要一首一首搜的时候把它当成任务执行就是自己搜
+     */
+    private static final class Pending extends FutureTask<List<SearchResult>> {
+
+        final String artist;
+        final String title;
+
+        Pending(final String artist, final String title) {
+            super(new Callable<List<SearchResult>>() {
+
+                public List<SearchResult> call() throws Exception {
+                    return searchOne(artist, title);
+                }
+            });
+            this.artist = artist;
+            this.title = title;
+        }
+
+        void complete(List<SearchResult> list) {
+            set(list);
+        }
+    }
+
+    /**
+     * 把几个线程同时在搜的歌攒起来,用一个请求一起搜
+     * 第一首歌进来以后最多等{@link #LINGER}毫秒,攒够了设置的首数就马上发;
+     * 请求的内容和返回的都是对象流,返回的结果是按请求的顺序一首一首写的,
+     * 读出一首就交给等它的线程,不用等整个响应读完
+     * 请求失败的时候这一批里还没有结果的歌改成一首一个请求;
+     * 服务器不认这个命令的话,以后就都不合并了
+     */
+    private static final class Batcher {
+
+        private static final long LINGER = 20L;
+        private final ScheduledExecutorService sender;
+        private List<Pending> pending = new ArrayList<Pending>();
+        private boolean scheduled;
+
+        Batcher() {
+            sender = Executors.newScheduledThreadPool(Config.getConfig().getMaxRequestsPerHost(), new ThreadFactory() {
+
+                private int count;
+
+                public synchronized Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "gae-batch-" + (++count));
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+
+        synchronized Future<List<SearchResult>> search(String artist, String title) {
+            Pending p = new Pending(artist, title);
+            pending.add(p);
+            if (pending.size() >= Config.getConfig().getGaeBatchSize()) {
+                final List<Pending> batch = take();
+                sender.execute(new Runnable() {
+
+                    public void run() {
+                        send(batch);
+                    }
+                });
+            } else if (!scheduled) {
+                scheduled = true;
+                sender.schedule(new Runnable() {
+
+                    public void run() {
+                        List<Pending> batch;
+                        synchronized (Batcher.this) {
+                            scheduled = false;
+                            batch = take();
+                        }
+                        if (!batch.isEmpty()) {
+                            send(batch);
+                        }
+                    }
+                }, LINGER, TimeUnit.MILLISECONDS);
+            }
+            return p;
+        }
+
+        private List<Pending> take() {
+            List<Pending> batch = pending;
+            pending = new ArrayList<Pending>();
+            return batch;
+        }
+
+        private void send(final List<Pending> batch) {
+            if (batch.size() > 1 && batchSupported) {
+                PostMethod post = new PostMethod(getResultListsURL);
+                try {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    ObjectOutputStream oos = new ObjectOutputStream(bytes);
+                    oos.writeInt(batch.size());
+                    for (Pending p : batch) {
+                        oos.writeUTF(p.artist);
+                        oos.writeUTF(p.title);
+                    }
+                    oos.close();
+                    post.setRequestEntity(new ByteArrayRequestEntity(bytes.toByteArray(), "application/octet-stream"));
+                    Metrics.getDefault().increment(SOURCE + ".batch");
+                    Metrics.getDefault().add(SOURCE + ".batched", batch.size());
+                    boolean supported = request(getResultListsURL, post, new Response<Boolean>() {
+
+                        public Boolean read(ObjectInputStream ois) throws IOException {
+                            if (ois.readInt() != 1) {
+                                return false;
+                            }
+                            for (Pending p : batch) {
+                                List<SearchResult> list = readResultList(ois);
+                                countResult(list);
+                                p.complete(list);
+                            }
+                            return true;
+                        }
+                    });
+                    if (!supported) {
+                        unsupported();
+                    }
+                } catch (Exception ex) {
+                    StatusLine status = post.getStatusLine();
+                    if (status != null && (status.getStatusCode() == HttpStatus.SC_BAD_REQUEST
+                            || status.getStatusCode() == HttpStatus.SC_NOT_FOUND
+                            || status.getStatusCode() == HttpStatus.SC_METHOD_NOT_ALLOWED
+                            || status.getStatusCode() == HttpStatus.SC_NOT_IMPLEMENTED)) {
+                        unsupported();
+                    } else {
+                        log.log(Level.WARNING, "合并搜索失败,改成一首一个请求", ex);
+                    }
+                }
+            }
+            //剩下没有结果的一首一首搜
+            for (Pending p : batch) {
+                if (!p.isDone()) {
+                    sender.execute(p);
+                }
+            }
+        }
+
+        private void unsupported() {
+            if (batchSupported) {
+                batchSupported = false;
+                log.info("服务器不能一次搜几首歌,以后一首一个请求");
+            }
+        }
     }
 
     private static String $(String s) throws UnsupportedEncodingException {
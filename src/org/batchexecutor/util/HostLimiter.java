@@ -0,0 +1,78 @@
+package org.batchexecutor.util;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * 按主机限制同时进行的网络请求数,批量搜索歌词的时候
+ * 可能有上千个搜索同时在跑,不能让它们一起打到同一个服务器上
+ * 每个主机对应一个信号量,请求之前取一个许可,完了以后一定要还回去
+ * @author SnowWolf725
+ */
+public final class HostLimiter {
+
+    private static final HostLimiter instance = new HostLimiter();
+    private final ConcurrentMap<String, Semaphore> permits = new ConcurrentHashMap<String, Semaphore>();
+
+    private HostLimiter() {
+    }
+
+    public static HostLimiter getDefault() {
+        return instance;
+    }
+
+    /**
+     * 为某个URL所在的主机取一个许可,取不到就等着
+     * @param url 要请求的URL
+     * @return 主机名,用来还许可
+     * @throws InterruptedException 等的时候被打断了
+     */
+    public String acquire(String url) throws InterruptedException {
+        String host = getHost(url);
+        getSemaphore(host).acquire();
+        return host;
+    }
+
+    /**
+     * 把许可还给这个主机
+     * @param host {@link #acquire(String)}返回的主机名
+     */
+    public void release(String host) {
+        if (host != null) {
+            getSemaphore(host).release();
+        }
+    }
+
+    /**
+     * 这个主机现在有多少个请求正在进行
+     * @param host 主机名
+     * @return 请求数
+     */
+    public int getInFlight(String host) {
+        Semaphore s = permits.get(host);
+        return s == null ? 0 : Config.getConfig().getMaxRequestsPerHost() - s.availablePermits();
+    }
+
+    private Semaphore getSemaphore(String host) {
+        Semaphore s = permits.get(host);
+        if (s == null) {
+            s = new Semaphore(Config.getConfig().getMaxRequestsPerHost(), true);
+            Semaphore old = permits.putIfAbsent(host, s);
+            if (old != null) {
+                s = old;
+            }
+        }
+        return s;
+    }
+
+    private static String getHost(String url) {
+        try {
+            return new URL(url).getHost().toLowerCase();
+        } catch (MalformedURLException ex) {
+            return "";
+        }
+    }
+}
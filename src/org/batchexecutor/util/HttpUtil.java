@@ -0,0 +1,130 @@
+package org.batchexecutor.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.UsernamePasswordCredentials;
+import org.apache.commons.httpclient.auth.AuthScope;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
+
+/**
+ * 所有歌词来源共用的一个HTTP客户端,以前每次请求都新建一个
+ * HttpClient或者HttpURLConnection,每次都要重新连接
+ * 现在连接放在一个连接池里面,同一个主机的连接会一直保持着给后面的请求用,
+ * 每个主机最多同时有{@link Config#getMaxRequestsPerHost()}个连接,
+ * 连接和读取都有超时,空闲太久的连接会被关掉
+ * 用法:
+ * <pre>
+ * GetMethod get = new GetMethod(url);
+ * try {
+ *     HttpUtil.execute(get);
+ *     InputStream in = get.getResponseBodyAsStream();
+ *     ...
+ * } finally {
+ *     get.releaseConnection();
+ * }
+ * </pre>
+ * 一定要releaseConnection,不然连接就不会回到池里
+ * @author SnowWolf725
+ */
+public final class HttpUtil {
+
+    private static final long IDLE_TIMEOUT = 60000L;//空闲多久的连接要关掉
+    private static final MultiThreadedHttpConnectionManager manager = new MultiThreadedHttpConnectionManager();
+    private static final HttpClient client;
+
+    static {
+        Config config = Config.getConfig();
+        HttpConnectionManagerParams params = manager.getParams();
+        params.setDefaultMaxConnectionsPerHost(config.getMaxRequestsPerHost());
+        params.setMaxTotalConnections(config.getMaxRequestsPerHost() * 16);
+        params.setConnectionTimeout(config.getHttpConnectTimeout());
+        params.setSoTimeout(config.getHttpReadTimeout());
+        params.setStaleCheckingEnabled(true);
+        client = new HttpClient(manager);
+        client.getParams().setConnectionManagerTimeout(config.getHttpReadTimeout());
+        IdleConnectionTimeoutThread idle = new IdleConnectionTimeoutThread();
+        idle.setName("http-idle-closer");
+        idle.setTimeoutInterval(IDLE_TIMEOUT / 2);
+        idle.setConnectionTimeout(IDLE_TIMEOUT);
+        idle.addConnectionManager(manager);
+        idle.start();//自己就是守护线程
+    }
+
+    private HttpUtil() {
+    }
+
+    /**
+     * 执行一个请求,代理服务器按现在的设置来
+     * 返回以后可以用流的方式读响应的内容,用完一定要releaseConnection
+     * @param method 请求
+     * @return HTTP的状态码
+     * @throws IOException 连接不上或者超时
+     */
+    public static int execute(HttpMethod method) throws IOException {
+        Config config = Config.getConfig();
+        HostConfiguration host = new HostConfiguration();
+        if (config.isUseProxy()) {
+            int port = Integer.parseInt(config.getProxyPort());
+            if (config.getProxyUserName() != null && config.getProxyPwd() != null) {
+                client.getState().setProxyCredentials(
+                        new AuthScope(config.getProxyHost(), port),
+                        new UsernamePasswordCredentials(config.getProxyUserName(), config.getProxyPwd()));
+            }
+            host.setProxy(config.getProxyHost(), port);
+        }
+        return client.executeMethod(host, method);
+    }
+
+    /**
+     * 执行一个请求,不是200就当出错了
+     * @param method 请求
+     * @throws IOException 连接不上,超时或者状态码不对
+     */
+    public static void executeOK(HttpMethod method) throws IOException {
+        int status = execute(method);
+        if (status != HttpStatus.SC_OK) {
+            throw new IOException(method.getURI() + " returned " + status);
+        }
+    }
+
+    /**
+     * 把响应的内容按指定的编码读成字符串,流会被关掉
+     * @param is 响应的流
+     * @param charset 编码
+     * @return 内容
+     * @throws IOException
+     */
+    public static String readString(InputStream is, String charset) throws IOException {
+        if (is == null) {
+            return "";
+        }
+        Reader r = new InputStreamReader(is, charset);
+        try {
+            StringBuilder sb = new StringBuilder();
+            char[] buffer = new char[4096];
+            int length;
+            while ((length = r.read(buffer)) != -1) {
+                sb.append(buffer, 0, length);
+            }
+            return sb.toString();
+        } finally {
+            r.close();
+        }
+    }
+
+    /**
+     * @return 池里现在有多少个连接
+     */
+    public static int getConnectionsInPool() {
+        return manager.getConnectionsInPool();
+    }
+}
@@ -0,0 +1,339 @@
+package org.batchexecutor.util;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * 批处理的统计数据,调并发数或者找哪个歌词来源慢的时候用
+ * 包括每秒处理多少项,队列有多长,每个歌词来源的延迟分布和命中数,
+ * 每种格式的读取器读了多少字节
+ * 可以通过JMX看({@link #register()}),也可以定时打印出来({@link #startReporting(long, PrintStream)})
+ * 所有的方法都可以在任何线程里调用,记录的开销只是几个原子操作
+ * @author SnowWolf725
+ */
+public final class Metrics implements MetricsMXBean {
+
+    private static final Logger log = Logger.getLogger(Metrics.class.getName());
+    private static final Metrics instance = new Metrics();
+    private static final int RATE_WINDOW = 10;//算速度用最近多少秒
+    private static final int SLOTS = 64;//每秒一格,转着用
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLongArray perSecond = new AtomicLongArray(SLOTS);//高32位是这一格记的是哪一秒,低32位是个数
+    private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+    private final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+    private final ConcurrentMap<String, Histogram> latencies = new ConcurrentHashMap<String, Histogram>();
+    private ScheduledExecutorService reporter;
+    private ScheduledFuture<?> report;
+
+    /**
+     * 随时可以读出来的一个当前值
+     */
+    public static interface Gauge {
+
+        public long getValue();
+    }
+
+    private Metrics() {
+    }
+
+    public static Metrics getDefault() {
+        return instance;
+    }
+
+    /**
+     * 注册到平台的MBeanServer上,重复注册也没关系
+     */
+    public synchronized void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("org.batchexecutor:type=Metrics");
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+        } catch (Exception ex) {
+            log.log(Level.WARNING, "不能注册JMX", ex);
+        }
+    }
+
+    /**
+     * 定时把{@link #getSnapshot()}打印出来
+     * @param period 间隔,毫秒
+     * @param out 打印到哪里
+     */
+    public synchronized void startReporting(long period, final PrintStream out) {
+        stopReporting();
+        if (reporter == null) {
+            reporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "metrics-reporter");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        report = reporter.scheduleAtFixedRate(new Runnable() {
+
+            public void run() {
+                out.println(getSnapshot());
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stopReporting() {
+        if (report != null) {
+            report.cancel(false);
+            report = null;
+        }
+    }
+
+    /**
+     * 处理完了一项
+     */
+    public void itemDone() {
+        processed.incrementAndGet();
+        long sec = System.currentTimeMillis() / 1000;
+        int i = (int) (sec % SLOTS);
+        long old;
+        long next;
+        do {//换到新的一秒和加一是一步,不会丢掉别的线程刚加的
+            old = perSecond.get(i);
+            next = old >>> 32 == sec ? old + 1 : sec << 32 | 1;
+        } while (!perSecond.compareAndSet(i, old, next));
+    }
+
+    /**
+     * 某个计数加一
+     * @param name 计数的名字
+     */
+    public void increment(String name) {
+        add(name, 1);
+    }
+
+    /**
+     * 某个计数加上一个数
+     * @param name 计数的名字
+     * @param delta 加多少
+     */
+    public void add(String name, long delta) {
+        AtomicLong c = counters.get(name);
+        if (c == null) {
+            c = new AtomicLong();
+            AtomicLong old = counters.putIfAbsent(name, c);
+            if (old != null) {
+                c = old;
+            }
+        }
+        c.addAndGet(delta);
+    }
+
+    public long getCounter(String name) {
+        AtomicLong c = counters.get(name);
+        return c == null ? 0 : c.get();
+    }
+
+    public void addGauge(String name, Gauge gauge) {
+        gauges.put(name, gauge);
+    }
+
+    public void removeGauge(String name) {
+        gauges.remove(name);
+    }
+
+    /**
+     * 记下歌词来源的一次请求用了多久
+     * @param source 来源的名字
+     * @param millis 毫秒
+     */
+    public void latency(String source, long millis) {
+        Histogram h = latencies.get(source);
+        if (h == null) {
+            h = new Histogram();
+            Histogram old = latencies.putIfAbsent(source, h);
+            if (old != null) {
+                h = old;
+            }
+        }
+        h.record(millis);
+    }
+
+    /**
+     * 歌词来源找到了歌词
+     */
+    public void hit(String source) {
+        increment(source + ".hit");
+    }
+
+    /**
+     * 歌词来源没有找到歌词
+     */
+    public void miss(String source) {
+        increment(source + ".miss");
+    }
+
+    /**
+     * 歌词来源的请求出错了
+     */
+    public void error(String source) {
+        increment(source + ".error");
+    }
+
+    /**
+     * 某种格式的读取器认出并读完了一个文件
+     * @param reader 读取器的名字
+     * @param bytes 文件的字节数
+     */
+    public void read(String reader, long bytes) {
+        increment("reader." + reader + ".files");
+        add("reader." + reader + ".bytes", bytes);
+    }
+
+    public long getItemsProcessed() {
+        return processed.get();
+    }
+
+    public double getItemsPerSecond() {
+        long now = System.currentTimeMillis() / 1000;
+        long sum = 0;
+        for (long sec = now - RATE_WINDOW; sec < now; sec++) {//不算还没过完的这一秒
+            int i = (int) (sec % SLOTS);
+            long slot = perSecond.get(i);
+            if (slot >>> 32 == sec) {
+                sum += slot & 0xFFFFFFFFL;
+            }
+        }
+        return (double) sum / RATE_WINDOW;
+    }
+
+    public Map<String, Long> getCounters() {
+        Map<String, Long> map = new TreeMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> e : counters.entrySet()) {
+            map.put(e.getKey(), Long.valueOf(e.getValue().get()));
+        }
+        return map;
+    }
+
+    public Map<String, Long> getGauges() {
+        Map<String, Long> map = new TreeMap<String, Long>();
+        for (Map.Entry<String, Gauge> e : gauges.entrySet()) {
+            map.put(e.getKey(), Long.valueOf(e.getValue().getValue()));
+        }
+        return map;
+    }
+
+    public Map<String, String> getFetchLatencies() {
+        Map<String, String> map = new TreeMap<String, String>();
+        for (Map.Entry<String, Histogram> e : latencies.entrySet()) {
+            map.put(e.getKey(), e.getValue().toString());
+        }
+        return map;
+    }
+
+    public String getSnapshot() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("[metrics]items=").append(getItemsProcessed());
+        sb.append(" rate=").append(String.format("%.1f", getItemsPerSecond())).append("/s");
+        for (Map.Entry<String, Long> e : getGauges().entrySet()) {
+            sb.append(' ').append(e.getKey()).append('=').append(e.getValue());
+        }
+        for (Map.Entry<String, String> e : getFetchLatencies().entrySet()) {
+            sb.append("\n  ").append(e.getKey()).append(": ").append(e.getValue());
+        }
+        Map<String, Long> c = getCounters();
+        if (!c.isEmpty()) {
+            sb.append("\n  ").append(c);
+        }
+        return sb.toString();
+    }
+
+    public void reset() {
+        processed.set(0);
+        for (int i = 0; i < SLOTS; i++) {
+            perSecond.set(i, 0);
+        }
+        counters.clear();
+        latencies.clear();
+    }
+
+    /**
+     * 固定分档的延迟分布,只记每一档有多少个,
+     * 所以百分位数只能精确到档的上限
+     */
+    private static class Histogram {
+
+        private static final long[] BOUNDS = {10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000};//毫秒
+        private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length + 1);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long millis) {
+            int i = 0;
+            while (i < BOUNDS.length && millis > BOUNDS[i]) {
+                i++;
+            }
+            buckets.incrementAndGet(i);
+            count.incrementAndGet();
+            sum.addAndGet(millis);
+            long m;
+            while (millis > (m = max.get()) && !max.compareAndSet(m, millis)) {
+            }
+        }
+
+        /**
+         * @param q 0到1之间
+         * @return 这个百分位落在的档的上限,最后一档就用最大值
+         */
+        long percentile(double q) {
+            long n = count.get();
+            long target = (long) Math.ceil(n * q);
+            long seen = 0;
+            for (int i = 0; i < BOUNDS.length; i++) {
+                seen += buckets.get(i);
+                if (seen >= target) {
+                    return BOUNDS[i];
+                }
+            }
+            return max.get();
+        }
+
+        public String toString() {
+            long n = count.get();
+            if (n == 0) {
+                return "n=0";
+            }
+            StringBuilder sb = new StringBuilder();
+            sb.append("n=").append(n);
+            sb.append(" mean=").append(sum.get() / n).append("ms");
+            sb.append(" p50<=").append(percentile(0.5)).append("ms");
+            sb.append(" p95<=").append(percentile(0.95)).append("ms");
+            sb.append(" p99<=").append(percentile(0.99)).append("ms");
+            sb.append(" max=").append(max.get()).append("ms");
+            sb.append(" [");
+            for (int i = 0; i < buckets.length(); i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append(buckets.get(i));
+            }
+            sb.append(']');
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package org.batchexecutor.util;
+
+import java.util.Map;
+
+/**
+ * {@link Metrics}在JMX上看到的样子,用jconsole之类的工具连上去
+ * 在org.batchexecutor:type=Metrics下面就能看到
+ * @author SnowWolf725
+ */
+public interface MetricsMXBean {
+
+    /**
+     * @return 一共处理完了多少项
+     */
+    public long getItemsProcessed();
+
+    /**
+     * @return 最近10秒平均每秒处理的项数
+     */
+    public double getItemsPerSecond();
+
+    /**
+     * @return 所有的计数,比如各个来源的命中和没命中,各个格式读取的字节数
+     */
+    public Map<String, Long> getCounters();
+
+    /**
+     * @return 所有的当前值,比如队列的长度
+     */
+    public Map<String, Long> getGauges();
+
+    /**
+     * @return 每个歌词来源的延迟分布的概要
+     */
+    public Map<String, String> getFetchLatencies();
+
+    /**
+     * @return 和定时打印出来的一样的文本
+     */
+    public String getSnapshot();
+
+    /**
+     * 所有的计数和延迟都清零
+     */
+    public void reset();
+}
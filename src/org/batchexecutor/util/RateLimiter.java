@@ -0,0 +1,127 @@
+package org.batchexecutor.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每个歌词来源一个的令牌桶限速器,代替以前每搜一首歌就死等10秒的做法
+ * 速度是会自己调整的:请求成功并且延迟正常的时候慢慢加快,
+ * 出错或者延迟明显变大的时候马上减半(加性增,乘性减),
+ * 这样批处理能跑到对方服务器允许的最快速度,又不会把它打垮
+ * 初始的速度由{@link Config#getLyricSourceRate(String)}设定,
+ * 调整的范围是初始速度的十分之一到十倍
+ * @author SnowWolf725
+ */
+public final class RateLimiter {
+
+    private static final ConcurrentMap<String, RateLimiter> limiters = new ConcurrentHashMap<String, RateLimiter>();
+    private static final double RANGE = 10.0;//速度能调整的倍数
+    private static final double SLOW_FACTOR = 2.0;//延迟超过平均值的几倍就算变慢了
+    private static final double EWMA_WEIGHT = 0.1;//平均延迟的平滑系数
+    private final String source;
+    private final double minRate;
+    private final double maxRate;
+    private final double step;//每次成功加快多少
+    private double rate;//当前的速度,每秒多少个请求
+    private double tokens;
+    private long lastRefill;
+    private double avgLatency = -1;//平均延迟,毫秒
+
+    private RateLimiter(String source, double initialRate) {
+        this.source = source;
+        this.rate = initialRate;
+        this.minRate = initialRate / RANGE;
+        this.maxRate = initialRate * RANGE;
+        this.step = initialRate / 10;
+        this.tokens = 1;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * 得到某个歌词来源的限速器
+     * @param source 来源的名字
+     * @return 限速器
+     */
+    public static RateLimiter forSource(String source) {
+        RateLimiter limiter = limiters.get(source);
+        if (limiter == null) {
+            limiter = new RateLimiter(source, Config.getConfig().getLyricSourceRate(source));
+            RateLimiter old = limiters.putIfAbsent(source, limiter);
+            if (old != null) {
+                limiter = old;
+            }
+        }
+        return limiter;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * 得到当前的速度
+     * @return 每秒多少个请求
+     */
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    /**
+     * 取一个令牌,没有的话就预约一个,然后在锁外面等到它生效
+     * @throws InterruptedException
+     */
+    public void acquire() throws InterruptedException {
+        long wait;
+        synchronized (this) {
+            refill();
+            tokens -= 1;
+            wait = tokens >= 0 ? 0 : (long) (-tokens / rate * 1000000000L);
+        }
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    /**
+     * 报告一次成功的请求
+     * @param latency 这次请求用了多少毫秒
+     */
+    public synchronized void success(long latency) {
+        if (avgLatency < 0) {
+            avgLatency = latency;
+        }
+        if (latency > avgLatency * SLOW_FACTOR) {
+            slowDown();
+        } else {
+            refill();
+            rate = Math.min(maxRate, rate + step);
+        }
+        avgLatency += (latency - avgLatency) * EWMA_WEIGHT;
+    }
+
+    /**
+     * 报告一次失败的请求,速度马上减半
+     */
+    public synchronized void failure() {
+        slowDown();
+    }
+
+    private void slowDown() {
+        refill();
+        rate = Math.max(minRate, rate / 2);
+    }
+
+    /**
+     * 按当前的速度把这段时间该有的令牌补上,最多攒一秒的量
+     */
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(Math.max(1, rate), tokens + (now - lastRefill) * rate / 1000000000L);
+        lastRefill = now;
+    }
+
+    public String toString() {
+        return source + ":" + String.format("%.2f", getRate()) + "/s";
+    }
+}
@@ -26,6 +26,8 @@ import java.net.URLEncoder;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -40,12 +42,13 @@ import javax.swing.JToggleButton;
 import javax.swing.event.ChangeListener;
 
 import org.apache.commons.httpclient.Header;
-import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpStatus;
 import org.apache.commons.httpclient.URI;
-import org.apache.commons.httpclient.UsernamePasswordCredentials;
-import org.apache.commons.httpclient.auth.AuthScope;
 import org.apache.commons.httpclient.methods.GetMethod;
 import org.batchexecutor.lyric.LRCUtil;
+import org.batchexecutor.lyric.LyricFetchExecutor;
+import org.batchexecutor.lyric.LyricMissCache;
+import org.batchexecutor.lyric.LyricStore;
 import org.batchexecutor.lyric.SearchResult;
 import org.batchexecutor.playlist.PlayListItem;
 
@@ -60,6 +63,10 @@ public final class Util {
 
     public static String VERSION = "1.2";//版本号,用于对比更新
     private static Logger log = Logger.getLogger(Util.class.getName());
+    /** 百度搜索在限速器里面的来源名 */
+    public static final String BAIDU = "baidu";
+    /** 百度的地址,压力测试的时候可以用系统属性换成本地的替身 */
+    private static final String BAIDU_URL = System.getProperty("batchexecutor.baidu.url", "http://www.baidu.com");
     private static final JPanel panel = new JPanel();
     private static final JFileChooser jfc = new JFileChooser();
 
@@ -618,16 +625,50 @@ public final class Util {
      * @param info 歌曲信息
      * @return 歌词内容
      */
-    public static String getLyric(PlayListItem info) throws IOException {
+    public static String getLyric(final PlayListItem info) throws IOException {
         log.log(Level.INFO, "进来找歌词了");
-        String ly = getLyricTTPlayer(info);
-        if (ly != null) {
-            log.log(Level.INFO, "TT上搜索到了...");
-        } else {
-            ly = getLyricBaidu(info);
+        String stored = LyricStore.getDefault().get(info);
+        if (stored != null) {
+            log.log(Level.INFO, "歌词库里有了");
+            return stored;
+        }
+        LyricMissCache cache = LyricMissCache.getDefault();
+        if (cache.isMissing(LyricMissCache.ALL, info)) {
+            log.log(Level.INFO, "最近搜过,网上没有");
+            return null;
         }
-        return ly;
+        //两个地方同时搜,千千静听的优先,它有了百度的就不要了
+        List<Callable<String>> sources = new ArrayList<Callable<String>>();
+        sources.add(new Callable<String>() {
+
+            public String call() throws Exception {
+                String ly = getLyricTTPlayer(info);
+                if (ly != null) {
+                    log.log(Level.INFO, "TT上搜索到了...");
+                }
+                return ly;
+            }
+        });
+        sources.add(new Callable<String>() {
 
+            public String call() throws Exception {
+                return getLyricBaidu(info);
+            }
+        });
+        try {
+            String ly = LyricFetchExecutor.getDefault().firstFound(sources);
+            if (ly == null) {
+                cache.missed(LyricMissCache.ALL, info);
+            } else {
+                cache.found(LyricMissCache.ALL, info);
+            }
+            return ly;
+        } catch (ExecutionException ex) {
+            throw new IOException("lyric search failed", ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while searching the lyric");
+        }
     }
 
     /**
@@ -637,7 +678,7 @@ public final class Util {
      * @throws java.io.IOException
      */
     private static String getLyricTTPlayer(PlayListItem info) throws IOException {
-        List<SearchResult> list = LRCUtil.search(info);
+        List<SearchResult> list = LRCUtil.find(info);
         if (list.isEmpty()) {
             return null;
         } else {
@@ -694,31 +735,42 @@ public final class Util {
      * @throws java.lang.Exception
      */
     private static String getURLContent(String url) throws IOException {
-        HttpClient http = new HttpClient();
-        Config config = Config.getConfig();
-        if (config.isUseProxy()) {
-            if (config.getProxyUserName() != null && config.getProxyPwd() != null) {
-                http.getState().setProxyCredentials(
-                        new AuthScope(config.getProxyHost(), Integer.parseInt(config.getProxyPort())),
-                        new UsernamePasswordCredentials(config.getProxyUserName(), config.getProxyPwd()));
-            }
-            http.getHostConfiguration().setProxy(config.getProxyHost(),
-                    Integer.parseInt(config.getProxyPort()));
-        }
-        http.getParams().setContentCharset("GBK");
         GetMethod get = new GetMethod();
+        get.getParams().setContentCharset("GBK");
         URI uri = new URI(url, false, "GBK");
         get.setURI(uri);
-        http.executeMethod(get);
-        System.out.println(get.getResponseCharSet());
-        Header[] hs = get.getResponseHeaders();
-        for (Header h : hs) {
-            System.out.print(h);
+        String host = acquireHost(url);
+        try {
+            HttpUtil.execute(get);
+            System.out.println(get.getResponseCharSet());
+            Header[] hs = get.getResponseHeaders();
+            for (Header h : hs) {
+                System.out.print(h);
+            }
+            return getString(get.getResponseBodyAsStream());
+        } finally {
+            get.releaseConnection();
+            HostLimiter.getDefault().release(host);
         }
-        return getString(get.getResponseBodyAsStream());
 
     }
 
+    /**
+     * 取得这个URL所在主机的请求许可,等的时候被打断了
+     * 就当作IO异常抛出去
+     * @param url URL
+     * @return 主机名,用来还许可
+     * @throws IOException
+     */
+    private static String acquireHost(String url) throws IOException {
+        try {
+            return HostLimiter.getDefault().acquire(url);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for " + url);
+        }
+    }
+
     /**
      * 得到在百度上搜索到的歌词的内容
      * @param key 关键内容
@@ -726,41 +778,58 @@ public final class Util {
      * @throws java.lang.Exception
      */
     private static String getBaidu_Lyric(String key) throws Exception {
-        HttpClient http = new HttpClient();
-        Config config = Config.getConfig();
-        if (config.isUseProxy()) {
-            if (config.getProxyUserName() != null && config.getProxyPwd() != null) {
-                http.getState().setProxyCredentials(
-                        new AuthScope(config.getProxyHost(), Integer.parseInt(config.getProxyPort())),
-                        new UsernamePasswordCredentials(config.getProxyUserName(), config.getProxyPwd()));
-            }
-            http.getHostConfiguration().setProxy(config.getProxyHost(),
-                    Integer.parseInt(config.getProxyPort()));
-        }
-        http.getParams().setContentCharset("GBK");
-        GetMethod get = new GetMethod("http://www.baidu.com/s?wd=" + URLEncoder.encode("filetype:lrc " + key, "GBK"));
+        GetMethod get = new GetMethod(BAIDU_URL + "/s?wd=" + URLEncoder.encode("filetype:lrc " + key, "GBK"));
         get.addRequestHeader("Host", "www.baidu.com");
         get.addRequestHeader("User-Agent", "Mozilla/5.0 (Windows; U; Windows NT 5.1; zh-CN; rv:1.8.1.11) Gecko/20071127 Firefox/2.0.0.11");
         get.addRequestHeader("Accept", "text/xml,application/xml,application/xhtml+xml,text/html;q=0.9,text/plain;q=0.8,image/png,*/*;q=0.5");
         get.addRequestHeader("Accept-Language", "zh-cn,zh;q=0.5");
         get.addRequestHeader("Keep-Alive", "300");
-        get.addRequestHeader("Referer", "http://www.baidu.com/");
+        get.addRequestHeader("Referer", BAIDU_URL + "/");
         get.addRequestHeader("Connection", "keep-alive");
-        int i = http.executeMethod(get);
-        String temp = getString(get.getResponseBodyAsStream());
-        get.releaseConnection();
+        get.getParams().setContentCharset("GBK");
+        RateLimiter limiter = RateLimiter.forSource(BAIDU);
+        try {
+            limiter.acquire();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for " + BAIDU);
+        }
+        String host = acquireHost(get.getURI().toString());
+        String temp = null;
+        Metrics metrics = Metrics.getDefault();
+        long start = System.currentTimeMillis();
+        try {
+            int i = HttpUtil.execute(get);
+            long latency = System.currentTimeMillis() - start;
+            metrics.latency(BAIDU, latency);
+            if (i != HttpStatus.SC_OK) {//服务器出错不能当成没有歌词,不然会记进没找到的缓存里
+                throw new IOException(get.getURI() + " returned " + i);
+            }
+            temp = getString(get.getResponseBodyAsStream());
+            limiter.success(latency);
+        } catch (IOException ex) {
+            limiter.failure();
+            metrics.error(BAIDU);
+            throw ex;
+        } finally {
+            get.releaseConnection();
+            HostLimiter.getDefault().release(host);
+        }
 //        System.out.println("TEMP="+temp);
 //        Matcher m = Pattern.compile("(?<=<b>【LRC】</b>).*?(?=文件格式)").matcher(temp);
 //        Matcher m = Pattern.compile("(?<='\\)\" href=\").*?(?=\" target=\"_blank\"><font size=\"3\">)").matcher(temp);
         Matcher m = Pattern.compile("(?<=LRC/Lyric - <a href=\").*?(?=\" target=\"_blank\">HTML版</a>)").matcher(temp);
         String content = null;
         if (m.find()) {
+            metrics.hit(BAIDU);
             String str = m.group();
             content = Util.getURLContent(str);
             m = Pattern.compile("(?<=<body>).*?(?=</body>)").matcher(content);
             if (m.find()) {
                 content = m.group();
             }
+        } else {
+            metrics.miss(BAIDU);
         }
         return htmlTrim2(content);
     }
@@ -799,8 +868,9 @@ public final class Util {
      * 从百度去搜索歌词
      * @param info 播放项
      * @return 歌词内容，可能为NULL
+     * @throws IOException 网络出错了
      */
-    private static String getLyricBaidu(PlayListItem info) {
+    private static String getLyricBaidu(PlayListItem info) throws IOException {
         try {
             //先全部匹配
             String song = info.getTitle();
@@ -812,6 +882,8 @@ public final class Util {
             } else {
                 return s;
             }
+        } catch (IOException ex) {
+            throw ex;
         } catch (Exception ex) {
             return null;
         }